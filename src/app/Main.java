@@ -3,11 +3,17 @@ package app;
 import app.ui.AppFrame;
 
 import javax.swing.*;
+import java.util.Arrays;
 
 public class Main {
+    /**
+     * Аргументы:
+     * --canvas — активный рендеринг (кадры выводит поток рендера через BufferStrategy), иначе обычный Swing.
+     */
     public static void main(String[] args) {
+        boolean activeRendering = Arrays.asList(args).contains("--canvas");
         SwingUtilities.invokeLater(() -> {
-            AppFrame frame = new AppFrame();
+            AppFrame frame = new AppFrame(activeRendering);
             frame.setVisible(true);
         });
     }
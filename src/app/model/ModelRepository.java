@@ -1,5 +1,9 @@
 package app.model;
 
+import engine.MeshCleanup;
+import engine.ObjIO;
+import engine.ObjLoader;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -9,8 +13,29 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 public class ModelRepository {
+    /**
+     * Чистый меш модели лежит рядом с исходным OBJ под именем "<имя>.clean.obj" (если чистка что-то
+     * поменяла). В нём только геометрия и uv (ObjIO) — без mtllib/usemtl, групп и нормалей автора,
+     * поэтому исходный файл остаётся в папке как есть.
+     */
+    public static final String CLEAN_SUFFIX = ".clean.obj";
+
     private final Path root = Paths.get("models");
 
+    /** Что получилось при импорте: имя модели, что сделала чистка меша и куда лёг чистый меш. */
+    public static final class ImportResult {
+        public final String modelName;
+        public final MeshCleanup.Report cleanup;
+        /** Чистый OBJ рядом с исходным или null, если чистить было нечего. */
+        public final Path cleanedObj;
+
+        ImportResult(String modelName, MeshCleanup.Report cleanup, Path cleanedObj) {
+            this.modelName = modelName;
+            this.cleanup = cleanup;
+            this.cleanedObj = cleanedObj;
+        }
+    }
+
     public ModelRepository() {
         try {
             Files.createDirectories(root);
@@ -27,7 +52,11 @@ public class ModelRepository {
         }
     }
 
-    public String importModel(Path sourceObjFile) throws IOException {
+    public ImportResult importModel(Path sourceObjFile) throws IOException {
+        // сначала читаем и чистим (склейка вершин, вырожденные и дубли треугольников, лишние вершины) —
+        // битый файл не должен оставлять пустую папку
+        MeshCleanup.Result clean = MeshCleanup.clean(ObjLoader.load(sourceObjFile));
+
         String fileName = sourceObjFile.getFileName().toString();
         String baseName = fileName.toLowerCase().endsWith(".obj")
                 ? fileName.substring(0, fileName.length() - 4)
@@ -43,11 +72,18 @@ public class ModelRepository {
 
         Files.createDirectories(destDir);
 
-        // копируем только сам OBJ
-        Files.copy(sourceObjFile, destDir.resolve(sourceObjFile.getFileName()),
-                StandardCopyOption.REPLACE_EXISTING);
+        // исходный OBJ копируем всегда как есть: материалы, группы и нормали автора остаются в нём
+        Path dest = destDir.resolve(sourceObjFile.getFileName());
+        Files.copy(sourceObjFile, dest, StandardCopyOption.REPLACE_EXISTING);
+
+        Path cleaned = null;
+        if (clean.report.changed()) {
+            // чистый меш — рядом (его и открывает просмотр)
+            cleaned = destDir.resolve(baseName + CLEAN_SUFFIX);
+            ObjIO.write(clean.mesh, cleaned);
+        }
 
-        return modelName;
+        return new ImportResult(modelName, clean.report, cleaned);
     }
 
 
@@ -0,0 +1,96 @@
+package app.ui;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.function.Consumer;
+
+/**
+ * Вьюпорт с активным рендерингом: AWT Canvas + BufferStrategy (page flipping, если умеет видеокарта,
+ * иначе blit из back-buffer). Кадр выводит сам поток рендера сразу после публикации (present()),
+ * без repaint(), без RepaintManager Swing и без лишней копии через back-buffer JComponent.
+ *
+ * Системную перерисовку (окно открыли/перекрыли) Canvas тоже не ждёт от Swing: paint() просто
+ * зовёт onExpose, который выводит последний готовый кадр ещё раз.
+ */
+final class ActiveCanvas extends Canvas {
+    private static final long serialVersionUID = 1L;
+
+    private static final int BUFFERS = 2;
+
+    // present() зовут поток рендера и EDT (onExpose); BufferStrategy создаётся/удаляется в EDT
+    private final Object lock = new Object();
+    private BufferStrategy strategy;
+
+    private final Runnable onExpose;
+
+    ActiveCanvas(Runnable onExpose) {
+        if (onExpose == null) throw new NullPointerException("onExpose must not be null");
+        this.onExpose = onExpose;
+        setBackground(new Color(40, 40, 40));
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        synchronized (lock) {
+            createBufferStrategy(BUFFERS);
+            strategy = getBufferStrategy();
+        }
+    }
+
+    @Override
+    public void removeNotify() {
+        synchronized (lock) {
+            if (strategy != null) strategy.dispose();
+            strategy = null;
+        }
+        super.removeNotify();
+    }
+
+    // без очистки фоном перед paint — иначе мигает
+    @Override
+    public void update(Graphics g) {
+        paint(g);
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        onExpose.run();
+    }
+
+    /**
+     * Вывести картинку (растягивается на весь Canvas) и overlay поверх. Можно звать из любого потока.
+     * false — Canvas ещё (или уже) не на экране, ничего не показано.
+     */
+    boolean present(BufferedImage image, Consumer<Graphics2D> overlay) {
+        synchronized (lock) {
+            BufferStrategy bs = strategy;
+            int w = getWidth(), h = getHeight();
+            if (bs == null || w <= 0 || h <= 0) return false;
+
+            // содержимое буфера могут потерять (смена режима экрана и т.п.) — тогда рисуем заново
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) bs.getDrawGraphics();
+                    try {
+                        if (image.getWidth() == w && image.getHeight() == h) {
+                            g.drawImage(image, 0, 0, null);
+                        } else {
+                            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                            g.drawImage(image, 0, 0, w, h, null);
+                        }
+                        if (overlay != null) overlay.accept(g);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (bs.contentsRestored());
+                bs.show();
+            } while (bs.contentsLost());
+
+            // на Linux (X11) без sync кадр может висеть в очереди команд
+            Toolkit.getDefaultToolkit().sync();
+            return true;
+        }
+    }
+}
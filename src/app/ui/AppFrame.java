@@ -3,9 +3,12 @@ package app.ui;
 import app.image.ImageProcessorSwing;
 import app.model.ModelRepository;
 import engine.Camera;
+import engine.Light;
 import engine.Mesh;
+import engine.MeshLod;
 import engine.ModelInstance;
 import engine.ObjLoader;
+import engine.Scene;
 import engine.Texture;
 import math.Vec3;
 
@@ -22,6 +25,10 @@ import java.util.List;
 
 public class AppFrame extends JFrame {
 
+    // модели от стольких вершин держим в памяти сжатыми (Mesh.compact): это с потерями — шаг позиции
+    // 1/65535 размера модели по оси, — поэтому только для больших сканов, где иначе не хватает памяти
+    private static final int COMPACT_MIN_VERTICES = 1_000_000;
+
     private final ModelRepository repo = new ModelRepository();
 
     private final DefaultListModel<String> modelsListModel = new DefaultListModel<>();
@@ -34,6 +41,10 @@ public class AppFrame extends JFrame {
     private final JCheckBox cbWireframe = new JCheckBox("Рисовать полигональную сетку", true);
     private final JCheckBox cbTexture   = new JCheckBox("Использовать текстуру", false);
     private final JCheckBox cbLighting  = new JCheckBox("Использовать освещение", false);
+    private final JCheckBox cbSceneLights = new JCheckBox("Свет сцены: солнце и лампа", false);
+    private final JCheckBox cbShadows   = new JCheckBox("Тени от солнца", true);
+    private final JCheckBox cbTemporal  = new JCheckBox("Переиспользовать прошлый кадр", false);
+    private final JComboBox<String> cbMsaa = new JComboBox<>(new String[] { "Без сглаживания", "MSAA 4x", "MSAA 8x" });
 
     private final JButton btnPickColor   = new JButton("Выбрать цвет модели...");
     private final JButton btnLoadTexture = new JButton("Загрузить текстуру...");
@@ -43,9 +54,10 @@ public class AppFrame extends JFrame {
     private final JList<String> camerasList = new JList<>(camerasListModel);
     private final JButton btnAddCamera = new JButton("+ Камера");
     private final JButton btnRemoveCamera = new JButton("- Камера");
+    private final JCheckBox cbSplitView = new JCheckBox("Показывать все камеры (до 4)", false);
 
     // панель для 3D модели (у тебя она уже есть, но мы её расширили)
-    private final ModelPanel modelPanel = new ModelPanel();
+    private final ModelPanel modelPanel;
 
     // текущая модель + оригинал (чтобы можно было откатить)
     private ModelInstance currentModel;
@@ -76,7 +88,13 @@ public class AppFrame extends JFrame {
     private BufferedImage currentImage;
 
     public AppFrame() {
+        this(false);
+    }
+
+    /** activeRendering — вьюпорт на ActiveCanvas (BufferStrategy) вместо обычного paintComponent. */
+    public AppFrame(boolean activeRendering) {
         super("Computer Graphics — Software Rasterizer");
+        modelPanel = new ModelPanel(activeRendering);
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         setSize(1200, 750);
         setLocationRelativeTo(null);
@@ -192,6 +210,12 @@ public class AppFrame extends JFrame {
         modes.add(cbWireframe);
         modes.add(cbTexture);
         modes.add(cbLighting);
+        modes.add(cbSceneLights);
+        modes.add(cbShadows);
+        modes.add(cbTemporal);
+        cbMsaa.setAlignmentX(Component.LEFT_ALIGNMENT);
+        cbMsaa.setMaximumSize(cbMsaa.getPreferredSize());
+        modes.add(cbMsaa);
         modes.add(Box.createVerticalStrut(6));
         modes.add(btnPickColor);
         modes.add(Box.createVerticalStrut(4));
@@ -217,7 +241,10 @@ public class AppFrame extends JFrame {
         JPanel camBtns = new JPanel(new GridLayout(1, 2, 6, 6));
         camBtns.add(btnAddCamera);
         camBtns.add(btnRemoveCamera);
-        camBox.add(camBtns, BorderLayout.SOUTH);
+        JPanel camSouth = new JPanel(new BorderLayout(6, 6));
+        camSouth.add(camBtns, BorderLayout.CENTER);
+        camSouth.add(cbSplitView, BorderLayout.SOUTH);
+        camBox.add(camSouth, BorderLayout.SOUTH);
 
         p.add(camBox);
 
@@ -276,7 +303,7 @@ public class AppFrame extends JFrame {
             if (currentModel == null) return;
             currentModel.getTransform().reset();
             syncUiFromTransform();
-            modelPanel.repaint();
+            modelPanel.requestFrame();
             status("Transform сброшен");
         });
 
@@ -351,19 +378,53 @@ public class AppFrame extends JFrame {
     private void wireRenderSettingsUi() {
         cbWireframe.addActionListener(e -> {
             modelPanel.getRenderSettings().drawWireframe = cbWireframe.isSelected();
-            modelPanel.repaint();
+            modelPanel.requestFrame();
             modelPanel.requestFocusInWindow();
         });
 
         cbTexture.addActionListener(e -> {
             modelPanel.getRenderSettings().useTexture = cbTexture.isSelected();
-            modelPanel.repaint();
+            modelPanel.requestFrame();
             modelPanel.requestFocusInWindow();
         });
 
         cbLighting.addActionListener(e -> {
             modelPanel.getRenderSettings().useLighting = cbLighting.isSelected();
-            modelPanel.repaint();
+            modelPanel.requestFrame();
+            modelPanel.requestFocusInWindow();
+        });
+
+        // без света в сцене рендер светит "фонариком" от камеры; с ним — тайловое освещение
+        // (LightTiles) и карта теней солнца (ShadowMap)
+        cbSceneLights.addActionListener(e -> {
+            Scene scene = modelPanel.getScene();
+            scene.clearLights();
+            if (cbSceneLights.isSelected()) {
+                for (Light l : defaultLights()) scene.addLight(l);
+                // свет сцены без освещения не видно
+                cbLighting.setSelected(true);
+                modelPanel.getRenderSettings().useLighting = true;
+            }
+            modelPanel.requestFrame();
+            modelPanel.requestFocusInWindow();
+        });
+
+        cbShadows.addActionListener(e -> {
+            modelPanel.getRenderSettings().useShadows = cbShadows.isSelected();
+            modelPanel.requestFrame();
+            modelPanel.requestFocusInWindow();
+        });
+
+        cbTemporal.addActionListener(e -> {
+            modelPanel.getRenderSettings().temporalReuse = cbTemporal.isSelected();
+            modelPanel.requestFrame();
+            modelPanel.requestFocusInWindow();
+        });
+
+        cbMsaa.addActionListener(e -> {
+            int[] samples = { 1, 4, 8 };
+            modelPanel.getRenderSettings().msaaSamples = samples[cbMsaa.getSelectedIndex()];
+            modelPanel.requestFrame();
             modelPanel.requestFocusInWindow();
         });
 
@@ -371,7 +432,7 @@ public class AppFrame extends JFrame {
             Color c = JColorChooser.showDialog(this, "Цвет модели", modelPanel.getRenderSettings().baseColor);
             if (c != null) {
                 modelPanel.getRenderSettings().baseColor = c;
-                modelPanel.repaint();
+                modelPanel.requestFrame();
                 modelPanel.requestFocusInWindow();
             }
         });
@@ -387,7 +448,7 @@ public class AppFrame extends JFrame {
             int idx = camerasList.getSelectedIndex();
             if (idx >= 0) {
                 modelPanel.getScene().setActiveIndex(idx);
-                modelPanel.repaint();
+                modelPanel.requestFrame();
                 modelPanel.requestFocusInWindow();
             }
         });
@@ -407,6 +468,11 @@ public class AppFrame extends JFrame {
             modelPanel.requestFocusInWindow();
         });
 
+        cbSplitView.addActionListener(e -> {
+            modelPanel.setSplitView(cbSplitView.isSelected());
+            modelPanel.requestFocusInWindow();
+        });
+
         btnRemoveCamera.addActionListener(e -> {
             int idx = camerasList.getSelectedIndex();
             if (idx < 0) idx = modelPanel.getScene().getActiveIndex();
@@ -422,6 +488,7 @@ public class AppFrame extends JFrame {
             modelPanel.getScene().removeCamera(idx);
             refreshCamerasUi();
             camerasList.setSelectedIndex(modelPanel.getScene().getActiveIndex());
+            modelPanel.requestFrame();
             modelPanel.requestFocusInWindow();
         });
     }
@@ -446,7 +513,9 @@ public class AppFrame extends JFrame {
                 throw new IllegalArgumentException("В папке models/" + modelName + " не найден .obj файл");
             }
 
-            Mesh mesh = ObjLoader.load(objPath); // <--- наш ObjLoader (триангуляция + пересчёт нормалей)
+            Mesh loaded = ObjLoader.load(objPath); // <--- наш ObjLoader (триангуляция + пересчёт нормалей)
+            // большой скан — сжатым (16-битные атрибуты и индексы), рендер распакует сам
+            Mesh mesh = (loaded.vertexCount() >= COMPACT_MIN_VERTICES) ? loaded.compact() : loaded;
             originalMesh = mesh;
             currentModel = new ModelInstance(mesh);
 
@@ -457,7 +526,20 @@ public class AppFrame extends JFrame {
             status("Загружено: " + modelName +
                     "   file=" + objPath.getFileName() +
                     "   tris=" + mesh.triangleCount() +
-                    "   verts=" + mesh.vertexCount());
+                    "   verts=" + mesh.vertexCount() +
+                    (mesh.isCompact() ? "   (сжат в памяти)" : ""));
+
+            // уровни детализации строятся в фоне; когда готовы — кадр перерисовывается уже с ними
+            MeshLod.buildAsync(mesh).whenComplete((lod, err) -> SwingUtilities.invokeLater(() -> {
+                if (err != null) {
+                    err.printStackTrace();
+                    return;
+                }
+                if (originalMesh != mesh) return; // пока строили, загрузили другую модель
+                modelPanel.invalidateFrame();
+                status("LOD: " + modelName + "   уровней=" + lod.levelCount() +
+                        "   грубейший tris=" + lod.level(lod.levelCount() - 1).mesh.triangleCount());
+            }));
         } catch (Exception ex) {
             ex.printStackTrace();
             showError("Ошибка загрузки модели: " + modelName, ex);
@@ -468,10 +550,13 @@ public class AppFrame extends JFrame {
         Path dir = Path.of("models").resolve(modelName);
         if (!Files.exists(dir) || !Files.isDirectory(dir)) return null;
 
+        // если при импорте меш чистили — берём чистый, иначе исходный OBJ
         try (var s = Files.list(dir)) {
-            return s.filter(p -> p.getFileName().toString().toLowerCase().endsWith(".obj"))
-                    .findFirst()
-                    .orElse(null);
+            List<Path> objs = s.filter(p -> p.getFileName().toString().toLowerCase().endsWith(".obj")).toList();
+            for (Path p : objs) {
+                if (p.getFileName().toString().toLowerCase().endsWith(ModelRepository.CLEAN_SUFFIX)) return p;
+            }
+            return objs.isEmpty() ? null : objs.get(0);
         }
     }
 
@@ -483,10 +568,10 @@ public class AppFrame extends JFrame {
 
         File f = ch.getSelectedFile();
         try {
-            String modelName = repo.importModel(f.toPath()); // <--- твой метод (создаёт папку models/<name>/)
+            ModelRepository.ImportResult imported = repo.importModel(f.toPath()); // <--- создаёт папку models/<name>/
             refreshModelsSafe();
-            modelsList.setSelectedValue(modelName, true);
-            status("Импортировано: " + modelName);
+            modelsList.setSelectedValue(imported.modelName, true);
+            status("Импортировано: " + imported.modelName + "   " + imported.cleanup);
         } catch (Exception ex) {
             ex.printStackTrace();
             showError("Ошибка импорта", ex);
@@ -539,7 +624,7 @@ public class AppFrame extends JFrame {
             cbTexture.setSelected(true);
 
             status("Текстура загружена: " + f.getName());
-            modelPanel.repaint();
+            modelPanel.requestFrame();
             modelPanel.requestFocusInWindow();
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -573,10 +658,26 @@ public class AppFrame extends JFrame {
         cbWireframe.setEnabled(enabled);
         cbTexture.setEnabled(enabled);
         cbLighting.setEnabled(enabled);
+        cbSceneLights.setEnabled(enabled);
+        cbShadows.setEnabled(enabled);
+        cbTemporal.setEnabled(enabled);
+        cbMsaa.setEnabled(enabled);
         btnPickColor.setEnabled(enabled);
         btnLoadTexture.setEnabled(enabled);
     }
 
+    /** Свет для флажка "Свет сцены": солнце с тенью сверху-сбоку и тёплая лампа спереди-справа. */
+    private static List<Light> defaultLights() {
+        Light sun = Light.directional(new Vec3(-0.4, -1.0, -0.3));
+        sun.setIntensity(0.8);
+        sun.setCastsShadows(true);
+
+        Light lamp = Light.point(new Vec3(2.5, 2.0, 3.0), 12.0);
+        lamp.setColor(new Color(255, 214, 170));
+        lamp.setIntensity(0.6);
+        return List.of(sun, lamp);
+    }
+
     private void applyTransformFromUi() {
         if (currentModel == null) return;
 
@@ -597,7 +698,7 @@ public class AppFrame extends JFrame {
         currentModel.getTransform().setScale(new Vec3(sx, sy, sz));
 
         syncLabels();
-        modelPanel.repaint();
+        modelPanel.requestFrame();
     }
 
     private void syncUiFromTransform() {
@@ -0,0 +1,54 @@
+package app.ui;
+
+import engine.Camera;
+import engine.InstanceBvh;
+import engine.Light;
+import engine.DrawCommand;
+import engine.RenderSettings;
+
+import java.util.List;
+
+/**
+ * Снимок всего, что нужно для одного кадра. Собирается в EDT и отдаётся потоку рендера,
+ * поэтому сюда кладём копии (камера, настройки, списки), а не живые объекты UI.
+ *
+ * commands — снимок retained-списка команд (CommandList.snapshot()): модель, иконки всех камер, граф сцены;
+ * scene — BVH по этому же снимку (CommandList.bvh()), по нему рендер отсекает невидимое.
+ * hiddenIcons[i] — иконка камеры вьюпорта i, её в этом вьюпорте не рисуем (камера не видит сама себя);
+ * список пустой, если иконок нет.
+ *
+ * Split-view: если viewCameras не null, кадр состоит из вьюпортов по одному на камеру.
+ * Иначе вьюпорт один — camera.
+ */
+final class FrameRequest {
+    final List<DrawCommand> commands;
+    final InstanceBvh scene;
+    final List<DrawCommand> hiddenIcons;
+    final Camera camera;
+    final List<Camera> viewCameras;
+    final List<Light> lights;
+    final RenderSettings settings;
+    final int width;
+    final int height;
+    /** когда снимок сделан (System.nanoTime) — для замера задержки кадра */
+    final long createdNanos = System.nanoTime();
+
+    FrameRequest(InstanceBvh scene,
+                 List<DrawCommand> hiddenIcons,
+                 Camera camera,
+                 List<Camera> viewCameras,
+                 List<Light> lights,
+                 RenderSettings settings,
+                 int width,
+                 int height) {
+        this.scene = scene;
+        this.commands = scene.getCommands();
+        this.hiddenIcons = hiddenIcons;
+        this.camera = camera;
+        this.viewCameras = viewCameras;
+        this.lights = lights;
+        this.settings = settings;
+        this.width = width;
+        this.height = height;
+    }
+}
@@ -0,0 +1,26 @@
+package app.ui;
+
+/**
+ * Сколько занял последний отрендеренный кадр. Неизменяемый: поток рендера
+ * публикует новый объект целиком, EDT читает его без блокировок.
+ */
+final class FrameTiming {
+    /** порядковый номер кадра (растёт на 1 с каждым кадром) */
+    final long index;
+    /** время рендера, мс (с конвейером — самый долгий из этапов: геометрия и растеризация идут параллельно) */
+    final double millis;
+    /** с каким resolutionScale рендерился кадр */
+    final double scale;
+    /** 0 — кадр как просили; > 0 — сторож упростил кадр (см. RenderLoop) */
+    final int degradeLevel;
+    /** задержка: от снимка сцены в EDT (FrameRequest) до готового кадра, мс */
+    final double latencyMs;
+
+    FrameTiming(long index, double millis, double scale, int degradeLevel, double latencyMs) {
+        this.index = index;
+        this.millis = millis;
+        this.scale = scale;
+        this.degradeLevel = degradeLevel;
+        this.latencyMs = latencyMs;
+    }
+}
@@ -1,10 +1,13 @@
 package app.ui;
 
 import engine.*;
+import math.Mat4;
 import math.Vec3;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
@@ -13,6 +16,24 @@ import java.util.List;
  * Панель для просмотра 3D:
  * - управление активной камерой WASD + мышь
  * - софтверная растеризация (z-buffer, текстура, освещение)
+ *
+ * Рендер идёт в отдельном потоке (RenderLoop): tick() собирает снимок сцены и отдаёт его,
+ * а paintComponent только рисует последний готовый кадр. EDT никогда не ждёт рендер.
+ *
+ * Кадр рендерится только когда что-то поменялось (камера, Transform модели, настройки, сцена, размер).
+ * Таймер крутится, только пока есть ввод (зажаты клавиши / двигается мышь), в простое CPU не тратится.
+ * Внешний код после изменений зовёт requestFrame(): несколько вызовов подряд сливаются в один кадр.
+ *
+ * Пока камеру двигают, разрешение рендера подстраивается под бюджет кадра (ResolutionScaler,
+ * настройки — в RenderSettings), а картинка растягивается на панель. В простое — полное разрешение.
+ *
+ * Split-view: экран делится на 2–4 вьюпорта, по одному на камеру сцены (активная камера
+ * всегда среди них). Вьюпорты рендерятся параллельно (см. RenderLoop).
+ *
+ * Вывод на экран — два пути, выбираются при создании панели:
+ * - обычный Swing: поток рендера зовёт repaint(), кадр рисуется в paintComponent;
+ * - активный рендеринг (ActiveCanvas): поток рендера сам выводит кадр через BufferStrategy.
+ * Задержку до показа кадра для обоих путей считает RenderMetrics (getAveragePresentLatencyMs).
  */
 public final class ModelPanel extends JPanel {
 
@@ -25,9 +46,61 @@ public final class ModelPanel extends JPanel {
 
     private ModelInstance instance;
 
+    private final RenderLoop renderLoop = new RenderLoop(this::onFrameReady);
+
+    // активный рендеринг: кадры выводит поток рендера; null — обычный Swing-путь (paintComponent)
+    private final ActiveCanvas canvas;
+    // кадр выводят поток рендера и EDT (перерисовка окна), а читатель у TripleBuffer должен быть один
+    private final Object presentLock = new Object();
+    private long lastPresentedIndex = -1;
+
+    // что рисовать в HUD: снимается в EDT вместе с кадром, чтобы HUD мог рисовать и поток рендера
+    private volatile Hud hud;
+
+    // retained-mode команды кадра: модель + иконки всех камер + граф сцены. Записываются один раз (при смене модели
+    // или состава камер), дальше патчатся только матрицы того, что сдвинули. Неизменённые команды
+    // остаются теми же объектами, и кэши рендера (тени, мировые вершины, слой) их узнают
+    private final CommandList commands = new CommandList();
+    private final RenderSettings iconMaterial = RenderSettings.wireframe(new Color(255, 230, 120));
+    private ModelInstance recordedInstance;
+    private int recordedInstanceVersion;
+    private int modelCommand = -1;         // -1 — модели нет
+    private int firstIcon;                 // иконка камеры i — команда firstIcon + i
+    private Camera[] iconCameras = new Camera[0];
+    private int[] iconVersions = new int[0];
+    private int recordedGraphStructure = -1; // Scene.getRoot().getStructureVersion() на момент записи
+
     private long lastNs = 0;
 
+    // ~60 fps, но только пока пользователь что-то делает
+    private final Timer inputTimer = new Timer(16, e -> tick());
+
+    private boolean frameQueued = false;
+
+    private final ResolutionScaler resolutionScaler = new ResolutionScaler();
+
+    static final int MAX_VIEWS = 4;
+    private boolean splitView = false;
+    private boolean lastSplitView;
+
+    // что было в последнем отданном кадре (чтобы не рендерить одно и то же)
+    private Camera lastCamera;
+    private int lastCameraVersion;
+    private long lastSceneVersion;
+    private ModelInstance lastInstance;
+    private int lastInstanceVersion;
+    private RenderSettings lastSettings;
+    private int lastWidth, lastHeight;
+
     public ModelPanel() {
+        this(false);
+    }
+
+    /**
+     * activeRendering — выводить кадры через ActiveCanvas (BufferStrategy) прямо из потока рендера.
+     * Без экрана (headless) всегда обычный Swing-путь.
+     */
+    public ModelPanel(boolean activeRendering) {
         setPreferredSize(new Dimension(520, 560));
         setBackground(new Color(40, 40, 40));
 
@@ -37,11 +110,22 @@ public final class ModelPanel extends JPanel {
         cam0.setYaw(Math.PI);
         cam0.setPitch(0);
 
-        input.attachTo(this);
+        if (activeRendering && !GraphicsEnvironment.isHeadless()) {
+            canvas = new ActiveCanvas(this::presentToCanvas);
+            setLayout(new BorderLayout());
+            add(canvas, BorderLayout.CENTER);
+            // события мыши/клавиатуры получает heavyweight Canvas, а не панель под ним
+            input.attachTo(canvas);
+        } else {
+            canvas = null;
+            input.attachTo(this);
+        }
+        input.setOnActivity(this::wakeInput);
         setFocusable(true);
 
-        // ~60 fps
-        new Timer(16, e -> tick()).start();
+        addComponentListener(new ComponentAdapter() {
+            @Override public void componentResized(ComponentEvent e) { requestFrame(); }
+        });
     }
 
     public Scene getScene() {
@@ -54,18 +138,106 @@ public final class ModelPanel extends JPanel {
 
     public void setInstance(ModelInstance inst) {
         this.instance = inst;
-        repaint();
-        requestFocusInWindow();
+        requestFrame();
+        requestViewportFocus();
     }
 
     public ModelInstance getInstance() {
         return instance;
     }
 
+    /** Показывать сразу несколько камер сцены (до MAX_VIEWS), каждую в своём вьюпорте. */
+    public void setSplitView(boolean splitView) {
+        this.splitView = splitView;
+        requestFrame();
+    }
+
+    public boolean isSplitView() {
+        return splitView;
+    }
+
+    /** Выводятся ли кадры через ActiveCanvas (а не paintComponent). */
+    public boolean isActiveRendering() {
+        return canvas != null;
+    }
+
+    /** Счётчики рендера (кадры, срабатывания сторожа и т.п.). */
+    public RenderMetrics getRenderMetrics() {
+        return renderLoop.metrics();
+    }
+
+    /**
+     * Попросить перерисовку после изменения сцены/модели/настроек (вызывать из EDT).
+     * Все вызовы до следующего прохода очереди EDT сливаются в один кадр,
+     * а если по факту ничего не поменялось — кадр не рендерится вовсе.
+     */
+    public void requestFrame() {
+        if (frameQueued) return;
+        frameQueued = true;
+        SwingUtilities.invokeLater(() -> {
+            frameQueued = false;
+            submitIfChanged();
+        });
+    }
+
+    /**
+     * Перерисовать кадр, даже если ни камера, ни сцена, ни настройки не менялись
+     * (поменялось то, чего версии не видят, — например, у меша появились уровни LOD).
+     */
+    public void invalidateFrame() {
+        lastSettings = null;
+        requestFrame();
+    }
+
     @Override
     public void addNotify() {
         super.addNotify();
-        requestFocusInWindow();
+        renderLoop.start();
+        lastSettings = null; // после пересоздания окна кадр нужен в любом случае
+        requestFrame();
+        requestViewportFocus();
+    }
+
+    private void requestViewportFocus() {
+        if (canvas != null) canvas.requestFocusInWindow();
+        else requestFocusInWindow();
+    }
+
+    /** Из потока рендера: новый кадр готов. */
+    private void onFrameReady() {
+        if (canvas != null) presentToCanvas();
+        else repaint();
+    }
+
+    /** Вывести последний готовый кадр на ActiveCanvas (поток рендера после кадра или EDT при перерисовке окна). */
+    private void presentToCanvas() {
+        synchronized (presentLock) {
+            RenderLoop.Frame frame = renderLoop.latestFrame();
+            if (frame == null) return;
+            int w = canvas.getWidth(), h = canvas.getHeight();
+            if (canvas.present(frame.target.getImage(), g -> paintHud(g, w, h))) framePresented(frame);
+        }
+    }
+
+    /** Учесть задержку показа кадра (вызывается под presentLock). */
+    private void framePresented(RenderLoop.Frame frame) {
+        // один и тот же кадр может выводиться несколько раз (перерисовка окна) — считаем только первый раз
+        if (frame.index == lastPresentedIndex) return;
+        lastPresentedIndex = frame.index;
+        renderLoop.metrics().framePresented((System.nanoTime() - frame.requestNanos) / 1_000_000.0);
+    }
+
+    @Override
+    public void removeNotify() {
+        inputTimer.stop();
+        renderLoop.stop();
+        super.removeNotify();
+    }
+
+    private void wakeInput() {
+        if (inputTimer.isRunning()) return;
+        lastNs = 0;
+        inputTimer.start();
     }
 
     private void tick() {
@@ -79,65 +251,275 @@ public final class ModelPanel extends JPanel {
         if (active != null && controller.getCamera() != active) controller.setCamera(active);
 
         controller.update(dt, input);
-        repaint();
-    }
 
-    @Override
-    protected void paintComponent(Graphics gg) {
-        super.paintComponent(gg);
+        if (input.isActive()) {
+            resolutionScaler.update(renderLoop.lastTiming(), renderSettings);
+        } else {
+            // клавиши отпущены и мышь стоит — последний кадр в полном разрешении и засыпаем
+            // до следующего события ввода
+            resolutionScaler.reset(renderSettings);
+            inputTimer.stop();
+        }
+        submitIfChanged();
+    }
 
+    /** Отдать кадр в рендер, если с прошлого раза поменялось хоть что-то, что видно на картинке. */
+    private void submitIfChanged() {
         int w = Math.max(2, getWidth());
         int h = Math.max(2, getHeight());
-
         Camera cam = scene.getActiveCamera();
+        int camVersion = (cam == null) ? 0 : cam.getVersion();
+        long sceneVersion = scene.getStateVersion();
+        int instVersion = (instance == null) ? 0 : instance.getTransform().getVersion();
+
+        if (lastSettings != null && renderSettings.sameAs(lastSettings)
+                && w == lastWidth && h == lastHeight
+                && cam == lastCamera && camVersion == lastCameraVersion
+                && sceneVersion == lastSceneVersion
+                && splitView == lastSplitView
+                && instance == lastInstance && instVersion == lastInstanceVersion) {
+            return;
+        }
+
+        lastCamera = cam;
+        lastCameraVersion = camVersion;
+        lastSceneVersion = sceneVersion;
+        lastSplitView = splitView;
+        lastInstance = instance;
+        lastInstanceVersion = instVersion;
+        lastWidth = w;
+        lastHeight = h;
+        lastSettings = renderSettings.copy();
+        submitFrame(w, h, cam, lastSettings);
+    }
 
-        List<ModelInstance> cameraIcons = buildCameraIcons();
+    /** Снимок сцены для потока рендера (вызывается в EDT). */
+    private void submitFrame(int w, int h, Camera cam, RenderSettings settings) {
+        double scale = settings.resolutionScale;
+        if (scale < 1.0) {
+            w = Math.max(2, (int) Math.round(w * scale));
+            h = Math.max(2, (int) Math.round(h * scale));
+        }
 
-        BufferedImage img = SoftwareRenderer.render(instance, cameraIcons, cam, renderSettings, w, h);
+        Camera camCopy = (cam == null) ? null : copyOf(cam);
+        List<DrawCommand> snapshot = syncCommands();
+
+        // камера не видит свою иконку: для каждого вьюпорта — какую команду пропустить
+        List<Camera> viewCameras = null;
+        List<DrawCommand> hidden = new ArrayList<>();
+        int[] views = viewIndices();
+        if (views.length >= 2) {
+            viewCameras = new ArrayList<>();
+            for (int i : views) {
+                viewCameras.add(copyOf(scene.getCameras().get(i)));
+                if (iconCameras.length > 0) hidden.add(commands.get(firstIcon + i));
+            }
+        } else if (iconCameras.length > 0 && scene.getActiveIndex() >= 0) {
+            hidden.add(commands.get(firstIcon + scene.getActiveIndex()));
+        }
 
-        gg.drawImage(img, 0, 0, null);
+        String camLine = (cam == null) ? null
+                : "Camera #" + (scene.getActiveIndex() + 1) +
+                  "  pos=" + fmt(cam.getPosition()) +
+                  "  yaw=" + String.format("%.1f°", Math.toDegrees(cam.getYaw())) +
+                  "  pitch=" + String.format("%.1f°", Math.toDegrees(cam.getPitch()));
+        hud = new Hud(camLine, views, scene.getActiveIndex(), settings.frameBudgetMs);
+
+        renderLoop.submit(new FrameRequest(
+                commands.bvh(),
+                hidden,
+                camCopy,
+                viewCameras,
+                lightSnapshots(),
+                settings,
+                w, h
+        ));
+    }
 
-        // маленький HUD
-        if (cam != null) {
-            gg.setColor(new Color(255, 255, 255, 180));
-            gg.setFont(gg.getFont().deriveFont(12f));
-            gg.drawString("Camera #" + (scene.getActiveIndex() + 1) +
-                            "  pos=" + fmt(cam.getPosition()) +
-                            "  yaw=" + String.format("%.1f°", Math.toDegrees(cam.getYaw())) +
-                            "  pitch=" + String.format("%.1f°", Math.toDegrees(cam.getPitch())),
-                    10, 18);
+    private static Camera copyOf(Camera c) {
+        return new Camera(c.getPosition(), c.getYaw(), c.getPitch());
+    }
+
+    /** Неизменяемые копии света для потоков рендера (сам Light меняется на EDT). */
+    private List<Light> lightSnapshots() {
+        List<Light> out = new ArrayList<>(scene.getLights().size());
+        for (Light l : scene.getLights()) out.add(l.snapshot());
+        return List.copyOf(out);
+    }
+
+    /** Индексы камер, которые показываются во вьюпортах (пусто/одна — обычный режим). */
+    private int[] viewIndices() {
+        int n = scene.getCameras().size();
+        if (!splitView || n < 2) return new int[0];
+        int count = Math.min(MAX_VIEWS, n);
+        int[] r = new int[count];
+        for (int i = 0; i < count; i++) r[i] = i;
+        // активная камера всегда на экране
+        int active = scene.getActiveIndex();
+        if (active >= count) r[count - 1] = active;
+        return r;
+    }
+
+    /**
+     * Привести команды в соответствие со сценой и вернуть снимок для потока рендера.
+     * Перезаписываем всё, только если сменилась модель, состав камер или узлы графа сцены; иначе патчим
+     * матрицы модели (поменялся Transform), иконок (камеру двигали) и изменённых веток графа.
+     */
+    private List<DrawCommand> syncCommands() {
+        List<Camera> cams = scene.getCameras();
+        // иконки рисуем, только когда камер больше одной
+        int iconCount = (cams.size() > 1) ? cams.size() : 0;
+
+        SceneNode root = scene.getRoot();
+        if (instance != recordedInstance || !sameIconCameras(cams, iconCount)
+                || root.getStructureVersion() != recordedGraphStructure) {
+            recordCommands(cams, iconCount);
+            return commands.snapshot();
+        }
+
+        if (instance != null) {
+            int v = instance.getTransform().getVersion();
+            if (v != recordedInstanceVersion) {
+                commands.setMatrix(modelCommand, instance.getTransform().toMatrix());
+                recordedInstanceVersion = v;
+            }
         }
+        for (int i = 0; i < iconCount; i++) {
+            Camera c = iconCameras[i];
+            if (c.getVersion() != iconVersions[i]) {
+                commands.setMatrix(firstIcon + i, iconMatrix(c));
+                iconVersions[i] = c.getVersion();
+            }
+        }
+        root.sync(commands);
+        return commands.snapshot();
     }
 
-    private List<ModelInstance> buildCameraIcons() {
-        List<ModelInstance> r = new ArrayList<>();
-        if (scene.getCameras().size() <= 1) return r;
+    private void recordCommands(List<Camera> cams, int iconCount) {
+        commands.clear();
+        recordedInstance = instance;
+        modelCommand = -1;
+        if (instance != null) {
+            modelCommand = commands.addModel(instance.getMesh(), instance.getTransform().toMatrix());
+            recordedInstanceVersion = instance.getTransform().getVersion();
+        }
 
         // маленькая "пирамидка" как иконка камеры
         Mesh camMesh = CameraIconMesh.get();
+        firstIcon = commands.size();
+        iconCameras = new Camera[iconCount];
+        iconVersions = new int[iconCount];
+        for (int i = 0; i < iconCount; i++) {
+            Camera c = cams.get(i);
+            iconCameras[i] = c;
+            iconVersions[i] = c.getVersion();
+            commands.addStatic(camMesh, iconMatrix(c), iconMaterial);
+        }
+
+        // граф — после иконок, чтобы номера команд иконок не зависели от него
+        SceneNode root = scene.getRoot();
+        root.record(commands);
+        recordedGraphStructure = root.getStructureVersion();
+    }
+
+    private boolean sameIconCameras(List<Camera> cams, int iconCount) {
+        if (iconCameras.length != iconCount) return false;
+        for (int i = 0; i < iconCount; i++) if (cams.get(i) != iconCameras[i]) return false;
+        return true;
+    }
+
+    /** Матрица иконки: в позиции камеры, повёрнута по yaw/pitch (приблизительно), масштаб 0.2. */
+    private static Mat4 iconMatrix(Camera c) {
+        Vec3 p = c.getPosition();
+        return Mat4.translate(p.x, p.y, p.z)
+                .multiply(Mat4.rotateY(c.getYaw()))
+                .multiply(Mat4.rotateX(c.getPitch()))
+                .multiply(Mat4.scale(0.2, 0.2, 0.2));
+    }
+
+    @Override
+    protected void paintComponent(Graphics gg) {
+        super.paintComponent(gg);
+        // при активном рендеринге панель целиком закрыта ActiveCanvas
+        if (canvas != null) return;
+
+        // только блит последнего готового кадра, сам рендер — в RenderLoop
+        synchronized (presentLock) {
+            RenderLoop.Frame frame = renderLoop.latestFrame();
+            if (frame != null) {
+                BufferedImage img = frame.target.getImage();
+                if (img.getWidth() == getWidth() && img.getHeight() == getHeight()) {
+                    gg.drawImage(img, 0, 0, null);
+                } else {
+                    // кадр в уменьшенном разрешении (или от старого размера панели) — растягиваем
+                    Graphics2D g2 = (Graphics2D) gg.create();
+                    g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g2.drawImage(img, 0, 0, getWidth(), getHeight(), null);
+                    g2.dispose();
+                }
+                // на экран Swing скопирует свой back-buffer уже после paint, так что реальная задержка чуть больше
+                framePresented(frame);
+            }
+        }
 
-        for (int i = 0; i < scene.getCameras().size(); i++) {
-            if (i == scene.getActiveIndex()) continue;
-            Camera c = scene.getCameras().get(i);
+        Graphics2D g2 = (Graphics2D) gg.create();
+        paintHud(g2, getWidth(), getHeight());
+        g2.dispose();
+    }
 
-            Transform t = new Transform();
-            t.setPosition(c.getPosition());
+    /** HUD поверх кадра (оба пути вывода; для ActiveCanvas зовётся из потока рендера). */
+    private void paintHud(Graphics2D g, int w, int h) {
+        Hud hud = this.hud;
+        if (hud == null) return;
 
-            // повернём иконку по yaw/pitch (приблизительно)
-            t.setRotation(new Vec3(c.getPitch(), c.getYaw(), 0.0));
+        // маленький HUD
+        if (hud.cameraLine != null) {
+            g.setColor(new Color(255, 255, 255, 180));
+            g.setFont(g.getFont().deriveFont(12f));
+            g.drawString(hud.cameraLine, 10, 18);
+        }
 
-            // масштаб
-            t.setScale(new Vec3(0.2, 0.2, 0.2));
+        int[] views = hud.views;
+        if (views.length >= 2) {
+            // рамки и подписи вьюпортов; активная камера — подсвечена
+            Graphics2D g2 = (Graphics2D) g.create();
+            g2.setFont(g.getFont().deriveFont(11f));
+            for (int i = 0; i < views.length; i++) {
+                Rectangle r = RenderLoop.viewport(i, views.length, w, h);
+                boolean active = views[i] == hud.activeIndex;
+                g2.setColor(active ? new Color(255, 230, 120, 220) : new Color(255, 255, 255, 90));
+                g2.drawRect(r.x, r.y, r.width - 1, r.height - 1);
+                g2.drawString("#" + (views[i] + 1), r.x + 6, r.y + r.height - 6);
+            }
+            g2.dispose();
+        }
 
-            r.add(new ModelInstance(camMesh, t));
+        FrameTiming timing = renderLoop.lastTiming();
+        if (timing != null && timing.degradeLevel > 0) {
+            g.setColor(new Color(255, 200, 120, 200));
+            g.drawString("упрощённый кадр: не уложился в " + (int) hud.frameBudgetMs + " мс", 10, 34);
         }
-        return r;
     }
 
     private static String fmt(Vec3 v) {
         return String.format("(%.2f, %.2f, %.2f)", v.x, v.y, v.z);
     }
 
+    /** Снимок того, что показывает HUD (неизменяемый, его читает и поток рендера). */
+    private static final class Hud {
+        final String cameraLine; // null — камеры нет
+        final int[] views;
+        final int activeIndex;
+        final double frameBudgetMs;
+
+        Hud(String cameraLine, int[] views, int activeIndex, double frameBudgetMs) {
+            this.cameraLine = cameraLine;
+            this.views = views;
+            this.activeIndex = activeIndex;
+            this.frameBudgetMs = frameBudgetMs;
+        }
+    }
+
     /** Вынесено в отдельный класс, чтобы не создавать mesh каждый кадр. */
     private static final class CameraIconMesh {
         private static Mesh cached;
@@ -0,0 +1,463 @@
+package app.ui;
+
+import engine.Camera;
+import engine.DrawCommand;
+import engine.FrameHistory;
+import engine.LayerCache;
+import engine.RenderCancel;
+import engine.RenderCancelledException;
+import engine.RenderSettings;
+import engine.RenderTarget;
+import engine.SoftwareRenderer;
+import engine.TripleBuffer;
+import engine.ViewGeometry;
+import engine.WorldStage;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Отдельный поток рендера.
+ *
+ * EDT кладёт FrameRequest через submit() (если поток ещё занят прошлым кадром,
+ * новые запросы просто перезаписывают старый — рисуется только самый свежий).
+ * Готовые кадры публикуются через TripleBuffer, и EDT в paintComponent только
+ * забирает последний готовый кадр и рисует картинку. Медленный кадр не блокирует UI.
+ *
+ * Сторож (watchdog): кадр рендерится с дедлайном settings.frameBudgetMs. Если не уложился —
+ * рендер прерывается и тот же кадр рисуется проще (уровень деградации: 1 — половинное
+ * разрешение, 2 — только сетка в половинном разрешении, он уже без дедлайна).
+ * Уровень запоминается для следующих кадров и снижается обратно, когда кадры стали быстрыми.
+ * Если сцена стоит, упрощённый кадр дорисовывается в полном качестве без дедлайна;
+ * такой рендер отменяется, как только пришёл новый запрос.
+ *
+ * Split-view (FrameRequest.viewCameras): мировой этап (вершины/нормали, тени) считается один раз
+ * (SoftwareRenderer.prepare), а вьюпорты рендерятся параллельно на пуле workers, каждый в свой
+ * RenderTarget, и потом собираются в один кадр.
+ *
+ * Конвейер (RenderSettings.pipelinedFrames): запросы забирает поток "render-geometry" и делает для них
+ * вершинный этап (prepare + project), а поток "render" только растеризует. Пока растеризуется кадр N,
+ * геометрия кадра N+1 уже считается по самой свежей камере. Вперёд готовится не больше одного кадра;
+ * сколько готовый кадр ждал растеризации (добавленная задержка) — в RenderMetrics и FrameTiming.
+ * Если растеризация не уложилась в бюджет, кадр перерисовывается проще целиком в потоке "render".
+ */
+final class RenderLoop {
+
+    private static final int MAX_DEGRADE = 2;
+    // сколько быстрых кадров подряд нужно, чтобы попробовать уровень качества выше
+    private static final int FAST_FRAMES_TO_UPGRADE = 10;
+
+    private final AtomicReference<FrameRequest> pending = new AtomicReference<>();
+    // следующий кадр для растеризации (геометрия уже готова или, без конвейера, просто запрос)
+    private final AtomicReference<PreparedFrame> prepared = new AtomicReference<>();
+    private final TripleBuffer<Frame> frames = new TripleBuffer<>();
+    private final Runnable onFrameReady;
+    private final RenderMetrics metrics = new RenderMetrics();
+    // одна история на все буферы: кадры рисуются по очереди, history — всегда прошлый кадр
+    private final FrameHistory history = new FrameHistory();
+    private final LayerCache layerCache = new LayerCache();
+
+    private volatile Thread thread;
+    private volatile Thread geometryThread;
+    private volatile RenderCancel geometryCancel;
+
+    private volatile FrameTiming lastTiming;
+    private long frameIndex = 0;
+
+    // вьюпорты split-view (создаются при первом split-кадре) и потоки для них: пул создаёт start()
+    // (сами потоки пул заводит по мере надобности), stop() обнуляет и гасит — поток рендера его только читает
+    private RenderTarget[] viewTargets = new RenderTarget[0];
+    private volatile ExecutorService workers;
+
+    // пишет поток растеризации, читает и поток геометрии
+    private volatile int degradeLevel = 0;
+    private int fastFrames = 0;
+
+    // текущий рендер; refining — его можно отменить новым запросом
+    private volatile RenderCancel current;
+    private volatile boolean refining;
+
+    /** onFrameReady вызывается из потока рендера после публикации кадра. */
+    RenderLoop(Runnable onFrameReady) {
+        if (onFrameReady == null) throw new NullPointerException("onFrameReady must not be null");
+        this.onFrameReady = onFrameReady;
+    }
+
+    void start() {
+        if (thread != null) return;
+        Thread t = new Thread(this::run, "render");
+        t.setDaemon(true);
+        thread = t;
+        Thread g = new Thread(this::runGeometry, "render-geometry");
+        g.setDaemon(true);
+        geometryThread = g;
+        workers = newWorkers();
+        t.start();
+        g.start();
+    }
+
+    void stop() {
+        Thread t = thread;
+        Thread g = geometryThread;
+        thread = null;
+        geometryThread = null;
+        RenderCancel c = current;
+        if (c != null) c.cancel();
+        RenderCancel gc = geometryCancel;
+        if (gc != null) gc.cancel();
+        if (t != null) t.interrupt();
+        if (g != null) g.interrupt();
+        ExecutorService w = workers;
+        workers = null;
+        if (w != null) w.shutdown();
+    }
+
+    /** Поставить кадр в очередь (из любого потока). */
+    void submit(FrameRequest request) {
+        pending.set(request);
+        if (refining) {
+            RenderCancel c = current;
+            if (c != null) c.cancel();
+        }
+        Thread g = geometryThread;
+        if (g != null) LockSupport.unpark(g);
+    }
+
+    /**
+     * Последний готовый кадр (для потока, который рисует на экран). null — кадров ещё не было.
+     * Читатель у TripleBuffer один: если кадры выводят несколько потоков, вызовы нужно синхронизировать.
+     */
+    Frame latestFrame() {
+        return frames.acquire();
+    }
+
+    /** Время последнего готового кадра (null — кадров ещё не было). */
+    FrameTiming lastTiming() {
+        return lastTiming;
+    }
+
+    RenderMetrics metrics() {
+        return metrics;
+    }
+
+    /** Поток растеризации: берёт подготовленные кадры. */
+    private void run() {
+        while (thread == Thread.currentThread()) {
+            PreparedFrame frame = prepared.getAndSet(null);
+            if (frame == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            // слот освободился — поток геометрии может готовить следующий кадр
+            Thread g = geometryThread;
+            if (g != null) LockSupport.unpark(g);
+            try {
+                renderFrame(frame);
+            } catch (RenderCancelledException ex) {
+                metrics.renderCancelled();
+            } catch (RuntimeException ex) {
+                // кадр пропускаем, поток рендера не роняем
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /** Поток геометрии: забирает запросы и делает вершинный этап, пока прошлый кадр растеризуется. */
+    private void runGeometry() {
+        while (geometryThread == Thread.currentThread()) {
+            // не больше одного кадра вперёд: ждём, пока растеризация заберёт прошлый
+            if (prepared.get() != null) {
+                LockSupport.park(this);
+                continue;
+            }
+            FrameRequest req = pending.getAndSet(null);
+            if (req == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            PreparedFrame frame;
+            try {
+                frame = prepareFrame(req);
+            } catch (RenderCancelledException ex) {
+                if (geometryThread != Thread.currentThread()) break;
+                // не уложились в бюджет уже на геометрии — пусть поток растеризации упростит кадр сам
+                frame = new PreparedFrame(req, 0, null, 0.0, System.nanoTime());
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+                continue;
+            }
+            prepared.set(frame);
+            Thread t = thread;
+            if (t != null) LockSupport.unpark(t);
+        }
+    }
+
+    /** Вершинный этап кадра (в потоке геометрии). Без конвейера и для split-view — только передаём запрос. */
+    private PreparedFrame prepareFrame(FrameRequest req) {
+        boolean split = req.viewCameras != null && req.viewCameras.size() >= 2;
+        if (!req.settings.pipelinedFrames || split) {
+            return new PreparedFrame(req, 0, null, 0.0, System.nanoTime());
+        }
+
+        double budgetMs = req.settings.frameBudgetMs;
+        int level = (budgetMs > 0.0) ? degradeLevel : 0;
+        RenderSettings settings = degrade(req.settings, level);
+        RenderCancel cancel = (budgetMs > 0.0 && level < MAX_DEGRADE)
+                ? new RenderCancel((long) (budgetMs * 1_000_000.0))
+                : new RenderCancel();
+        geometryCancel = cancel;
+        if (geometryThread != Thread.currentThread()) cancel.cancel();
+        long t0 = System.nanoTime();
+        try {
+            int[] size = frameSize(req, level);
+            WorldStage stage = SoftwareRenderer.prepare(req.scene, req.lights, settings, cancel);
+            ViewGeometry geometry = SoftwareRenderer.projectExcept(stage, hiddenFor(req, 0), req.camera,
+                    size[0], size[1], cancel);
+            long t1 = System.nanoTime();
+            return new PreparedFrame(req, level, geometry, (t1 - t0) / 1_000_000.0, t1);
+        } finally {
+            geometryCancel = null;
+        }
+    }
+
+    private void renderFrame(PreparedFrame frame) {
+        FrameRequest req = frame.request;
+        double budgetMs = req.settings.frameBudgetMs;
+
+        // сколько готовый кадр ждал растеризации — задержка, которую добавил конвейер
+        if (frame.geometry != null) {
+            metrics.framePipelined((System.nanoTime() - frame.preparedNanos) / 1_000_000.0);
+        }
+
+        // геометрия готова для уровня, который был на момент её подготовки; если он с тех пор
+        // поднялся (сторож сработал на прошлом кадре), кадр считаем заново
+        ViewGeometry geometry = (frame.geometry != null && frame.level == ((budgetMs > 0.0) ? degradeLevel : 0))
+                ? frame.geometry : null;
+
+        while (true) {
+            int level = (budgetMs > 0.0) ? degradeLevel : 0;
+            // последний уровень рисуем без дедлайна: хоть что-то показать нужно
+            RenderCancel cancel = (budgetMs > 0.0 && level < MAX_DEGRADE)
+                    ? new RenderCancel((long) (budgetMs * 1_000_000.0))
+                    : new RenderCancel();
+            try {
+                double ms = renderAndPublish(req, level, cancel, false, geometry,
+                        (geometry != null) ? frame.geometryMs : 0.0);
+                if (level > 0 && ms < budgetMs * 0.25) {
+                    if (++fastFrames >= FAST_FRAMES_TO_UPGRADE) {
+                        degradeLevel--;
+                        fastFrames = 0;
+                    }
+                } else {
+                    fastFrames = 0;
+                }
+                break;
+            } catch (RenderCancelledException ex) {
+                if (!cancel.isTimedOut()) throw ex;
+                metrics.watchdogAbort();
+                degradeLevel = Math.min(MAX_DEGRADE, level + 1);
+                fastFrames = 0;
+                // упрощённый кадр считаем целиком здесь
+                geometry = null;
+            }
+        }
+
+        // сцена стоит (нового запроса нет) — дорисуем кадр в полном качестве, пока никто не мешает
+        if (degradeLevel > 0 && budgetMs > 0.0 && pending.get() == null && prepared.get() == null
+                && thread == Thread.currentThread()) {
+            renderAndPublish(req, 0, new RenderCancel(), true, null, 0.0);
+            metrics.frameRefined();
+        }
+    }
+
+    /** Размер кадра для уровня упрощения: {width, height}. */
+    private static int[] frameSize(FrameRequest req, int level) {
+        if (level == 0) return new int[] { req.width, req.height };
+        return new int[] { Math.max(2, req.width / 2), Math.max(2, req.height / 2) };
+    }
+
+    /**
+     * Рендер с заданным уровнем упрощения и публикация кадра. Возвращает время рендера, мс.
+     * geometry — готовый вершинный этап из потока геометрии (null — считаем здесь же), geometryMs — сколько он занял.
+     * С конвейером этапы идут параллельно, так что время кадра — самый долгий из них.
+     */
+    private double renderAndPublish(FrameRequest req, int level, RenderCancel cancel, boolean refine,
+                                    ViewGeometry geometry, double geometryMs) {
+        RenderSettings settings = degrade(req.settings, level);
+        int[] size = frameSize(req, level);
+        int width = size[0], height = size[1];
+        double scale = req.settings.resolutionScale;
+        if (level > 0) scale *= 0.5;
+
+        boolean split = req.viewCameras != null && req.viewCameras.size() >= 2;
+        // кадр split-view только собирается из вьюпортов, MSAA у него свой на каждом вьюпорте
+        int samples = split ? 1 : settings.msaaSamples;
+
+        Frame slot = frames.getBack();
+        if (slot == null || !slot.target.matches(width, height, samples)) {
+            RenderTarget t = new RenderTarget(width, height, samples);
+            t.setHistory(history);
+            t.setLayerCache(layerCache);
+            slot = new Frame(t);
+            frames.setBack(slot);
+        }
+        RenderTarget target = slot.target;
+
+        current = cancel;
+        refining = refine;
+        // запрос мог прийти, пока мы сюда шли
+        if (refine && (pending.get() != null || prepared.get() != null)) cancel.cancel();
+        long t0 = System.nanoTime();
+        try {
+            if (split) {
+                renderViews(req, settings, target, cancel);
+            } else if (geometry != null) {
+                SoftwareRenderer.raster(target, geometry, cancel);
+            } else {
+                WorldStage stage = SoftwareRenderer.prepare(req.scene, req.lights, settings, cancel);
+                SoftwareRenderer.renderExcept(target, stage, hiddenFor(req, 0), req.camera, cancel);
+            }
+        } finally {
+            current = null;
+            refining = false;
+        }
+        double ms = Math.max(geometryMs, (System.nanoTime() - t0) / 1_000_000.0);
+        double latencyMs = (System.nanoTime() - req.createdNanos) / 1_000_000.0;
+        lastTiming = new FrameTiming(++frameIndex, ms, scale, level, latencyMs);
+        metrics.frameRendered(level > 0, latencyMs);
+        slot.index = frameIndex;
+        slot.requestNanos = req.createdNanos;
+
+        frames.publish();
+        onFrameReady.run();
+        return ms;
+    }
+
+    /** Split-view: общий мировой этап один раз, вьюпорты — параллельно, потом сборка в target. */
+    private void renderViews(FrameRequest req, RenderSettings settings, RenderTarget target, RenderCancel cancel) {
+        int n = req.viewCameras.size();
+        int w = target.getWidth(), h = target.getHeight();
+
+        WorldStage stage = SoftwareRenderer.prepare(req.scene, req.lights, settings, cancel);
+
+        if (viewTargets.length != n) viewTargets = new RenderTarget[n];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Rectangle r = viewport(i, n, w, h);
+            int vw = Math.max(2, r.width), vh = Math.max(2, r.height);
+            if (viewTargets[i] == null || !viewTargets[i].matches(vw, vh, settings.msaaSamples)) {
+                viewTargets[i] = new RenderTarget(vw, vh, settings.msaaSamples);
+            }
+
+            List<DrawCommand> hidden = hiddenFor(req, i);
+            RenderTarget vt = viewTargets[i];
+            Camera cam = req.viewCameras.get(i);
+            tasks.add(() -> {
+                SoftwareRenderer.renderExcept(vt, stage, hidden, cam, cancel);
+                return null;
+            });
+        }
+
+        ExecutorService pool = workers;
+        if (pool == null) throw new RenderCancelledException("render loop stopped");
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) f.get();
+        } catch (RejectedExecutionException ex) {
+            // stop() погасил пул, пока кадр шёл
+            throw new RenderCancelledException("render loop stopped");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException("render interrupted");
+        } catch (ExecutionException ex) {
+            // если один вьюпорт прервался (отмена/дедлайн), остальные прервутся по тому же cancel
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        }
+
+        for (int i = 0; i < n; i++) {
+            Rectangle r = viewport(i, n, w, h);
+            target.blit(viewTargets[i], r.x, r.y);
+        }
+    }
+
+    /** Что не рисовать во вьюпорте view: иконку его собственной камеры (если иконки есть). */
+    private static List<DrawCommand> hiddenFor(FrameRequest req, int view) {
+        if (view >= req.hiddenIcons.size()) return List.of();
+        return List.of(req.hiddenIcons.get(view));
+    }
+
+    private static ExecutorService newWorkers() {
+        int threads = Math.max(1, Math.min(ModelPanel.MAX_VIEWS, Runtime.getRuntime().availableProcessors()));
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "render-view-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Прямоугольник вьюпорта i из n на кадре w x h: 2 — рядом, 3–4 — сеткой 2x2. Вьюпорты покрывают кадр целиком. */
+    static Rectangle viewport(int i, int n, int w, int h) {
+        int cols = 2;
+        int rows = (n <= 2) ? 1 : 2;
+        int cx = i % cols, cy = i / cols;
+        int x0 = cx * w / cols, x1 = (cx + 1) * w / cols;
+        int y0 = cy * h / rows, y1 = (cy + 1) * h / rows;
+        // 3 вьюпорта: последний растягиваем на всю нижнюю строку
+        if (n == 3 && i == 2) x1 = w;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Слот тройного буфера: готовый кадр + откуда он (номер, время снимка сцены).
+     * Поля пишет поток рендера до publish(), читатель видит их после acquire().
+     */
+    static final class Frame {
+        final RenderTarget target;
+        long index;         // FrameTiming.index
+        long requestNanos;  // FrameRequest.createdNanos — для задержки до показа на экране
+
+        Frame(RenderTarget target) {
+            this.target = target;
+        }
+    }
+
+    /** Кадр, переданный из потока геометрии в поток растеризации. */
+    private static final class PreparedFrame {
+        final FrameRequest request;
+        final int level;              // уровень упрощения, для которого готова geometry
+        final ViewGeometry geometry;  // null — вершинный этап не делался (считается при растеризации)
+        final double geometryMs;
+        final long preparedNanos;
+
+        PreparedFrame(FrameRequest request, int level, ViewGeometry geometry, double geometryMs, long preparedNanos) {
+            this.request = request;
+            this.level = level;
+            this.geometry = geometry;
+            this.geometryMs = geometryMs;
+            this.preparedNanos = preparedNanos;
+        }
+    }
+
+    /** Настройки для уровня упрощения (0 — как есть). */
+    private static RenderSettings degrade(RenderSettings settings, int level) {
+        if (level < MAX_DEGRADE) return settings;
+        RenderSettings s = settings.copy();
+        s.drawWireframe = true;
+        s.useLighting = false;
+        s.useTexture = false;
+        s.baseColor = null; // без заливки, только рёбра
+        s.msaaSamples = 1;
+        return s;
+    }
+}
@@ -0,0 +1,109 @@
+package app.ui;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчики потока рендера (пишет RenderLoop, читать можно из любого потока).
+ */
+public final class RenderMetrics {
+
+    private final AtomicLong framesRendered = new AtomicLong();
+    private final AtomicLong watchdogAborts = new AtomicLong();
+    private final AtomicLong degradedFrames = new AtomicLong();
+    private final AtomicLong cancelledRenders = new AtomicLong();
+    private final AtomicLong refinedFrames = new AtomicLong();
+    private final AtomicLong pipelinedFrames = new AtomicLong();
+    // суммы в микросекундах (для средних)
+    private final AtomicLong latencyMicros = new AtomicLong();
+    private final AtomicLong pipelineWaitMicros = new AtomicLong();
+    private volatile double lastLatencyMs;
+    private final AtomicLong presentedFrames = new AtomicLong();
+    private final AtomicLong presentMicros = new AtomicLong();
+    private volatile double lastPresentMs;
+
+    /** Сколько кадров показано (включая упрощённые). */
+    public long getFramesRendered() { return framesRendered.get(); }
+
+    /** Сколько раз сторож прервал рендер, потому что кадр не уложился в бюджет. */
+    public long getWatchdogAborts() { return watchdogAborts.get(); }
+
+    /** Сколько показанных кадров были упрощены (меньше разрешение или только сетка). */
+    public long getDegradedFrames() { return degradedFrames.get(); }
+
+    /** Сколько рендеров отменено снаружи (пришёл более свежий кадр или поток остановили). */
+    public long getCancelledRenders() { return cancelledRenders.get(); }
+
+    /** Сколько упрощённых кадров потом дорисовано в полном качестве, пока сцена стояла. */
+    public long getRefinedFrames() { return refinedFrames.get(); }
+
+    /** Сколько кадров прошло через конвейер (геометрия считалась в отдельном потоке). */
+    public long getPipelinedFrames() { return pipelinedFrames.get(); }
+
+    /** Задержка последнего кадра: от снимка сцены в EDT до готового кадра, мс. */
+    public double getLastLatencyMs() { return lastLatencyMs; }
+
+    /** Средняя задержка кадра (снимок сцены -> готовый кадр), мс. */
+    public double getAverageLatencyMs() {
+        long n = framesRendered.get();
+        return (n == 0) ? 0.0 : latencyMicros.get() / 1000.0 / n;
+    }
+
+    /**
+     * Сколько в среднем кадр с готовой геометрией ждал, пока растеризуется предыдущий, мс.
+     * Это и есть задержка, которую добавляет конвейер.
+     */
+    public double getAveragePipelineWaitMs() {
+        long n = pipelinedFrames.get();
+        return (n == 0) ? 0.0 : pipelineWaitMicros.get() / 1000.0 / n;
+    }
+
+    /** Сколько новых кадров выведено на экран. */
+    public long getPresentedFrames() { return presentedFrames.get(); }
+
+    /** Задержка до показа последнего кадра: от снимка сцены в EDT до вывода на экран, мс. */
+    public double getLastPresentLatencyMs() { return lastPresentMs; }
+
+    /**
+     * Средняя задержка до показа (снимок сцены -> кадр на экране), мс. Ею сравниваются пути вывода:
+     * Swing (repaint + paintComponent) и ActiveCanvas (BufferStrategy прямо из потока рендера).
+     */
+    public double getAveragePresentLatencyMs() {
+        long n = presentedFrames.get();
+        return (n == 0) ? 0.0 : presentMicros.get() / 1000.0 / n;
+    }
+
+    void framePresented(double latencyMs) {
+        presentedFrames.incrementAndGet();
+        presentMicros.addAndGet((long) (latencyMs * 1000.0));
+        lastPresentMs = latencyMs;
+    }
+
+    void frameRendered(boolean degraded, double latencyMs) {
+        framesRendered.incrementAndGet();
+        if (degraded) degradedFrames.incrementAndGet();
+        latencyMicros.addAndGet((long) (latencyMs * 1000.0));
+        lastLatencyMs = latencyMs;
+    }
+
+    void framePipelined(double waitMs) {
+        pipelinedFrames.incrementAndGet();
+        pipelineWaitMicros.addAndGet((long) (waitMs * 1000.0));
+    }
+
+    void watchdogAbort() { watchdogAborts.incrementAndGet(); }
+    void renderCancelled() { cancelledRenders.incrementAndGet(); }
+    void frameRefined() { refinedFrames.incrementAndGet(); }
+
+    @Override
+    public String toString() {
+        return "frames=" + getFramesRendered() +
+                " watchdogAborts=" + getWatchdogAborts() +
+                " degraded=" + getDegradedFrames() +
+                " cancelled=" + getCancelledRenders() +
+                " refined=" + getRefinedFrames() +
+                " pipelined=" + getPipelinedFrames() +
+                String.format(" latency=%.1fms pipelineWait=%.1fms", getAverageLatencyMs(), getAveragePipelineWaitMs()) +
+                " presented=" + getPresentedFrames() +
+                String.format(" presentLatency=%.1fms", getAveragePresentLatencyMs());
+    }
+}
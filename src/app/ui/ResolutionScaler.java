@@ -0,0 +1,48 @@
+package app.ui;
+
+import engine.RenderSettings;
+
+/**
+ * Подбор разрешения рендера под бюджет времени кадра (пока камеру двигают).
+ *
+ * Время растеризации примерно пропорционально числу пикселей, то есть scale^2.
+ * Поэтому по времени прошлого кадра t и его масштабу s нужный масштаб ~ s * sqrt(target / t).
+ * Двигаемся к нему наполовину (чтобы не дёргалось) и округляем до шага STEP,
+ * иначе RenderTarget пересоздавался бы почти каждый кадр.
+ *
+ * Параметры (включено ли, целевое время, минимальный масштаб) берутся из RenderSettings,
+ * результат пишется туда же в resolutionScale.
+ */
+final class ResolutionScaler {
+
+    private static final double STEP = 0.05;
+
+    private long lastIndex = -1;
+
+    /** Обновить settings.resolutionScale по последнему готовому кадру (вызывать в каждом интерактивном тике). */
+    void update(FrameTiming timing, RenderSettings settings) {
+        if (!settings.adaptiveResolution) {
+            settings.resolutionScale = 1.0;
+            return;
+        }
+        if (timing == null || timing.index == lastIndex || timing.millis <= 0.0) return;
+        lastIndex = timing.index;
+
+        double min = clamp(settings.minResolutionScale, 0.1, 1.0);
+        double wanted = timing.scale * Math.sqrt(settings.targetFrameMs / timing.millis);
+        double s = settings.resolutionScale;
+        s += (wanted - s) * 0.5;
+        s = Math.round(s / STEP) * STEP;
+        settings.resolutionScale = clamp(s, min, 1.0);
+    }
+
+    /** Ввод закончился: следующий кадр — в полном разрешении. */
+    void reset(RenderSettings settings) {
+        settings.resolutionScale = 1.0;
+        lastIndex = -1;
+    }
+
+    private static double clamp(double v, double lo, double hi) {
+        return (v < lo) ? lo : Math.min(v, hi);
+    }
+}
@@ -3,6 +3,7 @@ package app.ui;
 import engine.InputState;
 
 import javax.swing.*;
+import java.awt.Component;
 import java.awt.event.*;
 import java.util.BitSet;
 
@@ -18,7 +19,21 @@ public final class SwingInput implements InputState {
     private boolean rotateOnlyWhenRightButtonDown = true;
     private boolean rightDown = false;
 
-    public void attachTo(JComponent c) {
+    // зовётся, когда ввод может сдвинуть камеру (нажатие клавиши, поворот мышью, колесо)
+    private Runnable onActivity = () -> {};
+
+    /** Кого будить при активном вводе (панель запускает свой таймер только в этот момент). */
+    public void setOnActivity(Runnable onActivity) {
+        if (onActivity == null) throw new NullPointerException("onActivity must not be null");
+        this.onActivity = onActivity;
+    }
+
+    /** Есть ли ещё что обрабатывать: зажатые клавиши или не забранные движения мыши/колеса. */
+    public boolean isActive() {
+        return !keys.isEmpty() || dx != 0.0 || dy != 0.0 || wheel != 0.0;
+    }
+
+    public void attachTo(Component c) {
         c.setFocusable(true);
 
         c.addMouseListener(new MouseAdapter() {
@@ -36,10 +51,16 @@ public final class SwingInput implements InputState {
             @Override public void mouseDragged(MouseEvent e) { handleMove(e.getX(), e.getY()); }
         });
 
-        c.addMouseWheelListener(e -> wheel += e.getPreciseWheelRotation());
+        c.addMouseWheelListener(e -> {
+            wheel += e.getPreciseWheelRotation();
+            onActivity.run();
+        });
 
         c.addKeyListener(new KeyAdapter() {
-            @Override public void keyPressed(KeyEvent e) { keys.set(e.getKeyCode(), true); }
+            @Override public void keyPressed(KeyEvent e) {
+                keys.set(e.getKeyCode(), true);
+                onActivity.run();
+            }
             @Override public void keyReleased(KeyEvent e) { keys.set(e.getKeyCode(), false); }
         });
     }
@@ -57,6 +78,7 @@ public final class SwingInput implements InputState {
         if (!rotateOnlyWhenRightButtonDown || rightDown) {
             dx += mx;
             dy += my;
+            if (mx != 0 || my != 0) onActivity.run();
         }
     }
 
@@ -19,6 +19,27 @@ public final class Camera {
     private double yaw;   // влево/вправо
     private double pitch; // вверх/вниз
 
+    // растёт при каждом изменении (по нему UI понимает, что кадр пора перерисовать)
+    private int version = 0;
+
+    // forward/right/up и view-матрица для текущего version: пересчитываются только после setter'ов.
+    // Один неизменяемый объект, а не четыре поля, — чтобы поток, читающий камеру (например,
+    // воркеры split view), никогда не увидел forward от нового кадра и матрицу от старого.
+    private static final class Basis {
+        final int version;
+        final Vec3 forward, right, up;
+        final Mat4 view;
+
+        Basis(int version, Vec3 forward, Vec3 right, Vec3 up, Mat4 view) {
+            this.version = version;
+            this.forward = forward;
+            this.right = right;
+            this.up = up;
+            this.view = view;
+        }
+    }
+    private Basis basis;
+
     public Camera() {
         this(new Vec3(0.0, 0.0, 0.0), 0.0, 0.0);
     }
@@ -33,61 +54,72 @@ public final class Camera {
     public Vec3 getPosition() { return position; }
     public double getYaw() { return yaw; }
     public double getPitch() { return pitch; }
+    public int getVersion() { return version; }
 
     public void setPosition(Vec3 position) {
         if (position == null) throw new NullPointerException("position must not be null");
         this.position = position;
+        version++;
     }
     public Vec3 forward = new Vec3(0, 0, -1);
 
-    public void setYaw(double yaw) { this.yaw = yaw; }
+    public void setYaw(double yaw) { this.yaw = yaw; version++; }
 
     /** pitch обычно ограничивают, чтобы не переворачивалось (например, [-pi/2+eps, pi/2-eps]) */
-    public void setPitch(double pitch) { this.pitch = pitch; }
+    public void setPitch(double pitch) { this.pitch = pitch; version++; }
+
+    public Vec3 getForward() { return basis().forward; }
+
+    public Vec3 getRight() { return basis().right; }
+
+    public Vec3 getUp() { return basis().up; }
 
-    public Vec3 getForward() {
+    /** Базис для текущих position/yaw/pitch; считается заново, только если камеру меняли. */
+    private Basis basis() {
+        Basis b = basis;
+        if (b != null && b.version == version) return b;
+
+        int v = version;
         // forward = (cos(pitch)*sin(yaw), sin(pitch), cos(pitch)*cos(yaw))
         double cp = Math.cos(pitch);
         double sp = Math.sin(pitch);
         double cy = Math.cos(yaw);
         double sy = Math.sin(yaw);
 
-        return new Vec3(cp * sy, sp, cp * cy).normalized();
-    }
-
-    public Vec3 getRight() {
-        Vec3 forward = getForward();
         Vec3 worldUp = new Vec3(0.0, 1.0, 0.0);
-        return forward.cross(worldUp).normalized();
-    }
-
-    public Vec3 getUp() {
-        Vec3 right = getRight();
-        Vec3 forward = getForward();
-        return right.cross(forward).normalized();
+        Vec3 forward = new Vec3(cp * sy, sp, cp * cy).normalized();
+        Vec3 right = forward.cross(worldUp).normalized();
+        Vec3 up = right.cross(forward).normalized();
+        // eye = position, target = position + forward, up = worldUp
+        Mat4 view = lookAt(position, position.add(forward), worldUp);
+
+        b = new Basis(v, forward, right, up, view);
+        basis = b;
+        return b;
     }
 
     public void moveForward(double amount) {
         position = position.add(getForward().scale(amount));
+        version++;
     }
 
     public void moveRight(double amount) {
         position = position.add(getRight().scale(amount));
+        version++;
     }
 
     public void moveUp(double amount) {
         position = position.add(new Vec3(0.0, 1.0, 0.0).scale(amount));
+        version++;
     }
 
     /**
      * View matrix (world -> camera).
      * Делается через lookAt: eye = position, target = position + forward, up = worldUp.
+     * Кэшируется до следующего изменения камеры (Mat4 неизменяемая, так что отдавать один объект можно).
      */
     public Mat4 getViewMatrix() {
-        Vec3 eye = position;
-        Vec3 target = position.add(getForward());
-        Vec3 up = new Vec3(0.0, 1.0, 0.0);
-        return lookAt(eye, target, up);
+        return basis().view;
     }
 
     /**
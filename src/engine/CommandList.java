@@ -0,0 +1,125 @@
+package engine;
+
+import math.Mat4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Retained-mode список команд отрисовки.
+ *
+ * Команды записываются один раз (add...), а дальше от кадра к кадру только "патчатся":
+ * setMatrix() меняет матрицу одной команды, остальные не трогаются. Для рендера отдаётся
+ * snapshot() — неизменяемый список; пока ничего не поменялось, это один и тот же объект,
+ * так что кадр без изменений ничего не аллоцирует.
+ *
+ * Вместе со снимком ведётся BVH по командам (bvh()): при записи новых команд строится заново,
+ * а при патчах матриц только подгоняется (InstanceBvh.refit) — по тем командам, которые патчили.
+ *
+ * Сам список не потокобезопасный: его меняет один поток (EDT), а в поток рендера уходят снимки.
+ */
+public final class CommandList {
+
+    private final List<DrawCommand> commands = new ArrayList<>();
+    private List<DrawCommand> snapshot = List.of();
+    private boolean dirty = false;
+
+    // BVH для snapshot; какие команды патчили с прошлого снимка (или всё заново, если менялся состав)
+    private InstanceBvh bvh;
+    private boolean structureChanged = true;
+    private int[] changed = new int[16];
+    private int changedCount = 0;
+
+    /** Записать основную модель: рисуется с настройками кадра и отбрасывает тень. Возвращает номер команды. */
+    public int addModel(Mesh mesh, Mat4 model) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        mesh.prepareForRender(); // кэши меша — до того, как его увидят потоки рендера
+        return add(new DrawCommand(mesh, model, null, true, false));
+    }
+
+    /**
+     * Записать статический объект со своим материалом (иконка камеры и т.п.): тень не отбрасывает
+     * и попадает в LayerCache. Возвращает номер команды.
+     */
+    public int addStatic(Mesh mesh, Mat4 model, RenderSettings material) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        if (material == null) throw new NullPointerException("material must not be null");
+        mesh.prepareForRender();
+        return add(new DrawCommand(mesh, model, material, false, true));
+    }
+
+    /**
+     * Инстансинг: записать один меш много раз, по команде на матрицу (рисуются с настройками кадра, как addModel).
+     * Всё, что считается по мешу (рёбра, bounds, плоские массивы вершин, индексы), общее на все копии
+     * и готовится здесь один раз; в кадре у каждой видимой копии — только её собственные вершины,
+     * и те не хранятся между кадрами (см. DrawCommand), так что память не растёт с числом копий.
+     * Возвращает номер первой команды, остальные идут подряд (first + i — матрица models[i]).
+     */
+    public int addInstances(Mesh mesh, Mat4[] models) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        if (models == null) throw new NullPointerException("models must not be null");
+        mesh.prepareForRender();
+        int first = commands.size();
+        for (Mat4 m : models) add(new DrawCommand(mesh, m, null, true, false, false));
+        return first;
+    }
+
+    private int add(DrawCommand c) {
+        commands.add(c);
+        dirty = true;
+        structureChanged = true;
+        return commands.size() - 1;
+    }
+
+    /** Патч: новая матрица команды. Если матрица та же — ничего не происходит. */
+    public void setMatrix(int index, Mat4 model) {
+        if (model == null) throw new NullPointerException("model must not be null");
+        DrawCommand c = commands.get(index);
+        if (c.getModelMatrix().epsEquals(model, 0.0)) return;
+        commands.set(index, c.withMatrix(model));
+        dirty = true;
+        if (!structureChanged) {
+            if (changedCount == changed.length) changed = Arrays.copyOf(changed, changed.length * 2);
+            changed[changedCount++] = index;
+        }
+    }
+
+    public DrawCommand get(int index) {
+        return commands.get(index);
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    public void clear() {
+        if (commands.isEmpty()) return;
+        commands.clear();
+        dirty = true;
+        structureChanged = true;
+    }
+
+    /** Неизменяемый снимок для потока рендера (тот же объект, пока список не меняли). */
+    public List<DrawCommand> snapshot() {
+        if (dirty) {
+            snapshot = List.copyOf(commands);
+            dirty = false;
+            if (structureChanged || bvh == null || bvh.worn()) {
+                bvh = InstanceBvh.build(snapshot);
+            } else {
+                bvh = bvh.refit(snapshot, changed, changedCount);
+            }
+            structureChanged = false;
+            changedCount = 0;
+        }
+        return snapshot;
+    }
+
+    /** BVH по командам snapshot() (тот же снимок: bvh().getCommands() == snapshot()). */
+    public InstanceBvh bvh() {
+        snapshot();
+        if (bvh == null) bvh = InstanceBvh.build(snapshot);
+        return bvh;
+    }
+}
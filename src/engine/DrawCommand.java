@@ -0,0 +1,128 @@
+package engine;
+
+import math.Mat4;
+
+import java.util.Arrays;
+
+/**
+ * Одна команда отрисовки: меш + model-матрица + материал.
+ *
+ * Команда неизменяемая: если объект сдвинули, CommandList заменяет её новой (см. CommandList.setMatrix),
+ * а все остальные команды остаются теми же объектами. Поэтому кэши рендера (мировые вершины,
+ * карты теней, LayerCache, FrameHistory) могут сравнивать команды просто по ссылке.
+ *
+ * Мировые вершины команды считаются один раз и живут в ней самой: объект, который не двигали,
+ * в следующих кадрах мировой этап не проходит вообще. Кроме инстансов (CommandList.addInstances):
+ * их бывают десятки тысяч с одним мешем, и копия вершин на каждый — это вся сцена в памяти ещё раз.
+ * У них мировые вершины считаются в кадре, пачками видимых (SoftwareRenderer.projectBatch), и живут,
+ * пока кадр не нарисован.
+ */
+public final class DrawCommand {
+
+    private final Mesh mesh;
+    private final Mat4 model;
+    private final RenderSettings material;
+    private final boolean castsShadow;
+    private final boolean isStatic;
+    private final boolean keepsWorld;
+
+    // мировые позиции/нормали (только если keepsWorld); считаются лениво в потоке рендера (SoftwareRenderer.prepare)
+    private volatile WorldStage.Vertices world;
+    // то же для уровней LOD меша (индекс — уровень, [0] не используется); массив заменяется целиком
+    private volatile WorldStage.Vertices[] lodWorld;
+
+    /**
+     * material — свои настройки отрисовки (null => настройки кадра).
+     * isStatic — объект не двигается вместе с моделью (иконки камер), его можно держать в LayerCache.
+     */
+    DrawCommand(Mesh mesh, Mat4 model, RenderSettings material, boolean castsShadow, boolean isStatic) {
+        this(mesh, model, material, castsShadow, isStatic, true);
+    }
+
+    /** keepsWorld = false — мировые вершины не хранить, считать в каждом кадре (инстансы). */
+    DrawCommand(Mesh mesh, Mat4 model, RenderSettings material, boolean castsShadow, boolean isStatic,
+                boolean keepsWorld) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        if (model == null) throw new NullPointerException("model must not be null");
+        this.mesh = mesh;
+        this.model = model;
+        this.material = material;
+        this.castsShadow = castsShadow;
+        this.isStatic = isStatic;
+        this.keepsWorld = keepsWorld;
+    }
+
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    public Mat4 getModelMatrix() {
+        return model;
+    }
+
+    /** Свой материал команды или null (тогда рисуется с настройками кадра). */
+    public RenderSettings getMaterial() {
+        return material;
+    }
+
+    public boolean isCastsShadow() {
+        return castsShadow;
+    }
+
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    /** Хранит ли команда свои мировые вершины между кадрами (у инстансов — нет). */
+    boolean keepsWorld() {
+        return keepsWorld;
+    }
+
+    /**
+     * Рисует ли other то же самое (для ключей кэшей). Обычно это та же ссылка; сравнение по содержимому —
+     * для тех, кто пересоздаёт команды каждый кадр (старый API с ModelInstance).
+     */
+    boolean sameAs(DrawCommand other) {
+        if (other == this) return true;
+        return other != null
+                && mesh == other.mesh
+                && material == other.material
+                && castsShadow == other.castsShadow
+                && isStatic == other.isStatic
+                && model.epsEquals(other.model, 0.0);
+    }
+
+    /** Та же команда с другой матрицей (материал и флаги те же, мировые вершины — заново). */
+    DrawCommand withMatrix(Mat4 model) {
+        return new DrawCommand(mesh, model, material, castsShadow, isStatic, keepsWorld);
+    }
+
+    /** Мировые вершины меша: из кэша команды или (у инстансов) свежие, которые держит только вызывающий. */
+    WorldStage.Vertices world(RenderCancel cancel) {
+        if (!keepsWorld) return SoftwareRenderer.toWorld(mesh, model, cancel);
+        WorldStage.Vertices w = world;
+        if (w == null) {
+            w = SoftwareRenderer.toWorld(mesh, model, cancel);
+            world = w;
+        }
+        return w;
+    }
+
+    /** Мировые вершины уровня level из mesh.getLod() (levelMesh — меш этого уровня). */
+    WorldStage.Vertices world(int level, Mesh levelMesh, RenderCancel cancel) {
+        if (level == 0) return world(cancel);
+        if (!keepsWorld) return SoftwareRenderer.toWorld(levelMesh, model, cancel);
+        WorldStage.Vertices[] cache = lodWorld;
+        if (cache != null && level < cache.length && cache[level] != null) return cache[level];
+
+        WorldStage.Vertices w = SoftwareRenderer.toWorld(levelMesh, model, cancel);
+        // копия с новым уровнем: читатели всегда видят целый массив (если два потока посчитали
+        // разные уровни одновременно, один пропадёт и просто посчитается ещё раз)
+        WorldStage.Vertices[] next = (cache == null)
+                ? new WorldStage.Vertices[level + 1]
+                : Arrays.copyOf(cache, Math.max(cache.length, level + 1));
+        next[level] = w;
+        lodWorld = next;
+        return w;
+    }
+}
@@ -0,0 +1,167 @@
+package engine;
+
+import math.Mat4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * История прошлого кадра для temporal reprojection (RenderSettings.temporalReuse).
+ *
+ * Для каждого пикселя храним цвет заливки (до wireframe), глубину вдоль луча камеры (clip w)
+ * и "возраст" — сколько кадров подряд цвет берётся из истории. Плюс view-projection прошлого кадра.
+ *
+ * При растеризации мировая точка пикселя проецируется в прошлый кадр; если там была та же
+ * поверхность (глубина совпала с точностью DEPTH_TOLERANCE) и цвет не слишком старый —
+ * берём цвет из истории и не шейдим. Иначе (открылась новая область, другой объект) — шейдим заново.
+ *
+ * Работает, потому что шейдинг у нас не зависит от камеры (диффузный свет, текстура).
+ * История сбрасывается, если поменялось что-то кроме камеры: команды (объекты, их матрицы), свет, настройки, размер.
+ * Один объект истории можно отдавать разным RenderTarget (тройной буфер) — важно только,
+ * чтобы кадры рисовались по очереди.
+ */
+public final class FrameHistory {
+
+    private static final double DEPTH_TOLERANCE = 0.01; // относительная
+    private static final int MAX_AGE = 8;               // потом пиксель всё равно перешейдим
+
+    private int width, height;
+
+    // текущий кадр (пишем) и прошлый (читаем); в конце кадра меняются местами
+    int[] color, prevColor;
+    float[] depth, prevDepth;   // 0 — в пикселе ничего не было
+    byte[] age, prevAge;
+
+    private double[] viewProj, prevViewProj;
+    private boolean prevValid = false;
+    private boolean inFrame = false;
+
+    // ключ: всё, кроме камеры, от чего зависит цвет
+    private DrawCommand[] keyCommands = new DrawCommand[0];
+    private Light[] keyLights = new Light[0];
+    private int[] keyLightVersions = new int[0];
+    private RenderSettings keySettings;
+
+    private int reusedPixels, shadedPixels;
+
+    /** Забыть прошлый кадр (следующий будет пошейден целиком). */
+    public void invalidate() {
+        prevValid = false;
+    }
+
+    /** Сколько пикселей в последнем кадре взято из истории. */
+    public int getReusedPixels() { return reusedPixels; }
+
+    /** Сколько пикселей в последнем кадре пошейдено заново. */
+    public int getShadedPixels() { return shadedPixels; }
+
+    /**
+     * Начало кадра. commands — все команды кадра, settingsKey — настройки, влияющие на цвет.
+     * Если что-то из этого (или размер) не совпало с прошлым кадром, история не используется.
+     */
+    void begin(int width, int height, Mat4 viewProj, List<DrawCommand> commands, List<Light> lights,
+               RenderSettings settingsKey) {
+        // прошлый кадр не дорисован (отменили) — его история неполная
+        if (inFrame) prevValid = false;
+        inFrame = true;
+
+        if (color == null || this.width != width || this.height != height) {
+            this.width = width;
+            this.height = height;
+            int n = width * height;
+            color = new int[n]; prevColor = new int[n];
+            depth = new float[n]; prevDepth = new float[n];
+            age = new byte[n]; prevAge = new byte[n];
+            prevValid = false;
+        }
+
+        if (!sameKey(commands, lights, settingsKey)) {
+            prevValid = false;
+            storeKey(commands, lights, settingsKey);
+        }
+
+        Arrays.fill(depth, 0f);
+        this.viewProj = viewProj.toRowMajorArray();
+    }
+
+    /** Конец кадра: текущий кадр становится историей. */
+    void end() {
+        // считаем по итоговым пикселям кадра: пиксель, который перекрыли позже, записан дважды,
+        // но в кадре он один
+        int reused = 0, shaded = 0;
+        for (int i = 0; i < depth.length; i++) {
+            if (depth[i] == 0f) continue;
+            if (age[i] > 0) reused++;
+            else shaded++;
+        }
+        reusedPixels = reused;
+        shadedPixels = shaded;
+
+        int[] c = prevColor; prevColor = color; color = c;
+        float[] d = prevDepth; prevDepth = depth; depth = d;
+        byte[] a = prevAge; prevAge = age; age = a;
+        prevViewProj = viewProj;
+        prevValid = true;
+        inFrame = false;
+    }
+
+    /**
+     * Индекс пикселя прошлого кадра, где видна мировая точка (x, y, z), или -1,
+     * если истории нет / точка там не видна / цвет уже слишком старый.
+     */
+    int reproject(double x, double y, double z) {
+        if (!prevValid) return -1;
+        double[] m = prevViewProj;
+        double cw = m[12] * x + m[13] * y + m[14] * z + m[15];
+        if (cw <= SoftwareRenderer.Z_NEAR) return -1;
+        double cx = m[0] * x + m[1] * y + m[2] * z + m[3];
+        double cy = m[4] * x + m[5] * y + m[6] * z + m[7];
+
+        int ix = (int) Math.floor((cx / cw + 1.0) * 0.5 * width);
+        int iy = (int) Math.floor((1.0 - (cy / cw + 1.0) * 0.5) * height);
+        if (ix < 0 || iy < 0 || ix >= width || iy >= height) return -1;
+
+        int i = iy * width + ix;
+        float stored = prevDepth[i];
+        if (stored == 0f || Math.abs(stored - cw) > cw * DEPTH_TOLERANCE) return -1;
+        if (prevAge[i] >= MAX_AGE) return -1;
+        return i;
+    }
+
+    /** Записать пиксель текущего кадра. prev — что вернул reproject() (-1 => пошейден заново). */
+    void write(int id, int rgb, double viewDepth, int prev) {
+        color[id] = rgb;
+        depth[id] = (float) viewDepth;
+        if (prev >= 0) {
+            age[id] = (byte) (prevAge[prev] + 1);
+        } else {
+            age[id] = 0;
+        }
+    }
+
+    private boolean sameKey(List<DrawCommand> commands, List<Light> lights, RenderSettings settings) {
+        if (keySettings == null || !keySettings.sameAs(settings)) return false;
+        if (commands.size() != keyCommands.length || lights.size() != keyLights.length) return false;
+        // DrawCommand.sameAs: обычно просто та же ссылка (команда не менялась)
+        for (int i = 0; i < keyCommands.length; i++) {
+            if (!commands.get(i).sameAs(keyCommands[i])) return false;
+        }
+        for (int i = 0; i < keyLights.length; i++) {
+            Light l = lights.get(i);
+            if (l.origin() != keyLights[i] || l.getVersion() != keyLightVersions[i]) return false;
+        }
+        return true;
+    }
+
+    private void storeKey(List<DrawCommand> commands, List<Light> lights, RenderSettings settings) {
+        keyCommands = commands.toArray(new DrawCommand[0]);
+        // снимки света каждый кадр новые — ключ по живому свету и версии снимка
+        keyLights = new Light[lights.size()];
+        keyLightVersions = new int[keyLights.length];
+        for (int i = 0; i < keyLights.length; i++) {
+            keyLights[i] = lights.get(i).origin();
+            keyLightVersions[i] = lights.get(i).getVersion();
+        }
+        keySettings = settings.copy();
+    }
+}
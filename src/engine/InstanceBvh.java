@@ -0,0 +1,412 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * BVH (дерево AABB) по командам кадра: по нему проекция выбирает только то, что попало
+ * в пирамиду видимости и не закрыто ближними объектами, не перебирая все команды.
+ * На сценах с десятками тысяч объектов это и есть основная экономия: стоимость кадра
+ * пропорциональна видимому, а не всей сцене.
+ *
+ * Строится по снимку CommandList (build) и дальше не перестраивается, а "подгоняется" (refit):
+ * у сдвинутых команд пересчитываются AABB листа и всех его предков, топология остаётся прежней.
+ * После слишком многих refit дерево портится (узлы разъезжаются) — тогда CommandList строит заново.
+ *
+ * Объект неизменяемый: refit возвращает новое дерево, которое делит с прежним топологию
+ * и все нетронутые страницы bounds. Поэтому прежний снимок можно спокойно обходить
+ * в потоке рендера, пока EDT готовит следующий.
+ */
+public final class InstanceBvh {
+
+    /** Сколько команд максимум в листе. */
+    static final int LEAF_SIZE = 4;
+
+    // bounds узлов лежат страницами по PAGE узлов: refit копирует только страницы, которые трогал
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE - 1;
+
+    /** Топология дерева: после build не меняется и общая у всех refit-версий. */
+    private static final class Topology {
+        final int nodeCount;
+        final int[] left, right;  // дети; у листа left = -1
+        final int[] parent;       // -1 у корня
+        final int[] first, count; // лист: команды order[first .. first+count)
+        final int[] order;        // номера команд, листы подряд
+        final int[] leafOf;       // номер команды -> её лист
+
+        Topology(int nodeCount, int[] left, int[] right, int[] parent,
+                 int[] first, int[] count, int[] order, int[] leafOf) {
+            this.nodeCount = nodeCount;
+            this.left = left;
+            this.right = right;
+            this.parent = parent;
+            this.first = first;
+            this.count = count;
+            this.order = order;
+            this.leafOf = leafOf;
+        }
+    }
+
+    /** Обход: отсечение по перекрытию и сами видимые команды (в порядке "ближние раньше"). */
+    interface Visitor {
+        /** true — AABB точно закрыт тем, что уже нарисовано, поддерево можно пропустить. */
+        boolean occluded(double minX, double minY, double minZ, double maxX, double maxY, double maxZ);
+
+        void visit(int commandIndex);
+    }
+
+    private final List<DrawCommand> commands;
+    private final Topology topo;
+    private final double[][] pages; // по 6 double на узел: minX, minY, minZ, maxX, maxY, maxZ
+    private final int refits;       // сколько команд подогнано с последнего build
+
+    private InstanceBvh(List<DrawCommand> commands, Topology topo, double[][] pages, int refits) {
+        this.commands = commands;
+        this.topo = topo;
+        this.pages = pages;
+        this.refits = refits;
+    }
+
+    /** Команды, по которым построено дерево (номера в visit — индексы в этом списке). */
+    public List<DrawCommand> getCommands() {
+        return commands;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    // ---------- build ----------
+
+    /** Построить дерево заново (разбиение примерно по медиане самой длинной оси центров). */
+    static InstanceBvh build(List<DrawCommand> commands) {
+        int n = commands.size();
+        double[] box = new double[Math.max(1, n) * 6];
+        double[] center = new double[Math.max(1, n) * 3];
+        for (int i = 0; i < n; i++) {
+            commandBounds(commands.get(i), box, i * 6);
+            for (int k = 0; k < 3; k++) center[i * 3 + k] = 0.5 * (box[i * 6 + k] + box[i * 6 + 3 + k]);
+        }
+
+        // листы заполняются целиком (см. split), так что их ceil(n / LEAF_SIZE), а узлов вдвое больше без одного
+        int maxNodes = Math.max(1, 2 * ((n + LEAF_SIZE - 1) / LEAF_SIZE));
+        Builder b = new Builder(n, maxNodes, center);
+        if (n > 0) b.split(0, n, -1);
+
+        Topology topo = new Topology(b.nodeCount, b.left, b.right, b.parent, b.first, b.count, b.order, b.leafOf);
+        return new InstanceBvh(commands, topo, allBounds(topo, box), 0);
+    }
+
+    // bounds всех узлов по AABB команд (box: по 6 double на команду)
+    private static double[][] allBounds(Topology topo, double[] box) {
+        double[][] pages = new double[pageCount(topo.nodeCount)][];
+        for (int p = 0; p < pages.length; p++) pages[p] = new double[PAGE * 6];
+
+        // снизу вверх: дети всегда создаются после родителя, так что идём с конца
+        for (int node = topo.nodeCount - 1; node >= 0; node--) {
+            double[] page = pages[node >> PAGE_SHIFT];
+            int off = (node & PAGE_MASK) * 6;
+            if (topo.left[node] < 0) {
+                leafBounds(topo, box, node, page, off);
+            } else {
+                union(pages, topo.left[node], topo.right[node], page, off);
+            }
+        }
+        return pages;
+    }
+
+    private static final class Builder {
+        final int[] left, right, parent, first, count;
+        final int[] order, leafOf;
+        final double[] center;
+        int nodeCount = 0;
+
+        Builder(int n, int maxNodes, double[] center) {
+            left = new int[maxNodes];
+            right = new int[maxNodes];
+            parent = new int[maxNodes];
+            first = new int[maxNodes];
+            count = new int[maxNodes];
+            order = new int[n];
+            leafOf = new int[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            this.center = center;
+        }
+
+        int split(int from, int to, int parentNode) {
+            int node = nodeCount++;
+            parent[node] = parentNode;
+            first[node] = from;
+            count[node] = to - from;
+
+            if (to - from <= LEAF_SIZE) {
+                left[node] = -1;
+                right[node] = -1;
+                for (int i = from; i < to; i++) leafOf[order[i]] = node;
+                return node;
+            }
+
+            // самая длинная ось по центрам
+            double[] lo = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+            double[] hi = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int i = from; i < to; i++) {
+                for (int k = 0; k < 3; k++) {
+                    double c = center[order[i] * 3 + k];
+                    if (c < lo[k]) lo[k] = c;
+                    if (c > hi[k]) hi[k] = c;
+                }
+            }
+            int axis = 0;
+            if (hi[1] - lo[1] > hi[axis] - lo[axis]) axis = 1;
+            if (hi[2] - lo[2] > hi[axis] - lo[axis]) axis = 2;
+
+            // примерно пополам, но левая часть кратна LEAF_SIZE — тогда все листы, кроме последнего, полные
+            int leaves = (to - from + LEAF_SIZE - 1) / LEAF_SIZE;
+            int mid = from + (leaves / 2) * LEAF_SIZE;
+            select(from, to - 1, mid, axis);
+
+            int l = split(from, mid, node);
+            int r = split(mid, to, node);
+            left[node] = l;
+            right[node] = r;
+            return node;
+        }
+
+        // quickselect: order[mid] на своём месте по center[axis], слева не больше, справа не меньше
+        private void select(int lo, int hi, int k, int axis) {
+            while (lo < hi) {
+                double pivot = center[order[(lo + hi) >>> 1] * 3 + axis];
+                int i = lo, j = hi;
+                while (i <= j) {
+                    while (center[order[i] * 3 + axis] < pivot) i++;
+                    while (center[order[j] * 3 + axis] > pivot) j--;
+                    if (i <= j) {
+                        int t = order[i]; order[i] = order[j]; order[j] = t;
+                        i++;
+                        j--;
+                    }
+                }
+                if (k <= j) hi = j;
+                else if (k >= i) lo = i;
+                else return;
+            }
+        }
+    }
+
+    // ---------- refit ----------
+
+    /**
+     * Новое дерево для commands (тот же состав, что при build, поменялись только матрицы changed[0..n)).
+     * Пересчитываются лист каждой сдвинутой команды и его предки — пока bounds действительно меняются.
+     */
+    InstanceBvh refit(List<DrawCommand> commands, int[] changed, int n) {
+        if (commands.size() != this.commands.size()) throw new IllegalArgumentException("refit needs the same commands count");
+
+        // сдвинули заметную часть сцены (например, корень сборки) — проще пересчитать все узлы одним проходом,
+        // чем подниматься от каждого листа
+        if (n > topo.nodeCount / 8) {
+            double[] box = new double[Math.max(1, commands.size()) * 6];
+            for (int i = 0; i < commands.size(); i++) commandBounds(commands.get(i), box, i * 6);
+            return new InstanceBvh(commands, topo, allBounds(topo, box), refits + n);
+        }
+
+        double[][] next = pages.clone();
+        boolean[] own = new boolean[next.length]; // страница уже скопирована для нового дерева
+        double[] box = new double[6 * LEAF_SIZE];
+
+        for (int c = 0; c < n; c++) {
+            int node = topo.leafOf[changed[c]];
+
+            int first = topo.first[node], count = topo.count[node];
+            for (int i = 0; i < count; i++) commandBounds(commands.get(topo.order[first + i]), box, i * 6);
+            if (!boundsOf(box, count, writable(next, own, node), (node & PAGE_MASK) * 6)) continue;
+
+            // вверх, пока у родителя что-то меняется
+            for (node = topo.parent[node]; node >= 0; node = topo.parent[node]) {
+                double[] page = writable(next, own, node);
+                if (!union(next, topo.left[node], topo.right[node], page, (node & PAGE_MASK) * 6)) break;
+            }
+        }
+        return new InstanceBvh(commands, topo, next, refits + n);
+    }
+
+    /** Пора ли строить заново: подгоняли уже больше, чем команд в дереве. */
+    boolean worn() {
+        return refits > Math.max(64, commands.size());
+    }
+
+    private static double[] writable(double[][] pages, boolean[] own, int node) {
+        int p = node >> PAGE_SHIFT;
+        if (!own[p]) {
+            pages[p] = pages[p].clone();
+            own[p] = true;
+        }
+        return pages[p];
+    }
+
+    // ---------- обход ----------
+
+    /**
+     * Обойти видимое: узлы вне пирамиды (planes, см. frustumPlanes) и закрытые (visitor.occluded)
+     * отбрасываются целиком, остальные листы отдаются в visitor.visit — ближние к eye раньше,
+     * чтобы перекрытие успевало накопиться от ближних объектов.
+     */
+    void traverse(double[] planes, Vec3 eye, Visitor visitor) {
+        int nodes = topo.nodeCount;
+        if (nodes == 0) return;
+
+        // в стеке: узел + какие плоскости ещё нужно проверять (у предка AABB мог быть целиком внутри)
+        int[] stack = new int[64];
+        int[] masks = new int[64];
+        int top = 0;
+        stack[top] = 0;
+        masks[top++] = 0x3F;
+
+        while (top > 0) {
+            int node = stack[--top];
+            int mask = masks[top];
+
+            double[] page = pages[node >> PAGE_SHIFT];
+            int off = (node & PAGE_MASK) * 6;
+            double minX = page[off], minY = page[off + 1], minZ = page[off + 2];
+            double maxX = page[off + 3], maxY = page[off + 4], maxZ = page[off + 5];
+
+            mask = clip(planes, mask, minX, minY, minZ, maxX, maxY, maxZ);
+            if (mask < 0) continue;
+            if (visitor.occluded(minX, minY, minZ, maxX, maxY, maxZ)) continue;
+
+            int l = topo.left[node];
+            if (l < 0) {
+                int first = topo.first[node], count = topo.count[node];
+                for (int i = 0; i < count; i++) visitor.visit(topo.order[first + i]);
+                continue;
+            }
+
+            int r = topo.right[node];
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+                masks = Arrays.copyOf(masks, masks.length * 2);
+            }
+            // дальний кладём первым — ближний достанется раньше
+            boolean leftFirst = centerDist2(l, eye) <= centerDist2(r, eye);
+            stack[top] = leftFirst ? r : l;
+            masks[top++] = mask;
+            stack[top] = leftFirst ? l : r;
+            masks[top++] = mask;
+        }
+    }
+
+    private double centerDist2(int node, Vec3 eye) {
+        double[] page = pages[node >> PAGE_SHIFT];
+        int off = (node & PAGE_MASK) * 6;
+        double dx = 0.5 * (page[off] + page[off + 3]) - eye.x;
+        double dy = 0.5 * (page[off + 1] + page[off + 4]) - eye.y;
+        double dz = 0.5 * (page[off + 2] + page[off + 5]) - eye.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Плоскости пирамиды видимости из viewProj (как в Gribb/Hartmann): 6 штук по (a, b, c, d),
+     * точка внутри, если a*x + b*y + c*z + d >= 0 для всех.
+     */
+    static double[] frustumPlanes(Mat4 viewProj) {
+        double[] p = new double[24];
+        for (int i = 0; i < 3; i++) {
+            for (int k = 0; k < 4; k++) {
+                double w = viewProj.get(3, k), v = viewProj.get(i, k);
+                p[(i * 2) * 4 + k] = w + v;     // left / bottom / near
+                p[(i * 2 + 1) * 4 + k] = w - v; // right / top / far
+            }
+        }
+        return p;
+    }
+
+    /** Проверить AABB по плоскостям из mask: -1 — целиком снаружи, иначе mask плоскостей, которые он пересекает. */
+    static int clip(double[] planes, int mask, double minX, double minY, double minZ,
+                    double maxX, double maxY, double maxZ) {
+        int out = mask;
+        for (int i = 0; i < 6; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            double a = planes[i * 4], b = planes[i * 4 + 1], c = planes[i * 4 + 2], d = planes[i * 4 + 3];
+            // самая "внутренняя" вершина: если и она снаружи — весь AABB снаружи
+            double far = a * (a >= 0 ? maxX : minX) + b * (b >= 0 ? maxY : minY) + c * (c >= 0 ? maxZ : minZ) + d;
+            if (far < 0) return -1;
+            double near = a * (a >= 0 ? minX : maxX) + b * (b >= 0 ? minY : maxY) + c * (c >= 0 ? minZ : maxZ) + d;
+            if (near >= 0) out &= ~(1 << i); // целиком внутри этой плоскости — детям её проверять не нужно
+        }
+        return out;
+    }
+
+    // ---------- bounds ----------
+
+    /** Мировой AABB команды: локальный AABB меша через model-матрицу (метод Arvo, без 8 углов). */
+    static void commandBounds(DrawCommand c, double[] out, int off) {
+        Mesh mesh = c.getMesh();
+        Vec3 bmin = mesh.getBoundsMin(), bmax = mesh.getBoundsMax();
+        Mat4 m = c.getModelMatrix();
+        double[] lo = {bmin.x, bmin.y, bmin.z};
+        double[] hi = {bmax.x, bmax.y, bmax.z};
+        for (int i = 0; i < 3; i++) {
+            double mn = m.get(i, 3), mx = mn;
+            for (int j = 0; j < 3; j++) {
+                double a = m.get(i, j) * lo[j];
+                double b = m.get(i, j) * hi[j];
+                mn += Math.min(a, b);
+                mx += Math.max(a, b);
+            }
+            out[off + i] = mn;
+            out[off + 3 + i] = mx;
+        }
+    }
+
+    private static void leafBounds(Topology topo, double[] box, int node, double[] page, int off) {
+        double[] tmp = new double[6 * LEAF_SIZE];
+        int first = topo.first[node], count = topo.count[node];
+        for (int i = 0; i < count; i++) System.arraycopy(box, topo.order[first + i] * 6, tmp, i * 6, 6);
+        boundsOf(tmp, count, page, off);
+    }
+
+    // объединение count коробок из box в page[off..]; true — если значение поменялось
+    private static boolean boundsOf(double[] box, int count, double[] page, int off) {
+        double[] r = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < count; i++) {
+            for (int k = 0; k < 3; k++) {
+                r[k] = Math.min(r[k], box[i * 6 + k]);
+                r[3 + k] = Math.max(r[3 + k], box[i * 6 + 3 + k]);
+            }
+        }
+        return store(r, page, off);
+    }
+
+    private static boolean union(double[][] pages, int a, int b, double[] page, int off) {
+        double[] pa = pages[a >> PAGE_SHIFT], pb = pages[b >> PAGE_SHIFT];
+        int oa = (a & PAGE_MASK) * 6, ob = (b & PAGE_MASK) * 6;
+        double[] r = new double[6];
+        for (int k = 0; k < 3; k++) {
+            r[k] = Math.min(pa[oa + k], pb[ob + k]);
+            r[3 + k] = Math.max(pa[oa + 3 + k], pb[ob + 3 + k]);
+        }
+        return store(r, page, off);
+    }
+
+    private static boolean store(double[] r, double[] page, int off) {
+        boolean changed = false;
+        for (int k = 0; k < 6; k++) {
+            if (page[off + k] != r[k]) {
+                page[off + k] = r[k];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static int pageCount(int nodes) {
+        return (nodes + PAGE - 1) >> PAGE_SHIFT;
+    }
+}
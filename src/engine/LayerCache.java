@@ -0,0 +1,141 @@
+package engine;
+
+import math.Mat4;
+
+import java.util.List;
+
+/**
+ * Кэш "статического слоя" кадра: цвет + глубина всех статических команд (DrawCommand.isStatic(),
+ * в ModelPanel это иконки других камер). Включается RenderSettings.layerCaching.
+ *
+ * Пока двигают только модель (слайдеры Transform в AppFrame), камера и статические объекты
+ * те же, поэтому их не нужно растеризовать заново: рисуем одну модель, а слой
+ * досовмещаем по глубине (сэмпл слоя виден, если он ближе того, что уже нарисовано).
+ *
+ * Слой хранится разреженно — только покрытые сэмплы (индекс, глубина, цвет), поэтому
+ * совмещение стоит столько, сколько пикселей занимают статические объекты.
+ * Сэмплы, где есть только линия wireframe (без заливки), совмещаются как линии:
+ * по глубине линии, но без записи в z-buffer — так же, как при обычном рендере.
+ *
+ * Слой строится, только если ключ (камера, размер, объекты) совпал два кадра подряд:
+ * пока камеру двигают, он каждый кадр другой, и строить его — лишняя работа.
+ */
+public final class LayerCache {
+
+    // ключ
+    private int width, height, samples;
+    private Mat4 view;
+    private DrawCommand[] statics = new DrawCommand[0];
+    private boolean hasKey = false;
+    private boolean built = false;
+
+    // слой: покрытые сэмплы
+    int count;
+    int[] index = new int[0];
+    double[] z = new double[0];
+    int[] color = new int[0];
+    boolean[] filled = new boolean[0]; // false — только линия
+
+    private RenderTarget scratch;
+
+    /** Сбросить слой (следующие кадры нарисуют статические объекты заново). */
+    public void invalidate() {
+        hasKey = false;
+        built = false;
+    }
+
+    /**
+     * Вызывается в начале кадра. true — слой для этого кадра можно использовать
+     * (уже построен или его пора построить: ключ не менялся с прошлого кадра).
+     */
+    boolean prepare(int width, int height, int samples, Mat4 view, List<DrawCommand> statics) {
+        if (hasKey && sameKey(width, height, samples, view, statics)) return true;
+        storeKey(width, height, samples, view, statics);
+        return false;
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    /** Пустой target того же размера для построения слоя. */
+    RenderTarget scratch() {
+        if (scratch == null || !scratch.matches(width, height, samples)) {
+            scratch = new RenderTarget(width, height, samples);
+            scratch.enableLineDepth();
+        }
+        return scratch;
+    }
+
+    /** Забрать из scratch всё, что нарисовано в текущем кадре. */
+    void capture(RenderTarget t) {
+        int[] stamp = t.depthStamp;
+        int[] lineStamp = t.lineStamp;
+        int frame = t.frame;
+        int[] src = (t.getSamples() > 1) ? t.sampleColor : t.pixels;
+
+        int n = 0;
+        for (int i = 0; i < stamp.length; i++) if (stamp[i] == frame || lineStamp[i] == frame) n++;
+        if (index.length < n) {
+            index = new int[n];
+            z = new double[n];
+            color = new int[n];
+            filled = new boolean[n];
+        }
+        int k = 0;
+        for (int i = 0; i < stamp.length; i++) {
+            boolean fill = stamp[i] == frame;
+            if (!fill && lineStamp[i] != frame) continue;
+            index[k] = i;
+            z[k] = fill ? t.depth[i] : t.lineDepth[i];
+            color[k] = src[i];
+            filled[k] = fill;
+            k++;
+        }
+        count = n;
+        built = true;
+    }
+
+    /** Совместить слой с кадром по глубине. */
+    void composite(RenderTarget t) {
+        int s = t.getSamples();
+        int w = t.getWidth();
+        int[] dst = (s > 1) ? t.sampleColor : t.pixels;
+        int[] stamp = t.depthStamp;
+        double[] depth = t.depth;
+        int frame = t.frame;
+
+        for (int k = 0; k < count; k++) {
+            int i = index[k];
+            if (stamp[i] == frame && z[k] >= depth[i]) continue;
+            int p = i / s;
+            t.touch(p % w, p / w);
+            if (filled[k]) {
+                depth[i] = z[k];
+                stamp[i] = frame;
+            }
+            dst[i] = color[k];
+        }
+    }
+
+    private boolean sameKey(int width, int height, int samples, Mat4 view, List<DrawCommand> statics) {
+        if (width != this.width || height != this.height || samples != this.samples) return false;
+        if (!view.epsEquals(this.view, 0.0)) return false;
+        if (statics.size() != this.statics.length) return false;
+        // DrawCommand.sameAs: обычно просто та же ссылка (команда не менялась)
+        for (int i = 0; i < this.statics.length; i++) {
+            if (!statics.get(i).sameAs(this.statics[i])) return false;
+        }
+        return true;
+    }
+
+    private void storeKey(int width, int height, int samples, Mat4 view, List<DrawCommand> statics) {
+        this.width = width;
+        this.height = height;
+        this.samples = samples;
+        this.view = view;
+        this.statics = statics.toArray(new DrawCommand[0]);
+        hasKey = true;
+        built = false;
+    }
+}
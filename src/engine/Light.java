@@ -0,0 +1,151 @@
+package engine;
+
+import math.Vec3;
+
+import java.awt.*;
+
+/**
+ * Источник света в сцене.
+ *
+ * POINT — точечный свет с радиусом влияния (за пределами radius свет не действует вообще,
+ * поэтому его можно привязать только к тем тайлам экрана, куда попадает сфера).
+ * DIRECTIONAL — направленный свет ("солнце"), действует везде.
+ *
+ * Свет меняют из UI-потока, а рендер идёт в своих потоках, поэтому рендеру отдают не сам Light,
+ * а snapshot() — неизменяемую копию на кадр (как RenderSettings.copy()).
+ */
+public final class Light {
+
+    public enum Type { POINT, DIRECTIONAL }
+
+    private final Type type;
+
+    private Vec3 position = new Vec3(0, 0, 0);   // для POINT
+    private Vec3 direction = new Vec3(0, -1, 0); // для DIRECTIONAL: куда светит
+    private Color color = Color.WHITE;
+    private double intensity = 1.0;
+    private double radius = 10.0;                // для POINT
+
+    private boolean castsShadows = false;
+    private int shadowMapSize = 512;
+
+    // растёт при каждом изменении света (для кэша теней)
+    private int version = 0;
+
+    /**
+     * Карта теней. У живого света — кэш между кадрами (строится и проверяется рендерером, возможно
+     * из разных потоков), у снимка — карта, с которой рисуется его кадр.
+     */
+    volatile ShadowMap shadowMap;
+
+    // у снимка: живой свет, с которого он снят (null у самого живого света)
+    private final Light source;
+
+    private Light(Type type) {
+        this.type = type;
+        this.source = null;
+    }
+
+    private Light(Light live) {
+        this.type = live.type;
+        this.source = live;
+        this.position = live.position;
+        this.direction = live.direction;
+        this.color = live.color;
+        this.intensity = live.intensity;
+        this.radius = live.radius;
+        this.castsShadows = live.castsShadows;
+        this.shadowMapSize = live.shadowMapSize;
+        this.version = live.version;
+    }
+
+    /**
+     * Неизменяемая копия для потоков рендера (сеттеры у неё бросают IllegalStateException).
+     * Снимки одного света между кадрами узнаются по origin(), version — как у света в момент снимка.
+     */
+    public Light snapshot() {
+        return new Light(origin());
+    }
+
+    /** Живой свет: сам этот или тот, с которого снят снимок (ключ кэшей теней и истории кадров). */
+    Light origin() {
+        return (source != null) ? source : this;
+    }
+
+    private void checkMutable() {
+        if (source != null) throw new IllegalStateException("light snapshot is immutable");
+    }
+
+    public static Light point(Vec3 position, double radius) {
+        Light l = new Light(Type.POINT);
+        l.setPosition(position);
+        l.setRadius(radius);
+        return l;
+    }
+
+    public static Light directional(Vec3 direction) {
+        Light l = new Light(Type.DIRECTIONAL);
+        l.setDirection(direction);
+        return l;
+    }
+
+    public Type getType() { return type; }
+    public Vec3 getPosition() { return position; }
+    public Vec3 getDirection() { return direction; }
+    public Color getColor() { return color; }
+    public double getIntensity() { return intensity; }
+    public double getRadius() { return radius; }
+    public boolean isCastsShadows() { return castsShadows; }
+    public int getShadowMapSize() { return shadowMapSize; }
+    public int getVersion() { return version; }
+
+    public void setPosition(Vec3 position) {
+        checkMutable();
+        if (position == null) throw new NullPointerException("position must not be null");
+        this.position = position;
+        version++;
+    }
+
+    public void setDirection(Vec3 direction) {
+        checkMutable();
+        if (direction == null) throw new NullPointerException("direction must not be null");
+        Vec3 d = direction.normalized();
+        if (d.lengthSquared() == 0.0) throw new IllegalArgumentException("direction must not be zero");
+        this.direction = d;
+        version++;
+    }
+
+    public void setColor(Color color) {
+        checkMutable();
+        if (color == null) throw new NullPointerException("color must not be null");
+        this.color = color;
+        version++;
+    }
+
+    public void setIntensity(double intensity) {
+        checkMutable();
+        if (intensity < 0.0) throw new IllegalArgumentException("intensity must be >= 0");
+        this.intensity = intensity;
+        version++;
+    }
+
+    public void setRadius(double radius) {
+        checkMutable();
+        if (radius <= 0.0) throw new IllegalArgumentException("radius must be > 0");
+        this.radius = radius;
+        version++;
+    }
+
+    public void setCastsShadows(boolean castsShadows) {
+        checkMutable();
+        this.castsShadows = castsShadows;
+        version++;
+    }
+
+    public void setShadowMapSize(int size) {
+        checkMutable();
+        if (size < 16) throw new IllegalArgumentException("shadow map size must be >= 16");
+        this.shadowMapSize = size;
+        version++;
+    }
+}
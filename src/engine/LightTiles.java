@@ -0,0 +1,184 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+import math.Vec4;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Тайловая раскладка источников света (tiled forward lighting).
+ *
+ * Экран делится на тайлы TILE x TILE пикселей. Каждый точечный свет проецируется
+ * на экран (bounding box его сферы влияния) и записывается только в те тайлы,
+ * которые он задевает. Направленный свет попадает во все тайлы.
+ * Пиксель при шейдинге перебирает только свет своего тайла.
+ *
+ * Списки хранятся "плоско" (как CSR): tileStart[t]..tileStart[t+1] — индексы в tileLights.
+ * Параметры света тоже лежат в плоских массивах, чтобы во внутреннем цикле не было объектов.
+ */
+final class LightTiles {
+
+    static final int TILE_SHIFT = 4;
+    static final int TILE = 1 << TILE_SHIFT;
+
+    final int tilesX;
+    final int tilesY;
+
+    final int[] tileStart;
+    final int[] tileLights;
+
+    // параметры света (по индексу света)
+    final boolean[] directional;
+    final double[] px, py, pz;  // позиция (POINT) или направление НА свет (DIRECTIONAL)
+    final double[] radius2;
+    final double[] invRadius;
+    final double[] cr, cg, cb;  // цвет * intensity, в долях 0..1
+    final ShadowMap[] shadow;   // null — свет без теней
+
+    LightTiles(List<Light> lights, boolean useShadows, Mat4 view, Mat4 proj, double zNear, int width, int height) {
+        tilesX = (width + TILE - 1) >> TILE_SHIFT;
+        tilesY = (height + TILE - 1) >> TILE_SHIFT;
+
+        int n = lights.size();
+        directional = new boolean[n];
+        px = new double[n]; py = new double[n]; pz = new double[n];
+        radius2 = new double[n];
+        invRadius = new double[n];
+        cr = new double[n]; cg = new double[n]; cb = new double[n];
+        shadow = new ShadowMap[n];
+
+        // прямоугольник тайлов для каждого света: [x0, y0, x1, y1], x0 > x1 => свет не виден
+        int[] rect = new int[n * 4];
+        int[] count = new int[tilesX * tilesY];
+
+        for (int i = 0; i < n; i++) {
+            Light l = lights.get(i);
+            Color c = l.getColor();
+            double k = l.getIntensity() / 255.0;
+            cr[i] = c.getRed() * k;
+            cg[i] = c.getGreen() * k;
+            cb[i] = c.getBlue() * k;
+            if (useShadows && l.isCastsShadows()) shadow[i] = l.shadowMap;
+
+            if (l.getType() == Light.Type.DIRECTIONAL) {
+                directional[i] = true;
+                Vec3 toLight = l.getDirection().scale(-1.0);
+                px[i] = toLight.x; py[i] = toLight.y; pz[i] = toLight.z;
+                setRect(rect, i, 0, 0, tilesX - 1, tilesY - 1);
+            } else {
+                Vec3 p = l.getPosition();
+                double r = l.getRadius();
+                px[i] = p.x; py[i] = p.y; pz[i] = p.z;
+                radius2[i] = r * r;
+                invRadius[i] = 1.0 / r;
+                projectSphere(rect, i, view.multiply(Vec4.point(p)), r, proj, zNear, width, height);
+            }
+
+            for (int ty = rect[i * 4 + 1]; ty <= rect[i * 4 + 3]; ty++) {
+                for (int tx = rect[i * 4]; tx <= rect[i * 4 + 2]; tx++) {
+                    count[ty * tilesX + tx]++;
+                }
+            }
+        }
+
+        tileStart = new int[count.length + 1];
+        for (int t = 0; t < count.length; t++) tileStart[t + 1] = tileStart[t] + count[t];
+        tileLights = new int[tileStart[count.length]];
+
+        int[] fill = new int[count.length];
+        System.arraycopy(tileStart, 0, fill, 0, count.length);
+        for (int i = 0; i < n; i++) {
+            for (int ty = rect[i * 4 + 1]; ty <= rect[i * 4 + 3]; ty++) {
+                for (int tx = rect[i * 4]; tx <= rect[i * 4 + 2]; tx++) {
+                    int t = ty * tilesX + tx;
+                    tileLights[fill[t]++] = i;
+                }
+            }
+        }
+    }
+
+    int tileOf(int x, int y) {
+        return (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+    }
+
+    /**
+     * Суммарная освещённость точки p с нормалью n от света тайла (без ambient).
+     * Результат пишется в out[0..2] (r, g, b).
+     */
+    void shade(int tile, double x, double y, double z, double nx, double ny, double nz, double[] out) {
+        double r = 0.0, g = 0.0, b = 0.0;
+        for (int k = tileStart[tile], end = tileStart[tile + 1]; k < end; k++) {
+            int i = tileLights[k];
+            double diff;
+            if (directional[i]) {
+                diff = nx * px[i] + ny * py[i] + nz * pz[i];
+                if (diff <= 0.0) continue;
+            } else {
+                double lx = px[i] - x, ly = py[i] - y, lz = pz[i] - z;
+                double d2 = lx * lx + ly * ly + lz * lz;
+                if (d2 >= radius2[i]) continue;
+                double d = Math.sqrt(d2);
+                double ndl = (nx * lx + ny * ly + nz * lz) / (d > 1e-12 ? d : 1e-12);
+                if (ndl <= 0.0) continue;
+                // плавное затухание до нуля на границе радиуса
+                double f = 1.0 - d * invRadius[i];
+                diff = ndl * f * f;
+            }
+            if (shadow[i] != null) {
+                diff *= shadow[i].visibility(x, y, z, nx, ny, nz, px[i], py[i], pz[i]);
+                if (diff <= 0.0) continue;
+            }
+            r += diff * cr[i];
+            g += diff * cg[i];
+            b += diff * cb[i];
+        }
+        out[0] = r; out[1] = g; out[2] = b;
+    }
+
+    /**
+     * Прямоугольник тайлов, который покрывает сфера (center в view space, камера смотрит в -Z).
+     * Берём 8 углов AABB сферы и проецируем; если сфера пересекает near-плоскость — весь экран.
+     */
+    private void projectSphere(int[] rect, int i, Vec4 c, double r, Mat4 proj, double zNear, int width, int height) {
+        if (c.z - r > -zNear) { // целиком позади камеры
+            setRect(rect, i, 0, 0, -1, -1);
+            return;
+        }
+        if (c.z + r > -zNear) { // пересекает near: проще отдать весь экран
+            setRect(rect, i, 0, 0, tilesX - 1, tilesY - 1);
+            return;
+        }
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < 8; k++) {
+            double vx = c.x + ((k & 1) == 0 ? -r : r);
+            double vy = c.y + ((k & 2) == 0 ? -r : r);
+            double vz = c.z + ((k & 4) == 0 ? -r : r);
+            Vec4 clip = proj.multiply(new Vec4(vx, vy, vz, 1.0));
+            double sx = (clip.x / clip.w + 1.0) * 0.5 * width;
+            double sy = (1.0 - (clip.y / clip.w + 1.0) * 0.5) * height;
+            minX = Math.min(minX, sx); maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy); maxY = Math.max(maxY, sy);
+        }
+
+        if (maxX < 0 || maxY < 0 || minX >= width || minY >= height) {
+            setRect(rect, i, 0, 0, -1, -1);
+            return;
+        }
+        int x0 = Math.max(0, (int) Math.floor(minX)) >> TILE_SHIFT;
+        int y0 = Math.max(0, (int) Math.floor(minY)) >> TILE_SHIFT;
+        int x1 = Math.min(width - 1, (int) Math.ceil(maxX)) >> TILE_SHIFT;
+        int y1 = Math.min(height - 1, (int) Math.ceil(maxY)) >> TILE_SHIFT;
+        setRect(rect, i, x0, y0, x1, y1);
+    }
+
+    private static void setRect(int[] rect, int i, int x0, int y0, int x1, int y1) {
+        rect[i * 4] = x0;
+        rect[i * 4 + 1] = y0;
+        rect[i * 4 + 2] = x1;
+        rect[i * 4 + 3] = y1;
+    }
+}
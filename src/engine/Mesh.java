@@ -5,7 +5,9 @@ import math.Vec2;
 import math.Vec3;
 import math.Vec4;
 
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -17,14 +19,49 @@ import java.util.List;
  * normals: нормали (Vec3) для каждой вершины. Может быть null/пусто, но в проекте мы их пересчитываем.
  *
  * indices: индексы треугольников (каждые 3 числа = один треугольник)
+ *
+ * compact() — сжатая копия для хранения (QuantizedVertices + 16-битные индексы): списки у неё
+ * распаковывают вершины на лету, рендер — блоками на вершинном этапе.
  */
 public final class Mesh {
 
+    // 16-битные индексы у сжатого меша — только если вершин меньше: 0xFFFF индексом не бывает
+    // (в форматах индексов GPU это primitive restart), так что буфер годится как есть
+    static final int SHORT_INDEX_LIMIT = 65536;
+
     private final List<Vec3> positions;
     private final List<Vec2> texCoords;
     private final List<Vec3> normals;
     private final int[] indices;
 
+    // сжатый меш (compact()): атрибуты в quantized (списки выше распаковывают их при get), индексы
+    // при вершинах < SHORT_INDEX_LIMIT — 16 бит в indices16 (тогда indices == null)
+    private final QuantizedVertices quantized;
+    private final short[] indices16;
+    // 16-битные индексы, распакованные в int: рендер берёт их каждый кадр, но при нехватке памяти GC их выкинет
+    private volatile SoftReference<int[]> expandedIndices;
+
+    // Ленивые кэши ниже читают и потоки рендера (пул вершинного этапа, split view, поток геометрии),
+    // поэтому все volatile и каждый публикуется одной записью уже готовым. Посчитать их два раза
+    // в гонке не страшно — результат тот же. CommandList готовит их заранее (prepareForRender).
+
+    // AABB в локальных координатах: {min, max} одним массивом, чтобы min и max появлялись вместе
+    private volatile Vec3[] bounds;
+
+    // уникальные рёбра (пары индексов)
+    private volatile int[] edges;
+
+    // позиции и нормали подряд (x, y, z, x, y, z, ...): вершинный этап рендера идёт по ним без Vec4
+    // на каждую вершину. Общие для всех команд (инстансов) с этим мешем
+    private volatile double[] flatPositions;
+    private volatile double[] flatNormals;
+
+    // кластеры для отсечения на вершинном этапе (Meshlets), считаются лениво
+    private volatile Meshlets meshlets;
+
+    // цепочка упрощённых уровней (MeshLod.buildAsync), null — пока не построена
+    private volatile MeshLod lod;
+
     /** Минимальный конструктор: только позиции и индексы (uv=0,0, normals=0,1,0). */
     public Mesh(List<Vec3> positions, int[] indices) {
         this(positions, createDefaultUVs(positions), createDefaultNormals(positions), indices);
@@ -47,6 +84,8 @@ public final class Mesh {
         this.texCoords = Collections.unmodifiableList(new ArrayList<>(texCoords));
         this.normals = Collections.unmodifiableList(new ArrayList<>(normals));
         this.indices = indices.clone();
+        this.quantized = null;
+        this.indices16 = null;
 
         int n = this.positions.size();
         for (int idx : this.indices) {
@@ -56,6 +95,51 @@ public final class Mesh {
         }
     }
 
+    /** Сжатая копия (compact()): атрибуты и индексы уже проверены исходным мешем. */
+    private Mesh(QuantizedVertices quantized, int[] indices) {
+        this.quantized = quantized;
+        this.positions = quantized.positions();
+        this.texCoords = quantized.texCoords();
+        this.normals = quantized.normals();
+        if (quantized.count < SHORT_INDEX_LIMIT) {
+            this.indices = null;
+            this.indices16 = new short[indices.length];
+            for (int k = 0; k < indices.length; k++) this.indices16[k] = (short) indices[k];
+        } else {
+            this.indices = indices.clone();
+            this.indices16 = null;
+        }
+    }
+
+    /**
+     * Производный меш (transformed / recalculateNormals): меняется только одно — позиции или нормали
+     * (другое null). Всё остальное неизменяемое, его берём у base по ссылке: uv, индексы и рёбра
+     * (рёбра зависят только от индексов), плоский массив неизменённого атрибута. Так bake большого
+     * меша не держит в памяти по две-три копии uv и индексов. Списки changed создали мы сами — без копии.
+     */
+    private Mesh(Mesh base, List<Vec3> changedPositions, List<Vec3> changedNormals) {
+        if (base.quantized != null) {
+            QuantizedVertices q = base.quantized;
+            if (changedPositions != null) q = q.withPositions(changedPositions);
+            if (changedNormals != null) q = q.withNormals(changedNormals);
+            this.quantized = q;
+            this.positions = q.positions();
+            this.texCoords = q.texCoords();
+            this.normals = q.normals();
+        } else {
+            this.quantized = null;
+            this.positions = (changedPositions != null) ? Collections.unmodifiableList(changedPositions) : base.positions;
+            this.texCoords = base.texCoords;
+            this.normals = (changedNormals != null) ? Collections.unmodifiableList(changedNormals) : base.normals;
+            if (changedPositions == null) this.flatPositions = base.flatPositions;
+            if (changedNormals == null) this.flatNormals = base.flatNormals;
+        }
+        this.indices = base.indices;
+        this.indices16 = base.indices16;
+        this.expandedIndices = base.expandedIndices;
+        this.edges = base.edges;
+    }
+
     private static List<Vec2> createDefaultUVs(List<Vec3> positions) {
         List<Vec2> uv = new ArrayList<>(positions.size());
         for (int i = 0; i < positions.size(); i++) uv.add(new Vec2(0.0, 0.0));
@@ -77,20 +161,197 @@ public final class Mesh {
     public List<Vec3> getNormals() { return normals; }
 
     public int[] getIndices() {
-        return indices.clone();
+        return indices().clone();
+    }
+
+    /**
+     * Сжатая копия для хранения в памяти: позиции — 16 бит на ось внутри AABB (точность 1/65535
+     * размера модели), нормали — octahedral 2 x 16 бит, uv — 16 бит, индексы — 16 бит, если вершин
+     * меньше 65536. Примерно 26 байт на вершину вместо ~200. Рендер распаковывает на лету;
+     * transformed/recalculateNormals и уровни LOD сжатого меша тоже сжатые. У сжатого меша — он сам.
+     */
+    public Mesh compact() {
+        if (quantized != null) return this;
+        return new Mesh(QuantizedVertices.encode(positions, texCoords, normals), indices);
+    }
+
+    public boolean isCompact() {
+        return quantized != null;
+    }
+
+    /** Хранятся ли индексы в 16 битах (только у сжатого меша с числом вершин меньше SHORT_INDEX_LIMIT). */
+    boolean hasShortIndices() {
+        return indices16 != null;
+    }
+
+    /** Сам массив индексов, без копии (для рендера: на каждый инстанс в каждом кадре копия — лишняя). Не менять. */
+    int[] indices() {
+        if (indices != null) return indices;
+        SoftReference<int[]> ref = expandedIndices;
+        int[] r = (ref != null) ? ref.get() : null;
+        if (r == null) {
+            r = new int[indices16.length];
+            for (int k = 0; k < r.length; k++) r[k] = indices16[k] & 0xFFFF;
+            expandedIndices = new SoftReference<>(r);
+        }
+        return r;
+    }
+
+    /** Атрибуты сжатого меша или null (тогда у меша обычные списки и плоские массивы). */
+    QuantizedVertices quantized() {
+        return quantized;
+    }
+
+    /** У сжатого меша — свежая распаковка на каждый вызов (не кэшируется, рендер её не использует). */
+    double[] flatPositions() {
+        if (quantized != null) return quantized.flatPositions();
+        double[] r = flatPositions;
+        if (r == null) {
+            r = flatten(positions);
+            flatPositions = r;
+        }
+        return r;
+    }
+
+    double[] flatNormals() {
+        if (quantized != null) return quantized.flatNormals();
+        double[] r = flatNormals;
+        if (r == null) {
+            r = flatten(normals);
+            flatNormals = r;
+        }
+        return r;
+    }
+
+    Meshlets meshlets() {
+        Meshlets m = meshlets;
+        if (m == null) {
+            m = Meshlets.build(this);
+            meshlets = m;
+        }
+        return m;
+    }
+
+    private static double[] flatten(List<Vec3> list) {
+        double[] r = new double[list.size() * 3];
+        for (int i = 0; i < list.size(); i++) {
+            Vec3 v = list.get(i);
+            r[i * 3] = v.x;
+            r[i * 3 + 1] = v.y;
+            r[i * 3 + 2] = v.z;
+        }
+        return r;
+    }
+
+    /**
+     * Посчитать заранее всё ленивое, что нужно рендеру (рёбра, bounds, плоские массивы, кластеры).
+     * CommandList зовёт это при записи команды, до того как меш увидят потоки рендера; если меш
+     * попал к ним иначе, кэши всё равно безопасны (volatile, см. поля).
+     */
+    void prepareForRender() {
+        getEdges();
+        getBoundsMin();
+        if (quantized == null) {
+            flatPositions();
+            flatNormals();
+        }
+        meshlets();
+    }
+
+    /** Уровни детализации меша или null, если их не строили (тогда рендер всегда рисует сам меш). */
+    public MeshLod getLod() {
+        return lod;
+    }
+
+    /** Прицепить цепочку LOD; меняется только один раз (у команд рендера кэш мировых вершин по уровням). */
+    synchronized void setLod(MeshLod lod) {
+        if (this.lod == null) this.lod = lod;
     }
 
     public int triangleCount() {
-        return indices.length / 3;
+        return ((indices != null) ? indices.length : indices16.length) / 3;
     }
 
     public int vertexCount() {
         return positions.size();
     }
 
+    /**
+     * Уникальные рёбра сетки: пары индексов (a, b), a < b, каждое ребро ровно один раз
+     * (общее ребро двух треугольников не дублируется). Нужны для wireframe.
+     * Массив общий — не менять.
+     */
+    public int[] getEdges() {
+        int[] e = edges;
+        if (e == null) {
+            e = computeEdges(indices());
+            edges = e;
+        }
+        return e;
+    }
+
+    private static int[] computeEdges(int[] indices) {
+        // ребро кодируем в long (min << 32 | max), сортируем и выкидываем повторы
+        long[] keys = new long[indices.length];
+        for (int t = 0; t < indices.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                int a = indices[t + k];
+                int b = indices[t + (k + 1) % 3];
+                int lo = Math.min(a, b), hi = Math.max(a, b);
+                keys[t + k] = ((long) lo << 32) | hi;
+            }
+        }
+        Arrays.sort(keys);
+
+        int unique = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) keys[unique++] = keys[i];
+        }
+        int[] out = new int[unique * 2];
+        for (int i = 0; i < unique; i++) {
+            out[i * 2] = (int) (keys[i] >>> 32);
+            out[i * 2 + 1] = (int) keys[i];
+        }
+        return out;
+    }
+
+    /** Минимальный угол AABB в локальных координатах. */
+    public Vec3 getBoundsMin() {
+        return bounds()[0];
+    }
+
+    /** Максимальный угол AABB в локальных координатах. */
+    public Vec3 getBoundsMax() {
+        return bounds()[1];
+    }
+
+    private Vec3[] bounds() {
+        Vec3[] b = bounds;
+        if (b == null) {
+            b = computeBounds();
+            bounds = b;
+        }
+        return b;
+    }
+
+    private Vec3[] computeBounds() {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (Vec3 p : positions) {
+            if (p.x < minX) minX = p.x;
+            if (p.y < minY) minY = p.y;
+            if (p.z < minZ) minZ = p.z;
+            if (p.x > maxX) maxX = p.x;
+            if (p.y > maxY) maxY = p.y;
+            if (p.z > maxZ) maxZ = p.z;
+        }
+        return new Vec3[]{new Vec3(minX, minY, minZ), new Vec3(maxX, maxY, maxZ)};
+    }
+
     /**
      * Возвращает новый Mesh, где позиции вершин преобразованы матрицей transform.
-     * uv и нормали при этом сохраняются (нормали можно пересчитать отдельно).
+     * uv и нормали при этом сохраняются (нормали можно пересчитать отдельно) — вместе с индексами
+     * они общие с этим мешем, не копируются.
      *
      * Конвенция: column-vector, т.е. v' = M * v.
      */
@@ -112,17 +373,21 @@ public final class Mesh {
 
         // Нормали при bake'е трансформации правильнее пересчитать, но
         // на нашем уровне можно оставить как есть.
-        return new Mesh(outPos, texCoords, normals, indices);
+        return new Mesh(this, outPos, null);
     }
 
-    /** Пересчитать нормали (сглаженные): суммируем нормали треугольников к вершинам и нормализуем. */
+    /**
+     * Пересчитать нормали (сглаженные): суммируем нормали треугольников к вершинам и нормализуем.
+     * Позиции, uv и индексы у нового меша общие с этим.
+     */
     public Mesh recalculateNormals() {
+        int[] idx = indices();
         int n = positions.size();
         Vec3[] acc = new Vec3[n];
         for (int i = 0; i < n; i++) acc[i] = new Vec3(0, 0, 0);
 
-        for (int i = 0; i < indices.length; i += 3) {
-            int ia = indices[i], ib = indices[i + 1], ic = indices[i + 2];
+        for (int i = 0; i < idx.length; i += 3) {
+            int ia = idx[i], ib = idx[i + 1], ic = idx[i + 2];
             Vec3 a = positions.get(ia);
             Vec3 b = positions.get(ib);
             Vec3 c = positions.get(ic);
@@ -142,6 +407,6 @@ public final class Mesh {
             if (len < 1e-12) outN.add(new Vec3(0, 1, 0));
             else outN.add(nn.scale(1.0 / len));
         }
-        return new Mesh(positions, texCoords, outN, indices);
+        return new Mesh(this, null, outN);
     }
 }
@@ -0,0 +1,261 @@
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Чистка меша после импорта (сканы обычно несут много лишнего):
+ *  1) склейка вершин (weld): позиции ближе tolerance и одинаковые UV — одна вершина
+ *     (spatial hash с клеткой tolerance, сравниваем с соседними клетками);
+ *  2) удаление вырожденных треугольников (две одинаковые вершины или нулевая площадь);
+ *  3) удаление дублей — тот же треугольник с тем же обходом (с обратным обходом это другая сторона, остаётся);
+ *  4) удаление вершин, на которые никто не ссылается (порядок остальных не меняется).
+ *
+ * Геометрия на экране та же, нормали пересчитываются. Что сэкономили — в Report.
+ */
+public final class MeshCleanup {
+
+    // допуск склейки по умолчанию: доля диагонали bounds
+    private static final double DEFAULT_RELATIVE_TOLERANCE = 1e-6;
+    // UV сравниваем почти точно: шов текстуры склеивать нельзя
+    private static final double UV_TOLERANCE = 1e-9;
+    // "нулевая площадь": |cross| меньше этой доли квадрата самого длинного ребра (точки на одной прямой)
+    private static final double DEGENERATE_EPS = 1e-12;
+
+    // грубая оценка памяти Mesh на вершину: Vec3 позиции и нормали, Vec2 uv (объекты + ссылки)
+    // и плоские double-массивы позиций и нормалей для рендера; на треугольник — три int
+    private static final long BYTES_PER_VERTEX = 40 + 32 + 40 + 3 * 4 + 2 * 24;
+    private static final long BYTES_PER_TRIANGLE = 3 * 4;
+
+    /** Что сделала чистка. */
+    public static final class Report {
+        public final int verticesBefore, verticesAfter;
+        public final int trianglesBefore, trianglesAfter;
+        public final int weldedVertices;
+        public final int degenerateTriangles;
+        public final int duplicateTriangles;
+        public final int unusedVertices;
+
+        Report(int verticesBefore, int verticesAfter, int trianglesBefore, int trianglesAfter,
+               int weldedVertices, int degenerateTriangles, int duplicateTriangles, int unusedVertices) {
+            this.verticesBefore = verticesBefore;
+            this.verticesAfter = verticesAfter;
+            this.trianglesBefore = trianglesBefore;
+            this.trianglesAfter = trianglesAfter;
+            this.weldedVertices = weldedVertices;
+            this.degenerateTriangles = degenerateTriangles;
+            this.duplicateTriangles = duplicateTriangles;
+            this.unusedVertices = unusedVertices;
+        }
+
+        public long bytesBefore() {
+            return verticesBefore * BYTES_PER_VERTEX + trianglesBefore * BYTES_PER_TRIANGLE;
+        }
+
+        public long bytesAfter() {
+            return verticesAfter * BYTES_PER_VERTEX + trianglesAfter * BYTES_PER_TRIANGLE;
+        }
+
+        public boolean changed() {
+            return verticesAfter != verticesBefore || trianglesAfter != trianglesBefore;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("verts %d -> %d (welded %d, unused %d), tris %d -> %d (degenerate %d, duplicate %d), ~%.1f MB saved",
+                    verticesBefore, verticesAfter, weldedVertices, unusedVertices,
+                    trianglesBefore, trianglesAfter, degenerateTriangles, duplicateTriangles,
+                    (bytesBefore() - bytesAfter()) / (1024.0 * 1024.0));
+        }
+    }
+
+    /** Результат: чистый меш (или тот же, если чистить было нечего) и отчёт. */
+    public static final class Result {
+        public final Mesh mesh;
+        public final Report report;
+
+        Result(Mesh mesh, Report report) {
+            this.mesh = mesh;
+            this.report = report;
+        }
+    }
+
+    private MeshCleanup() {}
+
+    /** С допуском склейки по умолчанию (миллионная доля размера модели). */
+    public static Result clean(Mesh mesh) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        double diag = mesh.getBoundsMax().sub(mesh.getBoundsMin()).length();
+        return clean(mesh, diag * DEFAULT_RELATIVE_TOLERANCE);
+    }
+
+    public static Result clean(Mesh mesh, double tolerance) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        if (!(tolerance >= 0.0)) throw new IllegalArgumentException("tolerance must be >= 0");
+
+        int n = mesh.vertexCount();
+        int[] idx = mesh.indices();
+        List<Vec3> pos = mesh.getPositions();
+        List<Vec2> uv = mesh.getTexCoords();
+
+        // 1) склейка: remap[v] — вершина, в которую склеили v
+        int[] remap = weld(pos, uv, tolerance);
+        int welded = 0;
+        for (int v = 0; v < n; v++) if (remap[v] != v) welded++;
+
+        // 2) вырожденные и 3) дубли
+        int[] kept = new int[idx.length];
+        int count = 0;
+        int degenerate = 0, duplicate = 0;
+        TriangleSet seen = new TriangleSet(idx.length / 3);
+        for (int t = 0; t < idx.length; t += 3) {
+            int a = remap[idx[t]], b = remap[idx[t + 1]], c = remap[idx[t + 2]];
+            if (a == b || b == c || a == c || zeroArea(pos.get(a), pos.get(b), pos.get(c))) {
+                degenerate++;
+                continue;
+            }
+            kept[count] = a;
+            kept[count + 1] = b;
+            kept[count + 2] = c;
+            if (!seen.add(kept, count)) {
+                duplicate++;
+                continue;
+            }
+            count += 3;
+        }
+
+        // 4) выкинуть вершины без треугольников (склеенные в том числе), порядок остальных тот же
+        boolean[] used = new boolean[n];
+        for (int k = 0; k < count; k++) used[kept[k]] = true;
+        int[] compact = new int[n];
+        List<Vec3> outPos = new ArrayList<>();
+        List<Vec2> outUv = new ArrayList<>();
+        List<Vec3> outNrm = new ArrayList<>();
+        List<Vec3> nrm = mesh.getNormals();
+        for (int v = 0; v < n; v++) {
+            if (!used[v]) {
+                compact[v] = -1;
+                continue;
+            }
+            compact[v] = outPos.size();
+            outPos.add(pos.get(v));
+            outUv.add(uv.get(v));
+            outNrm.add(nrm.get(v));
+        }
+        int unused = n - welded - outPos.size();
+
+        Report report = new Report(n, outPos.size(), idx.length / 3, count / 3, welded, degenerate, duplicate, unused);
+        if (!report.changed()) return new Result(mesh, report);
+        if (outPos.isEmpty()) throw new IllegalArgumentException("mesh has no non-degenerate triangles");
+
+        int[] outIdx = new int[count];
+        for (int k = 0; k < count; k++) outIdx[k] = compact[kept[k]];
+        return new Result(new Mesh(outPos, outUv, outNrm, outIdx).recalculateNormals(), report);
+    }
+
+    // ---------- склейка ----------
+
+    private static int[] weld(List<Vec3> pos, List<Vec2> uv, double tolerance) {
+        int n = pos.size();
+        int[] remap = new int[n];
+        // клетка tolerance (при нулевом допуске — совпадение координат, клетка любая)
+        double cell = (tolerance > 0.0) ? tolerance : 1.0;
+        double tol2 = tolerance * tolerance;
+
+        // клетка -> первая вершина-представитель в ней, дальше цепочка через nextInCell
+        Map<Long, Integer> head = new HashMap<>();
+        int[] nextInCell = new int[n];
+
+        for (int v = 0; v < n; v++) {
+            Vec3 p = pos.get(v);
+            long cx = (long) Math.floor(p.x / cell), cy = (long) Math.floor(p.y / cell), cz = (long) Math.floor(p.z / cell);
+
+            int found = -1;
+            for (int dz = -1; dz <= 1 && found < 0; dz++) {
+                for (int dy = -1; dy <= 1 && found < 0; dy++) {
+                    for (int dx = -1; dx <= 1 && found < 0; dx++) {
+                        Integer h = head.get(cellKey(cx + dx, cy + dy, cz + dz));
+                        for (int r = (h == null) ? -1 : h; r >= 0; r = nextInCell[r]) {
+                            if (close(pos.get(r), p, tol2) && sameUv(uv.get(r), uv.get(v))) {
+                                found = r;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            if (found >= 0) {
+                remap[v] = found;
+                continue;
+            }
+            remap[v] = v;
+            Long key = cellKey(cx, cy, cz);
+            Integer h = head.get(key);
+            nextInCell[v] = (h == null) ? -1 : h;
+            head.put(key, v);
+        }
+        return remap;
+    }
+
+    private static long cellKey(long x, long y, long z) {
+        // 21 бит на ось (с переполнением — просто коллизия клеток, сравнение всё равно по расстоянию)
+        return ((x & 0x1FFFFF) << 42) | ((y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+
+    private static boolean close(Vec3 a, Vec3 b, double tol2) {
+        double dx = a.x - b.x, dy = a.y - b.y, dz = a.z - b.z;
+        return dx * dx + dy * dy + dz * dz <= tol2;
+    }
+
+    private static boolean sameUv(Vec2 a, Vec2 b) {
+        return Math.abs(a.x - b.x) <= UV_TOLERANCE && Math.abs(a.y - b.y) <= UV_TOLERANCE;
+    }
+
+    private static boolean zeroArea(Vec3 a, Vec3 b, Vec3 c) {
+        Vec3 e1 = b.sub(a), e2 = c.sub(a), e3 = c.sub(b);
+        double longest = Math.max(e1.dot(e1), Math.max(e2.dot(e2), e3.dot(e3)));
+        return e1.cross(e2).length() <= DEGENERATE_EPS * longest;
+    }
+
+    // ---------- дубли ----------
+
+    /** Множество треугольников (без учёта сдвига по кругу, с учётом обхода) на открытой адресации. */
+    private static final class TriangleSet {
+        private final int[] a, b, c;
+        private final boolean[] used;
+        private final int mask;
+
+        TriangleSet(int expected) {
+            int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+            a = new int[cap];
+            b = new int[cap];
+            c = new int[cap];
+            used = new boolean[cap];
+            mask = cap - 1;
+        }
+
+        /** Добавить треугольник tri[off..off+2]; false — такой уже был. */
+        boolean add(int[] tri, int off) {
+            // канонический вид: минимальная вершина первой, обход тот же
+            int x = tri[off], y = tri[off + 1], z = tri[off + 2];
+            if (y < x && y < z) { int t = x; x = y; y = z; z = t; }
+            else if (z < x && z < y) { int t = z; z = y; y = x; x = t; }
+
+            int h = (x * 0x9E3779B1 + y * 0x85EBCA6B + z * 0xC2B2AE35) & mask;
+            while (used[h]) {
+                if (a[h] == x && b[h] == y && c[h] == z) return false;
+                h = (h + 1) & mask;
+            }
+            used[h] = true;
+            a[h] = x;
+            b[h] = y;
+            c[h] = z;
+            return true;
+        }
+    }
+}
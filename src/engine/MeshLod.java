@@ -0,0 +1,113 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Цепочка уровней детализации (LOD) меша: уровень 0 — сам меш, каждый следующий примерно вдвое
+ * грубее (MeshSimplifier). У уровня есть ошибка — насколько (в единицах модели) его поверхность
+ * может отличаться от исходной; ошибки копятся от уровня к уровню.
+ *
+ * Рендер выбирает уровень для каждого инстанса отдельно (select): самый грубый, у которого ошибка
+ * на экране не больше MAX_SCREEN_ERROR пикселей. Скан на 10M треугольников размером в пару сотен
+ * пикселей так рисуется десятками тысяч треугольников, а вблизи — полностью.
+ *
+ * Цепочка неизменяемая, её можно читать из любых потоков. К мешу она цепляется один раз (buildAsync).
+ */
+public final class MeshLod {
+
+    /** Ошибка уровня на экране, в пикселях, которую ещё не видно. */
+    public static final double MAX_SCREEN_ERROR = 1.0;
+
+    // дальше упрощать смысла нет: мелкие меши и так дешёвые
+    private static final int MIN_TRIANGLES = 64;
+    private static final int MAX_LEVELS = 8;
+    // уровень, который сократил меньше 10% треугольников, не нужен (упрощать уже некуда)
+    private static final double MIN_REDUCTION = 0.9;
+    // ошибка одного шага не больше этой доли диагонали bounds: грубее меш уже не похож на себя
+    private static final double MAX_RELATIVE_ERROR = 0.05;
+
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "lod-builder");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /** Один уровень: меш и его накопленная ошибка (0 у исходного). */
+    public static final class Level {
+        public final Mesh mesh;
+        public final double error;
+
+        Level(Mesh mesh, double error) {
+            this.mesh = mesh;
+            this.error = error;
+        }
+    }
+
+    private final Level[] levels;
+
+    private MeshLod(List<Level> levels) {
+        this.levels = levels.toArray(new Level[0]);
+    }
+
+    /** Построить цепочку для mesh (долго на больших мешах — см. buildAsync). */
+    public static MeshLod build(Mesh mesh) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        List<Level> levels = new ArrayList<>();
+        levels.add(new Level(mesh, 0.0));
+
+        double maxError = mesh.getBoundsMax().sub(mesh.getBoundsMin()).length() * MAX_RELATIVE_ERROR;
+        Mesh prev = mesh;
+        double error = 0.0;
+        while (levels.size() < MAX_LEVELS && prev.triangleCount() / 2 >= MIN_TRIANGLES) {
+            MeshSimplifier.Result r = MeshSimplifier.simplify(prev, prev.triangleCount() / 2, maxError);
+            if (r.mesh.triangleCount() > prev.triangleCount() * MIN_REDUCTION) break;
+            error += r.error;
+            Mesh level = mesh.isCompact() ? r.mesh.compact() : r.mesh; // сжатый меш — сжатые и уровни
+            level.prepareForRender(); // пока мы в фоне: потоку рендера останется только читать
+            levels.add(new Level(level, error));
+            prev = level;
+        }
+        return new MeshLod(levels);
+    }
+
+    /**
+     * Построить цепочку в фоновом потоке и прицепить к мешу (после этого рендер начнёт выбирать уровни).
+     * Если у меша цепочка уже есть — сразу она.
+     */
+    public static CompletableFuture<MeshLod> buildAsync(Mesh mesh) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        MeshLod existing = mesh.getLod();
+        if (existing != null) return CompletableFuture.completedFuture(existing);
+        return CompletableFuture.supplyAsync(() -> {
+            MeshLod lod = build(mesh);
+            mesh.setLod(lod);
+            return mesh.getLod();
+        }, BUILDER);
+    }
+
+    public int levelCount() {
+        return levels.length;
+    }
+
+    public Level level(int i) {
+        return levels[i];
+    }
+
+    /**
+     * Уровень для инстанса, у которого единица модели занимает на экране pixelsPerUnit пикселей
+     * (в самой ближней к камере точке): самый грубый, чья ошибка не больше MAX_SCREEN_ERROR.
+     */
+    public int select(double pixelsPerUnit) {
+        int best = 0;
+        for (int i = 1; i < levels.length; i++) {
+            if (levels[i].error * pixelsPerUnit > MAX_SCREEN_ERROR) break;
+            best = i;
+        }
+        return best;
+    }
+}
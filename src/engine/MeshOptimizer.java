@@ -0,0 +1,205 @@
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Переупорядочивание меша для локальности доступа к памяти (геометрия не меняется).
+ *
+ * 1) Порядок треугольников — по Tom Forsyth ("Linear-Speed Vertex Cache Optimisation"): моделируем
+ *    LRU-кэш вершин и каждый раз берём треугольник с максимальным score — у которого вершины недавно
+ *    использовались (в кэше) и у которых осталось мало ещё не выданных треугольников. Соседние
+ *    треугольники так идут подряд, а вершина переиспользуется, пока она "горячая".
+ * 2) Порядок вершин — в порядке первого использования в новых индексах (vertex fetch): позиции,
+ *    uv и нормали читаются почти подряд, и при рендере, и в recalculateNormals.
+ *
+ * ObjLoader делает это при импорте; для сгенерированных мешей — optimize(mesh) вручную.
+ */
+public final class MeshOptimizer {
+
+    // параметры из статьи Forsyth
+    private static final int CACHE_SIZE = 32;
+    private static final double CACHE_DECAY_POWER = 1.5;
+    private static final double LAST_TRIANGLE_SCORE = 0.75;
+    private static final double VALENCE_BOOST_SCALE = 2.0;
+    private static final double VALENCE_BOOST_POWER = 0.5;
+
+    // score считается ~35 раз на треугольник — степени берём из таблиц
+    private static final int VALENCE_TABLE = 64;
+    private static final double[] CACHE_SCORE = new double[CACHE_SIZE];
+    private static final double[] VALENCE_SCORE = new double[VALENCE_TABLE];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            // только что использованный треугольник: фиксированный score, чтобы не лепить полосы
+            CACHE_SCORE[i] = (i < 3) ? LAST_TRIANGLE_SCORE
+                    : Math.pow(1.0 - (i - 3) / (double) (CACHE_SIZE - 3), CACHE_DECAY_POWER);
+        }
+        for (int i = 1; i < VALENCE_TABLE; i++) VALENCE_SCORE[i] = VALENCE_BOOST_SCALE * Math.pow(i, -VALENCE_BOOST_POWER);
+    }
+
+    private MeshOptimizer() {}
+
+    /** Оба прохода: порядок треугольников под кэш вершин, потом порядок вершин под него. */
+    public static Mesh optimize(Mesh mesh) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        int[] order = vertexCacheOrder(mesh.indices(), mesh.vertexCount());
+        return reorderVertices(mesh, order);
+    }
+
+    /** Только порядок треугольников (вершины на своих местах). */
+    public static Mesh optimizeVertexCache(Mesh mesh) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        int[] order = vertexCacheOrder(mesh.indices(), mesh.vertexCount());
+        return new Mesh(mesh.getPositions(), mesh.getTexCoords(), mesh.getNormals(), order);
+    }
+
+    // ---------- порядок треугольников ----------
+
+    static int[] vertexCacheOrder(int[] idx, int vertexCount) {
+        int triangles = idx.length / 3;
+        if (triangles == 0) return idx.clone();
+
+        // вершина -> её ещё не выданные треугольники: live[start[v] .. start[v] + remaining[v])
+        int[] start = new int[vertexCount + 1];
+        for (int i : idx) start[i + 1]++;
+        for (int v = 0; v < vertexCount; v++) start[v + 1] += start[v];
+        int[] remaining = new int[vertexCount];
+        int[] live = new int[idx.length];
+        for (int k = 0; k < idx.length; k++) {
+            int v = idx[k];
+            live[start[v] + remaining[v]++] = k / 3;
+        }
+
+        int[] cachePos = new int[vertexCount];
+        Arrays.fill(cachePos, -1);
+        double[] vertexScore = new double[vertexCount];
+        for (int v = 0; v < vertexCount; v++) vertexScore[v] = score(-1, remaining[v]);
+
+        double[] triScore = new double[triangles];
+        for (int t = 0; t < triangles; t++) {
+            triScore[t] = vertexScore[idx[t * 3]] + vertexScore[idx[t * 3 + 1]] + vertexScore[idx[t * 3 + 2]];
+        }
+        boolean[] emitted = new boolean[triangles];
+
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] next = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+
+        int[] out = new int[idx.length];
+        int written = 0;
+        int cursor = 0; // для случая, когда в кэше нет кандидатов: следующий невыданный по порядку
+        int best = bestInitial(triScore);
+
+        while (best >= 0) {
+            emitted[best] = true;
+            for (int j = 0; j < 3; j++) {
+                int v = idx[best * 3 + j];
+                out[written++] = v;
+                // убрать треугольник из живых у вершины
+                int s = start[v], e = s + remaining[v];
+                for (int k = s; k < e; k++) {
+                    if (live[k] == best) {
+                        live[k] = live[e - 1];
+                        remaining[v]--;
+                        break;
+                    }
+                }
+            }
+
+            // новый кэш: вершины треугольника спереди, дальше старый кэш без них
+            int n = 0;
+            for (int j = 0; j < 3; j++) {
+                int v = idx[best * 3 + j];
+                boolean dup = false;
+                for (int k = 0; k < n; k++) dup |= next[k] == v;
+                if (!dup) next[n++] = v;
+            }
+            for (int k = 0; k < cacheCount; k++) {
+                int v = cache[k];
+                if (v != idx[best * 3] && v != idx[best * 3 + 1] && v != idx[best * 3 + 2]) next[n++] = v;
+            }
+
+            // пересчитать score вершин в кэше (и выпавших из него) и их треугольников, заодно выбрать лучший
+            for (int k = 0; k < n; k++) {
+                int v = next[k];
+                cachePos[v] = (k < CACHE_SIZE) ? k : -1;
+                vertexScore[v] = score(cachePos[v], remaining[v]);
+            }
+            best = -1;
+            double bestScore = -1.0;
+            for (int k = 0; k < n; k++) {
+                int v = next[k];
+                for (int i = start[v], e = start[v] + remaining[v]; i < e; i++) {
+                    int t = live[i];
+                    double sc = vertexScore[idx[t * 3]] + vertexScore[idx[t * 3 + 1]] + vertexScore[idx[t * 3 + 2]];
+                    triScore[t] = sc;
+                    if (sc > bestScore) {
+                        bestScore = sc;
+                        best = t;
+                    }
+                }
+            }
+
+            cacheCount = Math.min(n, CACHE_SIZE);
+            int[] tmp = cache;
+            cache = next;
+            next = tmp;
+
+            if (best < 0) {
+                // кэш "остыл" (кусок сетки кончился) — берём первый невыданный
+                while (cursor < triangles && emitted[cursor]) cursor++;
+                best = (cursor < triangles) ? cursor : -1;
+            }
+        }
+        return out;
+    }
+
+    private static int bestInitial(double[] triScore) {
+        int best = 0;
+        for (int t = 1; t < triScore.length; t++) if (triScore[t] > triScore[best]) best = t;
+        return best;
+    }
+
+    /** Score вершины: чем свежее в кэше и чем меньше у неё осталось треугольников, тем выше. */
+    private static double score(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) return -1.0; // вершина больше не нужна
+
+        double s = (cachePosition >= 0) ? CACHE_SCORE[cachePosition] : 0.0;
+        // бонус вершинам, у которых мало осталось: доделываем их, а не оставляем одиночные треугольники
+        s += (remainingTriangles < VALENCE_TABLE) ? VALENCE_SCORE[remainingTriangles]
+                : VALENCE_BOOST_SCALE * Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+        return s;
+    }
+
+    // ---------- порядок вершин ----------
+
+    /** Вершины в порядке первого использования в indices (неиспользуемые — в конец, в старом порядке). */
+    private static Mesh reorderVertices(Mesh mesh, int[] indices) {
+        int n = mesh.vertexCount();
+        int[] remap = new int[n];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int v : indices) if (remap[v] < 0) remap[v] = next++;
+        for (int v = 0; v < n; v++) if (remap[v] < 0) remap[v] = next++;
+
+        Vec3[] pos = new Vec3[n];
+        Vec2[] uv = new Vec2[n];
+        Vec3[] nrm = new Vec3[n];
+        List<Vec3> srcPos = mesh.getPositions();
+        List<Vec2> srcUv = mesh.getTexCoords();
+        List<Vec3> srcNrm = mesh.getNormals();
+        for (int v = 0; v < n; v++) {
+            pos[remap[v]] = srcPos.get(v);
+            uv[remap[v]] = srcUv.get(v);
+            nrm[remap[v]] = srcNrm.get(v);
+        }
+        int[] out = new int[indices.length];
+        for (int k = 0; k < indices.length; k++) out[k] = remap[indices[k]];
+
+        return new Mesh(Arrays.asList(pos), Arrays.asList(uv), Arrays.asList(nrm), out);
+    }
+}
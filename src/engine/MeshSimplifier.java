@@ -0,0 +1,452 @@
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Упрощение сетки по quadric error metrics (Garland–Heckbert): рёбра схлопываются в одну вершину,
+ * у каждой вершины копится квадрика — сумма квадратов расстояний до плоскостей её треугольников,
+ * и ошибка схлопывания = значение суммарной квадрики в новой точке.
+ *
+ * Вместо очереди с приоритетом (на 10M треугольников слишком медленно) — проходы с растущим порогом:
+ * за проход схлопываются все рёбра с ошибкой меньше порога (как в "Fast Quadric Mesh Simplification"
+ * Sven Forstmann). Каждый проход линейный, их обычно несколько десятков.
+ *
+ * Граница сетки (рёбра с одним треугольником, в том числе швы UV) сохраняется: граничная вершина
+ * схлопывается только с граничной, а к квадрикам граничных рёбер добавлены "штрафные" плоскости,
+ * перпендикулярные треугольнику (как у Garland–Heckbert), — так край может сокращаться вдоль себя,
+ * но не съезжать внутрь. UV берутся у оставшейся вершины, нормали пересчитываются.
+ */
+public final class MeshSimplifier {
+
+    // порог ошибки на проходе: THRESHOLD_SCALE * (проход + 3)^AGGRESSIVENESS
+    private static final double THRESHOLD_SCALE = 1e-9;
+    private static final double AGGRESSIVENESS = 7.0;
+    private static final int MAX_ITERATIONS = 100;
+    // вес штрафных плоскостей граничных рёбер
+    private static final double BORDER_WEIGHT = 10.0;
+
+    /** Упрощённая сетка и её ошибка: примерно на сколько (в единицах модели) поверхность могла сдвинуться. */
+    public static final class Result {
+        public final Mesh mesh;
+        public final double error;
+
+        Result(Mesh mesh, double error) {
+            this.mesh = mesh;
+            this.error = error;
+        }
+    }
+
+    private MeshSimplifier() {}
+
+    /** Упростить до (примерно) targetTriangles треугольников. Если меньше уже не получается — остановится раньше. */
+    public static Result simplify(Mesh mesh, int targetTriangles) {
+        return simplify(mesh, targetTriangles, Double.POSITIVE_INFINITY);
+    }
+
+    /** То же, но не делать схлопываний с ошибкой больше maxError (тогда треугольников может остаться больше). */
+    public static Result simplify(Mesh mesh, int targetTriangles, double maxError) {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        if (targetTriangles < 1) throw new IllegalArgumentException("targetTriangles must be >= 1");
+        if (!(maxError >= 0.0)) throw new IllegalArgumentException("maxError must be >= 0");
+        if (mesh.triangleCount() <= targetTriangles) return new Result(mesh, 0.0);
+        return new State(mesh).run(targetTriangles, maxError * maxError);
+    }
+
+    /** Всё состояние одного упрощения (массивы вместо объектов — на миллионах треугольников это важно). */
+    private static final class State {
+        final Mesh source;
+
+        // вершины
+        int vertexCount;
+        final double[] pos;   // x, y, z
+        final double[] q;     // 10 коэффициентов симметричной квадрики на вершину
+        final boolean[] border;
+        final int[] tstart, tcount; // треугольники вершины: refs[tstart .. tstart+tcount)
+
+        // треугольники
+        int triCount;
+        int[] tv;          // 3 вершины
+        double[] terr;     // ошибки 3 рёбер + минимальная
+        double[] tn;       // нормаль
+        boolean[] tdeleted, tdirty;
+
+        // ссылки вершина -> треугольник: номер треугольника и какая это у него вершина (0..2)
+        int[] refTri = new int[0];
+        int[] refVert = new int[0];
+        int refCount;
+
+        double maxError = 0.0;
+
+        State(Mesh mesh) {
+            this.source = mesh;
+            double[] p = mesh.flatPositions();
+            vertexCount = p.length / 3;
+            pos = p.clone();
+            q = new double[vertexCount * 10];
+            border = new boolean[vertexCount];
+            tstart = new int[vertexCount];
+            tcount = new int[vertexCount];
+
+            int[] idx = mesh.indices();
+            triCount = idx.length / 3;
+            tv = idx.clone();
+            terr = new double[triCount * 4];
+            tn = new double[triCount * 3];
+            tdeleted = new boolean[triCount];
+            tdirty = new boolean[triCount];
+        }
+
+        Result run(int target, double errorLimit) {
+            int deletedTriangles = 0;
+            int startCount = triCount;
+            double[] p = new double[3];
+            boolean[] deleted0 = new boolean[0], deleted1 = new boolean[0];
+
+            for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+                if (startCount - deletedTriangles <= target) break;
+
+                // время от времени выкидываем удалённые треугольники и пересобираем ссылки
+                if (iteration % 5 == 0) updateMesh(iteration);
+
+                for (int t = 0; t < triCount; t++) tdirty[t] = false;
+
+                double threshold = Math.min(errorLimit, THRESHOLD_SCALE * Math.pow(iteration + 3, AGGRESSIVENESS));
+
+                for (int t = 0; t < triCount; t++) {
+                    if (terr[t * 4 + 3] > threshold || tdeleted[t] || tdirty[t]) continue;
+
+                    for (int j = 0; j < 3; j++) {
+                        if (terr[t * 4 + j] >= threshold) continue;
+                        int i0 = tv[t * 3 + j];
+                        int i1 = tv[t * 3 + (j + 1) % 3];
+                        if (border[i0] != border[i1]) continue;
+
+                        double err = calculateError(i0, i1, p);
+
+                        if (deleted0.length < tcount[i0]) deleted0 = new boolean[tcount[i0] * 2];
+                        if (deleted1.length < tcount[i1]) deleted1 = new boolean[tcount[i1] * 2];
+                        // не схлопываем, если какой-то треугольник вокруг перевернётся
+                        if (flipped(p, i1, i0, deleted0)) continue;
+                        if (flipped(p, i0, i1, deleted1)) continue;
+
+                        // i1 уходит в i0
+                        pos[i0 * 3] = p[0];
+                        pos[i0 * 3 + 1] = p[1];
+                        pos[i0 * 3 + 2] = p[2];
+                        for (int k = 0; k < 10; k++) q[i0 * 10 + k] += q[i1 * 10 + k];
+                        maxError = Math.max(maxError, err);
+
+                        int start = refCount;
+                        deletedTriangles += updateTriangles(i0, i0, deleted0);
+                        deletedTriangles += updateTriangles(i0, i1, deleted1);
+                        int count = refCount - start;
+                        if (count <= tcount[i0]) {
+                            // влезает на старое место
+                            if (count > 0) {
+                                System.arraycopy(refTri, start, refTri, tstart[i0], count);
+                                System.arraycopy(refVert, start, refVert, tstart[i0], count);
+                            }
+                        } else {
+                            tstart[i0] = start;
+                        }
+                        tcount[i0] = count;
+                        break;
+                    }
+                    if (startCount - deletedTriangles <= target) break;
+                }
+            }
+            return new Result(compact(), Math.sqrt(Math.max(0.0, maxError)));
+        }
+
+        // ---------- квадрики ----------
+
+        private double calculateError(int a, int b, double[] out) {
+            double[] m = new double[10];
+            for (int k = 0; k < 10; k++) m[k] = q[a * 10 + k] + q[b * 10 + k];
+            boolean onBorder = border[a] && border[b];
+
+            double det = det(m, 0, 1, 2, 1, 4, 5, 2, 5, 7);
+            if (det != 0.0 && !onBorder) {
+                // оптимальная точка: минимум квадрики
+                out[0] = -1.0 / det * det(m, 1, 2, 3, 4, 5, 6, 5, 7, 8);
+                out[1] = 1.0 / det * det(m, 0, 2, 3, 1, 5, 6, 2, 7, 8);
+                out[2] = -1.0 / det * det(m, 0, 1, 3, 1, 4, 6, 2, 5, 8);
+                return vertexError(m, out[0], out[1], out[2]);
+            }
+
+            // вырожденная квадрика или граница: лучший из концов и середины
+            double ax = pos[a * 3], ay = pos[a * 3 + 1], az = pos[a * 3 + 2];
+            double bx = pos[b * 3], by = pos[b * 3 + 1], bz = pos[b * 3 + 2];
+            double mx = (ax + bx) * 0.5, my = (ay + by) * 0.5, mz = (az + bz) * 0.5;
+            double e1 = vertexError(m, ax, ay, az);
+            double e2 = vertexError(m, bx, by, bz);
+            double e3 = vertexError(m, mx, my, mz);
+            double e = Math.min(e1, Math.min(e2, e3));
+            if (e == e1) { out[0] = ax; out[1] = ay; out[2] = az; }
+            else if (e == e2) { out[0] = bx; out[1] = by; out[2] = bz; }
+            else { out[0] = mx; out[1] = my; out[2] = mz; }
+            return e;
+        }
+
+        private static double det(double[] m, int a11, int a12, int a13, int a21, int a22, int a23,
+                                  int a31, int a32, int a33) {
+            return m[a11] * m[a22] * m[a33] + m[a13] * m[a21] * m[a32] + m[a12] * m[a23] * m[a31]
+                    - m[a13] * m[a22] * m[a31] - m[a11] * m[a23] * m[a32] - m[a12] * m[a21] * m[a33];
+        }
+
+        private static double vertexError(double[] m, double x, double y, double z) {
+            return m[0] * x * x + 2 * m[1] * x * y + 2 * m[2] * x * z + 2 * m[3] * x + m[4] * y * y
+                    + 2 * m[5] * y * z + 2 * m[6] * y + m[7] * z * z + 2 * m[8] * z + m[9];
+        }
+
+        // ---------- схлопывание ----------
+
+        /**
+         * Перевернётся ли какой-то треугольник вершины v, если перенести её в p (other — второй конец ребра).
+         * Треугольники с обоими концами ребра помечаются в deleted — они после схлопывания исчезнут.
+         */
+        private boolean flipped(double[] p, int other, int v, boolean[] deleted) {
+            for (int k = 0; k < tcount[v]; k++) {
+                int t = refTri[tstart[v] + k];
+                if (tdeleted[t]) continue;
+                int s = refVert[tstart[v] + k];
+                int id1 = tv[t * 3 + (s + 1) % 3];
+                int id2 = tv[t * 3 + (s + 2) % 3];
+
+                if (id1 == other || id2 == other) {
+                    deleted[k] = true;
+                    continue;
+                }
+                deleted[k] = false;
+
+                double d1x = pos[id1 * 3] - p[0], d1y = pos[id1 * 3 + 1] - p[1], d1z = pos[id1 * 3 + 2] - p[2];
+                double d2x = pos[id2 * 3] - p[0], d2y = pos[id2 * 3 + 1] - p[1], d2z = pos[id2 * 3 + 2] - p[2];
+                double l1 = Math.sqrt(d1x * d1x + d1y * d1y + d1z * d1z);
+                double l2 = Math.sqrt(d2x * d2x + d2y * d2y + d2z * d2z);
+                if (l1 < 1e-30 || l2 < 1e-30) return true;
+                d1x /= l1; d1y /= l1; d1z /= l1;
+                d2x /= l2; d2y /= l2; d2z /= l2;
+                // почти вырожденный треугольник
+                if (Math.abs(d1x * d2x + d1y * d2y + d1z * d2z) > 0.999) return true;
+
+                double nx = d1y * d2z - d1z * d2y;
+                double ny = d1z * d2x - d1x * d2z;
+                double nz = d1x * d2y - d1y * d2x;
+                double nl = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (nl < 1e-30) return true;
+                if ((nx * tn[t * 3] + ny * tn[t * 3 + 1] + nz * tn[t * 3 + 2]) / nl < 0.2) return true;
+            }
+            return false;
+        }
+
+        /** Треугольники вершины v теперь ссылаются на i0 (или удаляются). Возвращает, сколько удалено. */
+        private int updateTriangles(int i0, int v, boolean[] deleted) {
+            int removed = 0;
+            double[] p = new double[3];
+            for (int k = 0; k < tcount[v]; k++) {
+                int t = refTri[tstart[v] + k];
+                int s = refVert[tstart[v] + k];
+                if (tdeleted[t]) continue;
+                if (deleted[k]) {
+                    tdeleted[t] = true;
+                    removed++;
+                    continue;
+                }
+                tv[t * 3 + s] = i0;
+                tdirty[t] = true;
+                terr[t * 4] = calculateError(tv[t * 3], tv[t * 3 + 1], p);
+                terr[t * 4 + 1] = calculateError(tv[t * 3 + 1], tv[t * 3 + 2], p);
+                terr[t * 4 + 2] = calculateError(tv[t * 3 + 2], tv[t * 3], p);
+                terr[t * 4 + 3] = Math.min(terr[t * 4], Math.min(terr[t * 4 + 1], terr[t * 4 + 2]));
+                addRef(t, s);
+            }
+            return removed;
+        }
+
+        private void addRef(int t, int s) {
+            if (refCount == refTri.length) {
+                int size = Math.max(16, refTri.length * 2);
+                refTri = Arrays.copyOf(refTri, size);
+                refVert = Arrays.copyOf(refVert, size);
+            }
+            refTri[refCount] = t;
+            refVert[refCount] = s;
+            refCount++;
+        }
+
+        // ---------- перестройка ----------
+
+        private void updateMesh(int iteration) {
+            if (iteration > 0) {
+                // выкинуть удалённые треугольники
+                int dst = 0;
+                for (int t = 0; t < triCount; t++) {
+                    if (tdeleted[t]) continue;
+                    if (dst != t) {
+                        System.arraycopy(tv, t * 3, tv, dst * 3, 3);
+                        System.arraycopy(terr, t * 4, terr, dst * 4, 4);
+                        System.arraycopy(tn, t * 3, tn, dst * 3, 3);
+                    }
+                    tdeleted[dst] = false;
+                    dst++;
+                }
+                triCount = dst;
+            }
+
+            // ссылки вершина -> треугольники (сортировка подсчётом)
+            for (int i = 0; i < vertexCount; i++) tcount[i] = 0;
+            for (int t = 0; t < triCount; t++) {
+                for (int j = 0; j < 3; j++) tcount[tv[t * 3 + j]]++;
+            }
+            int start = 0;
+            for (int i = 0; i < vertexCount; i++) {
+                tstart[i] = start;
+                start += tcount[i];
+                tcount[i] = 0;
+            }
+            if (refTri.length < start) {
+                refTri = new int[start];
+                refVert = new int[start];
+            }
+            for (int t = 0; t < triCount; t++) {
+                for (int j = 0; j < 3; j++) {
+                    int v = tv[t * 3 + j];
+                    refTri[tstart[v] + tcount[v]] = t;
+                    refVert[tstart[v] + tcount[v]] = j;
+                    tcount[v]++;
+                }
+            }
+            refCount = start;
+
+            if (iteration == 0) {
+                findBorders();
+                initQuadrics();
+            }
+        }
+
+        /** Граничная вершина — та, у которой есть соседняя вершина, встречающаяся только в одном треугольнике. */
+        private void findBorders() {
+            int[] ids = new int[16];
+            int[] counts = new int[16];
+            for (int i = 0; i < vertexCount; i++) {
+                int n = 0;
+                for (int k = 0; k < tcount[i]; k++) {
+                    int t = refTri[tstart[i] + k];
+                    for (int j = 0; j < 3; j++) {
+                        int id = tv[t * 3 + j];
+                        int f = 0;
+                        while (f < n && ids[f] != id) f++;
+                        if (f == n) {
+                            if (n == ids.length) {
+                                ids = Arrays.copyOf(ids, n * 2);
+                                counts = Arrays.copyOf(counts, n * 2);
+                            }
+                            ids[n] = id;
+                            counts[n] = 1;
+                            n++;
+                        } else {
+                            counts[f]++;
+                        }
+                    }
+                }
+                for (int f = 0; f < n; f++) if (counts[f] == 1) border[ids[f]] = true;
+            }
+        }
+
+        private void initQuadrics() {
+            double[] p = new double[3];
+            for (int t = 0; t < triCount; t++) {
+                int a = tv[t * 3], b = tv[t * 3 + 1], c = tv[t * 3 + 2];
+                double e1x = pos[b * 3] - pos[a * 3], e1y = pos[b * 3 + 1] - pos[a * 3 + 1], e1z = pos[b * 3 + 2] - pos[a * 3 + 2];
+                double e2x = pos[c * 3] - pos[a * 3], e2y = pos[c * 3 + 1] - pos[a * 3 + 1], e2z = pos[c * 3 + 2] - pos[a * 3 + 2];
+                double nx = e1y * e2z - e1z * e2y;
+                double ny = e1z * e2x - e1x * e2z;
+                double nz = e1x * e2y - e1y * e2x;
+                double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (len > 0.0) { nx /= len; ny /= len; nz /= len; }
+                tn[t * 3] = nx;
+                tn[t * 3 + 1] = ny;
+                tn[t * 3 + 2] = nz;
+
+                // плоскость n·x + d = 0, квадрика K = (n, d)(n, d)^T добавляется всем трём вершинам
+                double d = -(nx * pos[a * 3] + ny * pos[a * 3 + 1] + nz * pos[a * 3 + 2]);
+                double[] plane = {nx * nx, nx * ny, nx * nz, nx * d, ny * ny, ny * nz, ny * d, nz * nz, nz * d, d * d};
+                for (int j = 0; j < 3; j++) {
+                    int v = tv[t * 3 + j];
+                    for (int k = 0; k < 10; k++) q[v * 10 + k] += plane[k];
+                }
+
+                // граничные рёбра: плоскость через ребро перпендикулярно треугольнику — обоим концам
+                for (int j = 0; j < 3; j++) {
+                    int i0 = tv[t * 3 + j], i1 = tv[t * 3 + (j + 1) % 3];
+                    if (!border[i0] || !border[i1] || sharedTriangles(i0, i1) != 1) continue;
+                    double ex = pos[i1 * 3] - pos[i0 * 3], ey = pos[i1 * 3 + 1] - pos[i0 * 3 + 1], ez = pos[i1 * 3 + 2] - pos[i0 * 3 + 2];
+                    double px = ey * nz - ez * ny;
+                    double py = ez * nx - ex * nz;
+                    double pz = ex * ny - ey * nx;
+                    double pl = Math.sqrt(px * px + py * py + pz * pz);
+                    if (pl == 0.0) continue;
+                    px /= pl; py /= pl; pz /= pl;
+                    double pd = -(px * pos[i0 * 3] + py * pos[i0 * 3 + 1] + pz * pos[i0 * 3 + 2]);
+                    double w = BORDER_WEIGHT;
+                    double[] edge = {w * px * px, w * px * py, w * px * pz, w * px * pd, w * py * py, w * py * pz,
+                            w * py * pd, w * pz * pz, w * pz * pd, w * pd * pd};
+                    for (int k = 0; k < 10; k++) {
+                        q[i0 * 10 + k] += edge[k];
+                        q[i1 * 10 + k] += edge[k];
+                    }
+                }
+            }
+            for (int t = 0; t < triCount; t++) {
+                for (int j = 0; j < 3; j++) {
+                    terr[t * 4 + j] = calculateError(tv[t * 3 + j], tv[t * 3 + (j + 1) % 3], p);
+                }
+                terr[t * 4 + 3] = Math.min(terr[t * 4], Math.min(terr[t * 4 + 1], terr[t * 4 + 2]));
+            }
+        }
+
+        /** В скольких треугольниках есть ребро a-b (1 — граничное). */
+        private int sharedTriangles(int a, int b) {
+            int n = 0;
+            for (int k = 0; k < tcount[a]; k++) {
+                int t = refTri[tstart[a] + k];
+                if (tv[t * 3] == b || tv[t * 3 + 1] == b || tv[t * 3 + 2] == b) n++;
+            }
+            return n;
+        }
+
+        /** Итоговый Mesh: только живые треугольники и используемые ими вершины. */
+        private Mesh compact() {
+            int[] remap = new int[vertexCount];
+            Arrays.fill(remap, -1);
+            List<Vec3> outPos = new ArrayList<>();
+            List<Vec2> outUv = new ArrayList<>();
+            List<Vec2> uv = source.getTexCoords();
+            int live = 0;
+            for (int t = 0; t < triCount; t++) if (!tdeleted[t]) live++;
+
+            int[] outIdx = new int[live * 3];
+            int k = 0;
+            for (int t = 0; t < triCount; t++) {
+                if (tdeleted[t]) continue;
+                for (int j = 0; j < 3; j++) {
+                    int v = tv[t * 3 + j];
+                    if (remap[v] < 0) {
+                        remap[v] = outPos.size();
+                        outPos.add(new Vec3(pos[v * 3], pos[v * 3 + 1], pos[v * 3 + 2]));
+                        outUv.add(uv.get(v));
+                    }
+                    outIdx[k++] = remap[v];
+                }
+            }
+            List<Vec3> normals = new ArrayList<>(outPos.size());
+            for (int i = 0; i < outPos.size(); i++) normals.add(new Vec3(0.0, 1.0, 0.0));
+            return new Mesh(outPos, outUv, normals, outIdx).recalculateNormals();
+        }
+    }
+}
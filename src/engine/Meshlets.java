@@ -0,0 +1,317 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+
+import java.util.Arrays;
+
+/**
+ * Разбиение меша на кластеры (meshlets) до MAX_TRIANGLES треугольников и MAX_VERTICES вершин,
+ * у каждого — bounding sphere и конус нормалей (ось + угол, в который попадают нормали всех его треугольников).
+ *
+ * По ним вершинный этап отбрасывает кластер целиком, ещё до проекции вершин:
+ *  - сфера целиком за одной из плоскостей пирамиды видимости — ни один пиксель не зальётся;
+ *  - все треугольники смотрят от камеры (конус + сфера) — backface culling их всё равно выкинул бы.
+ * Проверка консервативная, так что картинка та же, что с отсечением по треугольникам.
+ *
+ * Кластеры растут по соседству (через общие вершины) от первого свободного треугольника и берут только
+ * треугольники с нормалью близкой к уже набранным, чтобы конус был узким. Сами индексы меша не
+ * переставляются — у треугольника просто есть номер кластера, а подряд идущие треугольники одного
+ * кластера собраны в отрезки (runs): отброшенный кластер пропускается отрезками, порядок растеризации
+ * остаётся прежним.
+ * Считается один раз на меш (Mesh.prepareForRender), дальше только читается.
+ */
+final class Meshlets {
+
+    static final int MAX_VERTICES = 64;
+    static final int MAX_TRIANGLES = 124;
+
+    // треугольник берётся в кластер, если его нормаль не дальше ~60° от средней нормали кластера
+    private static final double GROW_COS = 0.5;
+    // конус шире ~84° почти никогда не отсекается — такому кластеру конус не нужен
+    private static final double MIN_CONE_COS = 0.1;
+    // запас проверки конуса (доля расстояния до камеры): почти ребром к камере — не отсекаем
+    private static final double CONE_EPS = 1e-6;
+
+    // классы кластеров для classify
+    static final byte OUTSIDE = 0;   // вне пирамиды видимости
+    static final byte BACKFACE = 1;  // все треугольники задом к камере
+    static final byte VISIBLE = 2;
+
+    final int count;
+    final int[] triangleCluster;   // номер кластера треугольника (треугольник t = indices[3t..3t+2])
+    final int[] vertexStart;       // вершины кластера c: vertices[vertexStart[c] .. vertexStart[c+1])
+    final int[] vertices;
+    final int runCount;
+    final int[] runStart;          // отрезок r — треугольники runStart[r] .. runStart[r+1]-1, все из runCluster[r]
+    final int[] runCluster;
+    private final double[] spheres; // cx, cy, cz, r (в координатах модели)
+    private final double[] cones;   // ax, ay, az, cos, sin; cos <= 0 — конуса нет
+
+    private Meshlets(int count, int[] triangleCluster, int[] vertexStart, int[] vertices,
+                     double[] spheres, double[] cones) {
+        this.count = count;
+        this.triangleCluster = triangleCluster;
+        this.vertexStart = vertexStart;
+        this.vertices = vertices;
+        this.spheres = spheres;
+        this.cones = cones;
+
+        int runs = 0;
+        for (int t = 0; t < triangleCluster.length; t++) {
+            if (t == 0 || triangleCluster[t] != triangleCluster[t - 1]) runs++;
+        }
+        this.runCount = runs;
+        this.runStart = new int[runs + 1];
+        this.runCluster = new int[runs];
+        int r = 0;
+        for (int t = 0; t < triangleCluster.length; t++) {
+            if (t == 0 || triangleCluster[t] != triangleCluster[t - 1]) {
+                runStart[r] = t;
+                runCluster[r] = triangleCluster[t];
+                r++;
+            }
+        }
+        runStart[runs] = triangleCluster.length;
+    }
+
+    static Meshlets build(Mesh mesh) {
+        int[] idx = mesh.indices();
+        double[] pos = mesh.flatPositions();
+        int triangles = idx.length / 3;
+        int n = pos.length / 3;
+
+        // единичные нормали треугольников (0 у вырожденных)
+        double[] tn = new double[triangles * 3];
+        for (int t = 0; t < triangles; t++) {
+            int a = idx[t * 3] * 3, b = idx[t * 3 + 1] * 3, c = idx[t * 3 + 2] * 3;
+            double e1x = pos[b] - pos[a], e1y = pos[b + 1] - pos[a + 1], e1z = pos[b + 2] - pos[a + 2];
+            double e2x = pos[c] - pos[a], e2y = pos[c + 1] - pos[a + 1], e2z = pos[c + 2] - pos[a + 2];
+            double nx = e1y * e2z - e1z * e2y;
+            double ny = e1z * e2x - e1x * e2z;
+            double nz = e1x * e2y - e1y * e2x;
+            double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+            if (len > 0.0) {
+                tn[t * 3] = nx / len;
+                tn[t * 3 + 1] = ny / len;
+                tn[t * 3 + 2] = nz / len;
+            }
+        }
+
+        // вершина -> её треугольники (сортировка подсчётом)
+        int[] adjStart = new int[n + 1];
+        for (int i : idx) adjStart[i + 1]++;
+        for (int i = 0; i < n; i++) adjStart[i + 1] += adjStart[i];
+        int[] adj = new int[idx.length];
+        int[] fill = Arrays.copyOf(adjStart, n);
+        for (int k = 0; k < idx.length; k++) adj[fill[idx[k]]++] = k / 3;
+
+        int[] triangleCluster = new int[triangles];
+        Arrays.fill(triangleCluster, -1);
+        int[] vertexMark = new int[n];      // кластер, в который вершина уже попала
+        Arrays.fill(vertexMark, -1);
+        int[] queuedBy = new int[triangles]; // кластер, который уже ставил треугольник в очередь
+        Arrays.fill(queuedBy, -1);
+
+        int[] queue = new int[256];
+        int[] vertexStart = new int[16];
+        int[] vertices = new int[Math.max(16, n)];
+        int vertexCount = 0;
+        int count = 0;
+
+        for (int seed = 0; seed < triangles; seed++) {
+            if (triangleCluster[seed] >= 0) continue;
+            int id = count++;
+            if (vertexStart.length < count + 1) vertexStart = Arrays.copyOf(vertexStart, vertexStart.length * 2);
+            vertexStart[id] = vertexCount;
+
+            double ax = 0, ay = 0, az = 0; // сумма нормалей кластера
+            int tris = 0, verts = 0;
+            int head = 0, tail = 0;
+            queue[tail++] = seed;
+            queuedBy[seed] = id;
+
+            while (head < tail && tris < MAX_TRIANGLES) {
+                int t = queue[head++];
+                if (triangleCluster[t] >= 0) continue;
+
+                int added = 0;
+                for (int j = 0; j < 3; j++) {
+                    int v = idx[t * 3 + j];
+                    if (vertexMark[v] != id && (j == 0 || v != idx[t * 3]) && (j < 2 || v != idx[t * 3 + 1])) added++;
+                }
+                if (verts + added > MAX_VERTICES) continue;
+
+                double nx = tn[t * 3], ny = tn[t * 3 + 1], nz = tn[t * 3 + 2];
+                double al = Math.sqrt(ax * ax + ay * ay + az * az);
+                if (al > 0.0 && (nx != 0.0 || ny != 0.0 || nz != 0.0)
+                        && (nx * ax + ny * ay + nz * az) / al < GROW_COS) continue;
+
+                triangleCluster[t] = id;
+                tris++;
+                ax += nx;
+                ay += ny;
+                az += nz;
+                for (int j = 0; j < 3; j++) {
+                    int v = idx[t * 3 + j];
+                    if (vertexMark[v] == id) continue;
+                    vertexMark[v] = id;
+                    if (vertexCount == vertices.length) vertices = Arrays.copyOf(vertices, vertices.length * 2);
+                    vertices[vertexCount++] = v;
+                    verts++;
+                }
+
+                // соседи по вершинам — кандидаты
+                for (int j = 0; j < 3; j++) {
+                    int v = idx[t * 3 + j];
+                    for (int k = adjStart[v]; k < adjStart[v + 1]; k++) {
+                        int u = adj[k];
+                        if (triangleCluster[u] >= 0 || queuedBy[u] == id) continue;
+                        queuedBy[u] = id;
+                        if (tail == queue.length) queue = Arrays.copyOf(queue, queue.length * 2);
+                        queue[tail++] = u;
+                    }
+                }
+            }
+        }
+        vertexStart = Arrays.copyOf(vertexStart, count + 1);
+        vertexStart[count] = vertexCount;
+        vertices = Arrays.copyOf(vertices, vertexCount);
+
+        double[] spheres = new double[count * 4];
+        double[] cones = new double[count * 5];
+        computeSpheres(pos, count, vertexStart, vertices, spheres);
+        computeCones(tn, triangleCluster, count, cones);
+        return new Meshlets(count, triangleCluster, vertexStart, vertices, spheres, cones);
+    }
+
+    private static void computeSpheres(double[] pos, int count, int[] vertexStart, int[] vertices, double[] out) {
+        for (int c = 0; c < count; c++) {
+            double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+            for (int k = vertexStart[c]; k < vertexStart[c + 1]; k++) {
+                int v = vertices[k] * 3;
+                minX = Math.min(minX, pos[v]); maxX = Math.max(maxX, pos[v]);
+                minY = Math.min(minY, pos[v + 1]); maxY = Math.max(maxY, pos[v + 1]);
+                minZ = Math.min(minZ, pos[v + 2]); maxZ = Math.max(maxZ, pos[v + 2]);
+            }
+            double cx = (minX + maxX) * 0.5, cy = (minY + maxY) * 0.5, cz = (minZ + maxZ) * 0.5;
+            double r2 = 0.0;
+            for (int k = vertexStart[c]; k < vertexStart[c + 1]; k++) {
+                int v = vertices[k] * 3;
+                double dx = pos[v] - cx, dy = pos[v + 1] - cy, dz = pos[v + 2] - cz;
+                r2 = Math.max(r2, dx * dx + dy * dy + dz * dz);
+            }
+            out[c * 4] = cx;
+            out[c * 4 + 1] = cy;
+            out[c * 4 + 2] = cz;
+            out[c * 4 + 3] = Math.sqrt(r2);
+        }
+    }
+
+    private static void computeCones(double[] tn, int[] triangleCluster, int count, double[] out) {
+        double[] sum = new double[count * 3];
+        boolean[] degenerate = new boolean[count];
+        for (int t = 0; t < triangleCluster.length; t++) {
+            int c = triangleCluster[t];
+            double nx = tn[t * 3], ny = tn[t * 3 + 1], nz = tn[t * 3 + 2];
+            // у вырожденного треугольника нормали нет — за кластер с ним не поручиться
+            if (nx == 0.0 && ny == 0.0 && nz == 0.0) degenerate[c] = true;
+            sum[c * 3] += nx;
+            sum[c * 3 + 1] += ny;
+            sum[c * 3 + 2] += nz;
+        }
+        double[] minDot = new double[count];
+        Arrays.fill(minDot, 1.0);
+        for (int c = 0; c < count; c++) {
+            double len = Math.sqrt(sum[c * 3] * sum[c * 3] + sum[c * 3 + 1] * sum[c * 3 + 1] + sum[c * 3 + 2] * sum[c * 3 + 2]);
+            if (len == 0.0 || degenerate[c]) {
+                minDot[c] = -1.0;
+                continue;
+            }
+            out[c * 5] = sum[c * 3] / len;
+            out[c * 5 + 1] = sum[c * 3 + 1] / len;
+            out[c * 5 + 2] = sum[c * 3 + 2] / len;
+        }
+        for (int t = 0; t < triangleCluster.length; t++) {
+            int c = triangleCluster[t];
+            double d = tn[t * 3] * out[c * 5] + tn[t * 3 + 1] * out[c * 5 + 1] + tn[t * 3 + 2] * out[c * 5 + 2];
+            minDot[c] = Math.min(minDot[c], d);
+        }
+        for (int c = 0; c < count; c++) {
+            double cos = minDot[c];
+            if (cos <= MIN_CONE_COS) {
+                out[c * 5 + 3] = 0.0;
+                continue;
+            }
+            out[c * 5 + 3] = cos;
+            out[c * 5 + 4] = Math.sqrt(1.0 - cos * cos);
+        }
+    }
+
+    /**
+     * Классы кластеров (OUTSIDE / BACKFACE / VISIBLE) для инстанса с матрицей model, камерой в eye.
+     * null — отсекать нечего, все видимые.
+     */
+    byte[] classify(Mat4 model, Mat4 viewProj, Vec3 eye) {
+        // плоскости пирамиды сразу в координатах модели (Gribb/Hartmann по viewProj * model)
+        double[] planes = InstanceBvh.frustumPlanes(viewProj.multiply(model));
+        for (int i = 0; i < 6; i++) {
+            double l = Math.sqrt(planes[i * 4] * planes[i * 4] + planes[i * 4 + 1] * planes[i * 4 + 1]
+                    + planes[i * 4 + 2] * planes[i * 4 + 2]);
+            if (l > 0.0) for (int k = 0; k < 4; k++) planes[i * 4 + k] /= l;
+        }
+
+        // камера в координатах модели; у зеркальной матрицы (det < 0) перед/зад меняются — конус не трогаем
+        double[] e = toModel(model, eye);
+
+        byte[] r = new byte[count];
+        boolean culled = false;
+        for (int c = 0; c < count; c++) {
+            double cx = spheres[c * 4], cy = spheres[c * 4 + 1], cz = spheres[c * 4 + 2], rad = spheres[c * 4 + 3];
+            byte cls = VISIBLE;
+            for (int i = 0; i < 6; i++) {
+                double d = planes[i * 4] * cx + planes[i * 4 + 1] * cy + planes[i * 4 + 2] * cz + planes[i * 4 + 3];
+                if (d < -rad) {
+                    cls = OUTSIDE;
+                    break;
+                }
+            }
+            if (cls == VISIBLE && e != null && backfacing(c, e)) cls = BACKFACE;
+            if (cls != VISIBLE) culled = true;
+            r[c] = cls;
+        }
+        return culled ? r : null;
+    }
+
+    /**
+     * Все треугольники кластера задом к камере e: для любой точки p сферы и любой нормали n конуса
+     * dot(n, p - e) > 0. Минимум по конусу — |d| cos(φ + θ), где φ — угол между d = центр - e и осью.
+     */
+    private boolean backfacing(int c, double[] e) {
+        double cos = cones[c * 5 + 3];
+        if (cos <= 0.0) return false;
+        double dx = spheres[c * 4] - e[0], dy = spheres[c * 4 + 1] - e[1], dz = spheres[c * 4 + 2] - e[2];
+        double dist2 = dx * dx + dy * dy + dz * dz;
+        double along = dx * cones[c * 5] + dy * cones[c * 5 + 1] + dz * cones[c * 5 + 2];
+        double across = Math.sqrt(Math.max(0.0, dist2 - along * along));
+        double min = along * cos - across * cones[c * 5 + 4];
+        return min > spheres[c * 4 + 3] + CONE_EPS * Math.sqrt(dist2);
+    }
+
+    /** p в координатах модели (обратная к аффинной части model) или null, если det <= 0. */
+    private static double[] toModel(Mat4 m, Vec3 p) {
+        double a = m.get(0, 0), b = m.get(0, 1), c = m.get(0, 2);
+        double d = m.get(1, 0), e = m.get(1, 1), f = m.get(1, 2);
+        double g = m.get(2, 0), h = m.get(2, 1), i = m.get(2, 2);
+        double det = a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+        if (!(det > 1e-300)) return null;
+        double x = p.x - m.get(0, 3), y = p.y - m.get(1, 3), z = p.z - m.get(2, 3);
+        double inv = 1.0 / det;
+        return new double[] {
+                ((e * i - f * h) * x + (c * h - b * i) * y + (b * f - c * e) * z) * inv,
+                ((f * g - d * i) * x + (a * i - c * g) * y + (c * d - a * f) * z) * inv,
+                ((d * h - e * g) * x + (b * g - a * h) * y + (a * e - b * d) * z) * inv
+        };
+    }
+}
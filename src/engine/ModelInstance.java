@@ -15,6 +15,11 @@ public final class ModelInstance {
     private final Mesh mesh;
     private final Transform transform;
 
+    // команда рендера для старого API (SoftwareRenderer с ModelInstance): пока Transform не менялся,
+    // отдаётся та же, иначе кэши, которые сравнивают команды по ссылке (тени, мировые вершины, слой),
+    // никогда бы не срабатывали. Берут её потоки рендера: volatile, пишется одной неизменяемой парой
+    private volatile CachedCommand command;
+
     public ModelInstance(Mesh mesh) {
         this(mesh, new Transform());
     }
@@ -34,6 +39,24 @@ public final class ModelInstance {
         return transform;
     }
 
+    /**
+     * Команда рендера для этого инстанса с текущим Transform. isStatic — иконка: статический объект
+     * с material, без тени; иначе — основная модель с настройками кадра.
+     */
+    DrawCommand drawCommand(boolean isStatic, RenderSettings material) {
+        int version = transform.getVersion();
+        CachedCommand c = command;
+        if (c == null || c.version != version || c.command.isStatic() != isStatic) {
+            Mat4 m = transform.toMatrix();
+            DrawCommand dc = isStatic
+                    ? new DrawCommand(mesh, m, material, false, true)
+                    : new DrawCommand(mesh, m, null, true, false);
+            c = new CachedCommand(dc, version);
+            command = c; // гонка двух потоков даст две равные команды — просто промах кэша
+        }
+        return c.command;
+    }
+
     /**
      * Возвращает новый ModelInstance, где текущий Transform "запечён" в геометрию.
      * То есть vertices становятся уже в world (относительно текущего instance),
@@ -67,4 +90,14 @@ public final class ModelInstance {
         }
         return out;
     }
+
+    private static final class CachedCommand {
+        final DrawCommand command;
+        final int version; // Transform.getVersion() на момент записи
+
+        CachedCommand(DrawCommand command, int version) {
+            this.command = command;
+            this.version = version;
+        }
+    }
 }
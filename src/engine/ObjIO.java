@@ -1 +1,64 @@
-package engine;
\ No newline at end of file
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Запись Mesh в OBJ (читает ObjLoader): v, vt (если у меша есть непустые UV) и f.
+ * Нормали не пишем — ObjLoader их всё равно пересчитывает.
+ * Числа через Double.toString: без локали и без потери точности.
+ */
+public final class ObjIO {
+    private ObjIO() {}
+
+    public static void write(Mesh mesh, Path objPath) throws IOException {
+        if (mesh == null) throw new NullPointerException("mesh must not be null");
+        if (objPath == null) throw new NullPointerException("objPath must not be null");
+
+        List<Vec3> pos = mesh.getPositions();
+        List<Vec2> uv = mesh.getTexCoords();
+        boolean withUv = false;
+        for (Vec2 t : uv) {
+            if (t.x != 0.0 || t.y != 0.0) {
+                withUv = true;
+                break;
+            }
+        }
+
+        try (BufferedWriter w = Files.newBufferedWriter(objPath, StandardCharsets.UTF_8)) {
+            w.write("# verts " + mesh.vertexCount() + ", tris " + mesh.triangleCount());
+            w.newLine();
+            for (Vec3 p : pos) {
+                w.write("v " + p.x + " " + p.y + " " + p.z);
+                w.newLine();
+            }
+            if (withUv) {
+                for (Vec2 t : uv) {
+                    w.write("vt " + t.x + " " + t.y);
+                    w.newLine();
+                }
+            }
+            // у каждой вершины меша своя пара v/vt с тем же номером (OBJ-индексы с 1)
+            int[] idx = mesh.indices();
+            StringBuilder sb = new StringBuilder();
+            for (int t = 0; t < idx.length; t += 3) {
+                sb.setLength(0);
+                sb.append('f');
+                for (int j = 0; j < 3; j++) {
+                    int i = idx[t + j] + 1;
+                    sb.append(' ').append(i);
+                    if (withUv) sb.append('/').append(i);
+                }
+                w.write(sb.toString());
+                w.newLine();
+            }
+        }
+    }
+}
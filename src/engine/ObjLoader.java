@@ -73,7 +73,8 @@ public final class ObjLoader {
         int[] indices = new int[idx.size()];
         for (int i = 0; i < idx.size(); i++) indices[i] = idx.get(i);
 
-        Mesh mesh = new Mesh(pos, uv, nrm, indices);
+        // порядок граней из файла плохой для кэша: переупорядочиваем (и пересчёт нормалей ниже уже идёт по новому)
+        Mesh mesh = MeshOptimizer.optimize(new Mesh(pos, uv, nrm, indices));
         // ВАЖНО: пересчитываем нормали всегда
         return mesh.recalculateNormals();
     }
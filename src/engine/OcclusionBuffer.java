@@ -0,0 +1,130 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+import math.Vec4;
+
+import java.util.Arrays;
+
+/**
+ * Грубый буфер глубины для отсечения перекрытых объектов (occlusion culling) при обходе InstanceBvh.
+ *
+ * Экран делится на клетки CELL x CELL пикселей. Уже спроецированные (ближние) объекты записывают
+ * в клетку глубину, но только если один их треугольник закрывает клетку целиком, и берётся самая
+ * дальняя глубина треугольника по углам клетки. Так буфер консервативный: если AABB объекта за
+ * всеми клетками, которые он накрывает, — ни один его пиксель z-тест всё равно не прошёл бы,
+ * и объект можно не проецировать и не растеризовать. Картинка от этого не меняется.
+ *
+ * Живёт один вызов SoftwareRenderer.project (один поток).
+ */
+final class OcclusionBuffer {
+
+    static final int CELL = 8;
+
+    // запас, чтобы округления при интерполяции глубины в растеризаторе не сделали отсечение неверным
+    private static final double DEPTH_EPS = 1e-7;
+
+    private final Mat4 viewProj;
+    private final int width, height;
+    private final int cols, rows;
+    private final double[] depth; // +inf — клетку никто целиком не закрыл
+
+    OcclusionBuffer(Mat4 viewProj, int width, int height) {
+        this.viewProj = viewProj;
+        this.width = width;
+        this.height = height;
+        this.cols = (width + CELL - 1) / CELL;
+        this.rows = (height + CELL - 1) / CELL;
+        this.depth = new double[cols * rows];
+        Arrays.fill(depth, Double.POSITIVE_INFINITY);
+    }
+
+    /** Записать треугольники, которые растеризатор действительно зальёт (после backface culling). */
+    void add(ViewGeometry.Projected p, int[] idx) {
+        double[] sx = p.sx, sy = p.sy, sz = p.sz;
+        for (int k = 0; k < p.triangleCount; k++) {
+            int t = p.triangles[k];
+            int ia = idx[t], ib = idx[t + 1], ic = idx[t + 2];
+            addTriangle(sx[ia], sy[ia], sz[ia], sx[ib], sy[ib], sz[ib], sx[ic], sy[ic], sz[ic]);
+        }
+    }
+
+    private void addTriangle(double ax, double ay, double az, double bx, double by, double bz,
+                             double cx, double cy, double cz) {
+        // клетки, которые целиком внутри bbox треугольника; мелкие треугольники сразу мимо
+        int x0 = Math.max(0, (int) Math.ceil(Math.min(ax, Math.min(bx, cx)) / CELL));
+        int x1 = Math.min(cols, (int) Math.floor(Math.max(ax, Math.max(bx, cx)) / CELL));
+        if (x0 >= x1) return;
+        int y0 = Math.max(0, (int) Math.ceil(Math.min(ay, Math.min(by, cy)) / CELL));
+        int y1 = Math.min(rows, (int) Math.floor(Math.max(ay, Math.max(by, cy)) / CELL));
+        if (y0 >= y1) return;
+
+        double area = edge(ax, ay, bx, by, cx, cy);
+        if (Math.abs(area) < 1e-12) return;
+        double inv = 1.0 / area;
+
+        for (int gy = y0; gy < y1; gy++) {
+            for (int gx = x0; gx < x1; gx++) {
+                // все 4 угла клетки внутри => клетка внутри (треугольник выпуклый)
+                double far = Double.NEGATIVE_INFINITY;
+                boolean inside = true;
+                for (int corner = 0; corner < 4 && inside; corner++) {
+                    double px = (gx + (corner & 1)) * CELL;
+                    double py = (gy + (corner >> 1)) * CELL;
+                    double w0 = edge(bx, by, cx, cy, px, py) * inv;
+                    double w1 = edge(cx, cy, ax, ay, px, py) * inv;
+                    double w2 = edge(ax, ay, bx, by, px, py) * inv;
+                    if (w0 < 0 || w1 < 0 || w2 < 0) {
+                        inside = false;
+                    } else {
+                        // глубина (NDC) линейна по экрану, так что на клетке максимум — в одном из углов
+                        far = Math.max(far, w0 * az + w1 * bz + w2 * cz);
+                    }
+                }
+                if (!inside) continue;
+                int i = gy * cols + gx;
+                if (far < depth[i]) depth[i] = far;
+            }
+        }
+    }
+
+    /** Закрыт ли AABB (мировые координаты) целиком тем, что уже записано. */
+    boolean occluded(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        double left = Double.POSITIVE_INFINITY, right = Double.NEGATIVE_INFINITY;
+        double top = Double.POSITIVE_INFINITY, bottom = Double.NEGATIVE_INFINITY;
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            Vec3 p = new Vec3((corner & 1) == 0 ? minX : maxX, (corner & 2) == 0 ? minY : maxY, (corner & 4) == 0 ? minZ : maxZ);
+            Vec4 clip = viewProj.multiply(Vec4.point(p));
+            // угол за камерой / перед near — экранный прямоугольник не посчитать, считаем видимым
+            if (clip.w < 1e-12) return false;
+            double ndcZ = clip.z / clip.w;
+            if (ndcZ < -1.0) return false;
+
+            double sx = (clip.x / clip.w + 1.0) * 0.5 * width;
+            double sy = (1.0 - (clip.y / clip.w + 1.0) * 0.5) * height;
+            left = Math.min(left, sx);
+            right = Math.max(right, sx);
+            top = Math.min(top, sy);
+            bottom = Math.max(bottom, sy);
+            nearest = Math.min(nearest, (ndcZ + 1.0) * 0.5);
+        }
+
+        int x0 = Math.max(0, (int) Math.floor(left / CELL));
+        int x1 = Math.min(cols - 1, (int) Math.floor(right / CELL));
+        int y0 = Math.max(0, (int) Math.floor(top / CELL));
+        int y1 = Math.min(rows - 1, (int) Math.floor(bottom / CELL));
+        if (x0 > x1 || y0 > y1) return false;
+
+        for (int gy = y0; gy <= y1; gy++) {
+            for (int gx = x0; gx <= x1; gx++) {
+                if (depth[gy * cols + gx] >= nearest - DEPTH_EPS) return false;
+            }
+        }
+        return true;
+    }
+
+    private static double edge(double ax, double ay, double bx, double by, double px, double py) {
+        return (px - ax) * (by - ay) - (py - ay) * (bx - ax);
+    }
+}
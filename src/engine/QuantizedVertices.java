@@ -0,0 +1,262 @@
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Сжатые атрибуты вершин для Mesh.compact(): 14 байт на вершину вместо ~170 (Vec3/Vec2-объекты
+ * плюс плоские double-массивы).
+ *
+ *  - позиция: 3 x 16 бит без знака внутри AABB меша (шаг = размер / 65535 по каждой оси);
+ *  - нормаль: octahedral-кодирование (единичная сфера -> октаэдр -> квадрат [-1, 1]^2), 2 x 16 бит со знаком;
+ *  - uv: 2 x 16 бит без знака внутри прямоугольника uv меша (тайлинг за пределами 0..1 тоже влезает).
+ *
+ * Распаковка — на лету: decode() блоками для вершинного этапа, position()/normal()/texCoord() поштучно
+ * (на них же сделаны списки Mesh.getPositions() и т.п. у сжатого меша). Неизменяемый: массивы
+ * атрибутов, которые не поменялись, производные меши делят (withPositions / withNormals).
+ */
+final class QuantizedVertices {
+
+    private static final double UNORM = 65535.0;
+    private static final double SNORM = 32767.0;
+
+    final int count;
+
+    private final short[] pos; // x, y, z подряд
+    private final short[] nrm; // u, v подряд
+    private final short[] uv;  // u, v подряд
+
+    private final double originX, originY, originZ;
+    private final double stepX, stepY, stepZ;
+    private final double uvOriginU, uvOriginV;
+    private final double uvStepU, uvStepV;
+
+    private QuantizedVertices(int count, short[] pos, double[] posRange, short[] nrm, short[] uv, double[] uvRange) {
+        this.count = count;
+        this.pos = pos;
+        this.nrm = nrm;
+        this.uv = uv;
+        this.originX = posRange[0];
+        this.originY = posRange[1];
+        this.originZ = posRange[2];
+        this.stepX = posRange[3];
+        this.stepY = posRange[4];
+        this.stepZ = posRange[5];
+        this.uvOriginU = uvRange[0];
+        this.uvOriginV = uvRange[1];
+        this.uvStepU = uvRange[2];
+        this.uvStepV = uvRange[3];
+    }
+
+    static QuantizedVertices encode(List<Vec3> positions, List<Vec2> texCoords, List<Vec3> normals) {
+        double[] posRange = positionRange(positions);
+        double[] uvRange = uvRange(texCoords);
+        return new QuantizedVertices(positions.size(), quantizePositions(positions, posRange), posRange,
+                encodeNormals(normals), quantizeUvs(texCoords, uvRange), uvRange);
+    }
+
+    /** Те же нормали и uv (массивы общие), новые позиции. */
+    QuantizedVertices withPositions(List<Vec3> positions) {
+        double[] posRange = positionRange(positions);
+        return new QuantizedVertices(count, quantizePositions(positions, posRange), posRange,
+                nrm, uv, new double[]{uvOriginU, uvOriginV, uvStepU, uvStepV});
+    }
+
+    /** Те же позиции и uv (массивы общие), новые нормали. */
+    QuantizedVertices withNormals(List<Vec3> normals) {
+        return new QuantizedVertices(count, pos, new double[]{originX, originY, originZ, stepX, stepY, stepZ},
+                encodeNormals(normals), uv, new double[]{uvOriginU, uvOriginV, uvStepU, uvStepV});
+    }
+
+    // ---------- упаковка ----------
+
+    /** AABB позиций: origin x, y, z и шаг x, y, z. */
+    private static double[] positionRange(List<Vec3> positions) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < positions.size(); i++) {
+            Vec3 p = positions.get(i);
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            minZ = Math.min(minZ, p.z);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+            maxZ = Math.max(maxZ, p.z);
+        }
+        return new double[]{minX, minY, minZ, (maxX - minX) / UNORM, (maxY - minY) / UNORM, (maxZ - minZ) / UNORM};
+    }
+
+    private static short[] quantizePositions(List<Vec3> positions, double[] range) {
+        short[] pos = new short[positions.size() * 3];
+        for (int i = 0; i < positions.size(); i++) {
+            Vec3 p = positions.get(i);
+            pos[i * 3] = unorm(p.x, range[0], range[3]);
+            pos[i * 3 + 1] = unorm(p.y, range[1], range[4]);
+            pos[i * 3 + 2] = unorm(p.z, range[2], range[5]);
+        }
+        return pos;
+    }
+
+    /** Прямоугольник uv: origin u, v и шаг u, v. */
+    private static double[] uvRange(List<Vec2> texCoords) {
+        double minU = Double.POSITIVE_INFINITY, minV = Double.POSITIVE_INFINITY;
+        double maxU = Double.NEGATIVE_INFINITY, maxV = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < texCoords.size(); i++) {
+            Vec2 t = texCoords.get(i);
+            minU = Math.min(minU, t.x);
+            minV = Math.min(minV, t.y);
+            maxU = Math.max(maxU, t.x);
+            maxV = Math.max(maxV, t.y);
+        }
+        return new double[]{minU, minV, (maxU - minU) / UNORM, (maxV - minV) / UNORM};
+    }
+
+    private static short[] quantizeUvs(List<Vec2> texCoords, double[] range) {
+        short[] uv = new short[texCoords.size() * 2];
+        for (int i = 0; i < texCoords.size(); i++) {
+            Vec2 t = texCoords.get(i);
+            uv[i * 2] = unorm(t.x, range[0], range[2]);
+            uv[i * 2 + 1] = unorm(t.y, range[1], range[3]);
+        }
+        return uv;
+    }
+
+    private static short[] encodeNormals(List<Vec3> normals) {
+        short[] nrm = new short[normals.size() * 2];
+        for (int i = 0; i < normals.size(); i++) {
+            // octahedral: проекция на октаэдр |x|+|y|+|z| = 1, нижняя половина отворачивается наружу
+            Vec3 v = normals.get(i);
+            double l1 = Math.abs(v.x) + Math.abs(v.y) + Math.abs(v.z);
+            double ox = 0.0, oy = 0.0;
+            if (l1 > 1e-12) {
+                ox = v.x / l1;
+                oy = v.y / l1;
+                if (v.z < 0.0) {
+                    double fx = (1.0 - Math.abs(oy)) * signNotZero(ox);
+                    double fy = (1.0 - Math.abs(ox)) * signNotZero(oy);
+                    ox = fx;
+                    oy = fy;
+                }
+            }
+            nrm[i * 2] = snorm(ox);
+            nrm[i * 2 + 1] = snorm(oy);
+        }
+        return nrm;
+    }
+
+    private static short unorm(double value, double origin, double step) {
+        if (step <= 0.0) return 0;
+        long q = Math.round((value - origin) / step);
+        return (short) Math.max(0, Math.min(65535, q));
+    }
+
+    private static short snorm(double value) {
+        return (short) Math.round(Math.max(-1.0, Math.min(1.0, value)) * SNORM);
+    }
+
+    private static double signNotZero(double v) {
+        return (v >= 0.0) ? 1.0 : -1.0;
+    }
+
+    // ---------- распаковка ----------
+
+    /** Вершины [from, to): позиции и нормали подряд в outPos/outNrm с нулевого элемента (как flatPositions). */
+    void decode(int from, int to, double[] outPos, double[] outNrm) {
+        for (int i = from, o = 0; i < to; i++, o += 3) {
+            outPos[o] = originX + (pos[i * 3] & 0xFFFF) * stepX;
+            outPos[o + 1] = originY + (pos[i * 3 + 1] & 0xFFFF) * stepY;
+            outPos[o + 2] = originZ + (pos[i * 3 + 2] & 0xFFFF) * stepZ;
+            decodeNormal(i, outNrm, o);
+        }
+    }
+
+    private void decodeNormal(int i, double[] out, int o) {
+        double x = nrm[i * 2] / SNORM;
+        double y = nrm[i * 2 + 1] / SNORM;
+        double z = 1.0 - Math.abs(x) - Math.abs(y);
+        if (z < 0.0) {
+            double fx = (1.0 - Math.abs(y)) * signNotZero(x);
+            double fy = (1.0 - Math.abs(x)) * signNotZero(y);
+            x = fx;
+            y = fy;
+        }
+        double len = Math.sqrt(x * x + y * y + z * z);
+        out[o] = x / len;
+        out[o + 1] = y / len;
+        out[o + 2] = z / len;
+    }
+
+    Vec3 position(int i) {
+        return new Vec3(
+                originX + (pos[i * 3] & 0xFFFF) * stepX,
+                originY + (pos[i * 3 + 1] & 0xFFFF) * stepY,
+                originZ + (pos[i * 3 + 2] & 0xFFFF) * stepZ);
+    }
+
+    Vec3 normal(int i) {
+        double[] n = new double[3];
+        decodeNormal(i, n, 0);
+        return new Vec3(n[0], n[1], n[2]);
+    }
+
+    Vec2 texCoord(int i) {
+        return new Vec2(uvOriginU + (uv[i * 2] & 0xFFFF) * uvStepU, uvOriginV + (uv[i * 2 + 1] & 0xFFFF) * uvStepV);
+    }
+
+    /** Позиции подряд (x, y, z, ...): свежий массив, не кэшируется. */
+    double[] flatPositions() {
+        double[] p = new double[count * 3];
+        for (int i = 0; i < count * 3; i += 3) {
+            p[i] = originX + (pos[i] & 0xFFFF) * stepX;
+            p[i + 1] = originY + (pos[i + 1] & 0xFFFF) * stepY;
+            p[i + 2] = originZ + (pos[i + 2] & 0xFFFF) * stepZ;
+        }
+        return p;
+    }
+
+    /** Нормали подряд (x, y, z, ...): свежий массив, не кэшируется. */
+    double[] flatNormals() {
+        double[] n = new double[count * 3];
+        for (int i = 0; i < count; i++) decodeNormal(i, n, i * 3);
+        return n;
+    }
+
+    List<Vec3> positions() {
+        return new View<Vec3>() {
+            @Override
+            public Vec3 get(int i) {
+                return position(i);
+            }
+        };
+    }
+
+    List<Vec3> normals() {
+        return new View<Vec3>() {
+            @Override
+            public Vec3 get(int i) {
+                return normal(i);
+            }
+        };
+    }
+
+    List<Vec2> texCoords() {
+        return new View<Vec2>() {
+            @Override
+            public Vec2 get(int i) {
+                return texCoord(i);
+            }
+        };
+    }
+
+    /** Неизменяемый список, который распаковывает элемент при каждом get (объекты не хранятся). */
+    private abstract class View<T> extends AbstractList<T> implements RandomAccess {
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package engine;
+
+/**
+ * Флаг отмены рендера (+ необязательный дедлайн).
+ *
+ * SoftwareRenderer проверяет его пачками (раз в несколько десятков треугольников,
+ * по граням карт теней и т.п.) и, если рендер отменён или время вышло,
+ * бросает RenderCancelledException. Отменить можно из любого потока.
+ */
+public final class RenderCancel {
+
+    private volatile boolean cancelled = false;
+    private final long deadlineNs;
+    private final boolean hasDeadline;
+    private volatile boolean timedOut = false;
+
+    /** Без дедлайна: остановить можно только через cancel(). */
+    public RenderCancel() {
+        this.deadlineNs = 0L;
+        this.hasDeadline = false;
+    }
+
+    /** С дедлайном: рендер прервётся, если идёт дольше budgetNanos (отсчёт — с момента создания). */
+    public RenderCancel(long budgetNanos) {
+        if (budgetNanos <= 0) throw new IllegalArgumentException("budget must be > 0");
+        this.deadlineNs = System.nanoTime() + budgetNanos;
+        this.hasDeadline = true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** true, если рендер прервался именно по дедлайну. */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /** Бросает RenderCancelledException, если пора остановиться. */
+    void check() {
+        if (cancelled) throw new RenderCancelledException("render cancelled");
+        if (hasDeadline && System.nanoTime() - deadlineNs > 0) {
+            timedOut = true;
+            throw new RenderCancelledException("render exceeded its time budget");
+        }
+    }
+}
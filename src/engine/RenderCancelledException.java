@@ -0,0 +1,13 @@
+package engine;
+
+/**
+ * Рендер прерван через RenderCancel (отмена или дедлайн).
+ * Содержимое RenderTarget после этого не определено, но сам target можно рендерить дальше.
+ */
+public final class RenderCancelledException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public RenderCancelledException(String message) {
+        super(message);
+    }
+}
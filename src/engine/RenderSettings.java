@@ -1,6 +1,7 @@
 package engine;
 
 import java.awt.*;
+import java.util.Objects;
 
 /** Набор флагов "как рисовать". */
 public final class RenderSettings {
@@ -8,8 +9,123 @@ public final class RenderSettings {
     public boolean useTexture = false;
     public boolean useLighting = false;
 
+    /** Тени от источников света сцены, у которых включено castsShadows. */
+    public boolean useShadows = true;
+
+    /** MSAA: 1 (выкл), 4 или 8 под-сэмплов на пиксель. */
+    public int msaaSamples = 1;
+
+    /**
+     * Адаптивное разрешение: пока камеру двигают, кадр рендерится в уменьшенном разрешении
+     * (resolutionScale от minResolutionScale до 1), чтобы укладываться в targetFrameMs,
+     * и растягивается на панель. Когда ввод затих — снова полное разрешение.
+     */
+    public boolean adaptiveResolution = true;
+    public double targetFrameMs = 16.0;
+    public double minResolutionScale = 0.25;
+
+    /** Текущий масштаб разрешения рендера (1 — полное). Пишет его ModelPanel. */
+    public double resolutionScale = 1.0;
+
+    /**
+     * Бюджет одного кадра для "сторожа" рендера, мс (0 — без ограничения).
+     * Кадр, который не уложился, прерывается и перерисовывается проще (меньше разрешение, потом только сетка).
+     */
+    public double frameBudgetMs = 250.0;
+
+    /**
+     * Temporal reprojection: брать цвет пикселя из прошлого кадра, если там та же поверхность
+     * (нужен FrameHistory у RenderTarget). Экономит шейдинг при плавном движении камеры.
+     */
+    public boolean temporalReuse = false;
+
+    /**
+     * Кэшировать цвет+глубину статических объектов (нужен LayerCache у RenderTarget):
+     * пока камера стоит и двигают только модель, растеризуется одна модель.
+     */
+    public boolean layerCaching = true;
+
+    /**
+     * Конвейер кадров: вершинный этап следующего кадра считается в отдельном потоке, пока текущий
+     * растеризуется. Больше кадров в секунду на нескольких ядрах, но кадр показывается позже
+     * (задержку видно в RenderMetrics). Только для обычного режима, split-view рисуется как раньше.
+     */
+    public boolean pipelinedFrames = true;
+
+    /**
+     * Отсечение перекрытых объектов при обходе BVH (грубый буфер глубины, см. OcclusionBuffer).
+     * Картинку не меняет, экономит проекцию и растеризацию того, что закрыто ближними объектами.
+     */
+    public boolean occlusionCulling = true;
+
+    /**
+     * Отсечение кластеров треугольников (Meshlets) до проекции вершин: вне пирамиды видимости
+     * или целиком задом к камере. Картинку не меняет, экономит вершинный этап.
+     */
+    public boolean clusterCulling = true;
+
+    /**
+     * Уровни детализации: у меша с цепочкой LOD (MeshLod.buildAsync) далёкие инстансы рисуются
+     * упрощённым уровнем, ошибка которого на экране меньше пикселя.
+     */
+    public boolean levelOfDetail = true;
+
+    /** Доля фонового (ambient) освещения, 0..1. */
+    public double ambient = 0.22;
+
     public Color baseColor = new Color(180, 180, 220);
 
     /** может быть null, если текстуру не загрузили */
     public Texture texture = null;
+
+    /** Материал "заливка цветом + сетка", без света и текстуры (иконки камер и т.п.). */
+    public static RenderSettings wireframe(Color color) {
+        RenderSettings s = new RenderSettings();
+        s.drawWireframe = true;
+        s.useLighting = false;
+        s.useTexture = false;
+        s.baseColor = color;
+        return s;
+    }
+
+    /** Копия всех флагов (texture — та же ссылка). */
+    public RenderSettings copy() {
+        RenderSettings s = new RenderSettings();
+        s.drawWireframe = drawWireframe;
+        s.useTexture = useTexture;
+        s.useLighting = useLighting;
+        s.useShadows = useShadows;
+        s.msaaSamples = msaaSamples;
+        s.adaptiveResolution = adaptiveResolution;
+        s.targetFrameMs = targetFrameMs;
+        s.minResolutionScale = minResolutionScale;
+        s.resolutionScale = resolutionScale;
+        s.frameBudgetMs = frameBudgetMs;
+        s.temporalReuse = temporalReuse;
+        s.layerCaching = layerCaching;
+        s.pipelinedFrames = pipelinedFrames;
+        s.occlusionCulling = occlusionCulling;
+        s.clusterCulling = clusterCulling;
+        s.levelOfDetail = levelOfDetail;
+        s.ambient = ambient;
+        s.baseColor = baseColor;
+        s.texture = texture;
+        return s;
+    }
+
+    /** Те же ли флаги, что у other (для "перерисовывать только если что-то поменялось"). */
+    public boolean sameAs(RenderSettings other) {
+        return other != null
+                && drawWireframe == other.drawWireframe
+                && useTexture == other.useTexture
+                && useLighting == other.useLighting
+                && useShadows == other.useShadows
+                && msaaSamples == other.msaaSamples
+                && resolutionScale == other.resolutionScale
+                && temporalReuse == other.temporalReuse
+                && levelOfDetail == other.levelOfDetail
+                && ambient == other.ambient
+                && Objects.equals(baseColor, other.baseColor)
+                && texture == other.texture;
+    }
 }
@@ -0,0 +1,242 @@
+package engine;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Куда рисует SoftwareRenderer: цвет + z-buffer фиксированного размера.
+ *
+ * Цвет пишется прямо в int[] картинки (без getRGB/setRGB копий), поэтому один
+ * RenderTarget можно переиспользовать от кадра к кадру.
+ *
+ * Без полных очисток каждый кадр:
+ * - у каждого значения глубины есть "штамп" кадра; значение с чужим штампом считается пустым (+inf),
+ *   так что z-buffer вообще не нужно заливать;
+ * - цвет чистится лениво по тайлам TILE x TILE: тайл заливается фоном, только когда в него
+ *   впервые за кадр что-то рисуют (и только если в нём что-то было), а тайлы, где рисовали
+ *   в прошлом кадре, но не в этом, чистятся в endFrame(). Пустые области экрана не трогаются.
+ *
+ * MSAA: при samples > 1 у каждого пикселя есть samples под-сэмплов со своей глубиной
+ * и цветом. Растеризатор считает покрытие по под-сэмплам, а шейдит один раз на пиксель;
+ * endFrame() усредняет под-сэмплы в итоговую картинку.
+ */
+public final class RenderTarget {
+
+    // стандартные позиции сэмплов (как в D3D), в 1/16 пикселя относительно центра
+    private static final int[] PATTERN_4 = { -2, -6, 6, -2, -6, 2, 2, 6 };
+    private static final int[] PATTERN_8 = { 1, -3, -1, 3, 5, 1, -3, -5, -5, 5, -7, -1, 3, 7, 7, -7 };
+
+    private final int width;
+    private final int height;
+    private final int samples;
+
+    private final BufferedImage image;
+
+    /** итоговый цвет (ARGB), это буфер самой картинки */
+    final int[] pixels;
+    /** глубина: width*height*samples, меньше => ближе; валидна, только если depthStamp == frame */
+    final double[] depth;
+    /** номер кадра, в котором записана глубина */
+    final int[] depthStamp;
+    /** цвет под-сэмплов (только при samples > 1, иначе null) */
+    final int[] sampleColor;
+    /** смещения сэмплов от центра пикселя: x0, y0, x1, y1, ... */
+    final double[] sampleOffsets;
+
+    static final int TILE_SHIFT = 4;
+    static final int TILE = 1 << TILE_SHIFT;
+
+    private final int tilesX;
+    /** кадр, в котором тайл уже очищен и в него рисуют */
+    private final int[] tileStamp;
+    /** в тайле есть что-то кроме фона */
+    private final boolean[] tileDirty;
+
+    /** текущий кадр (штамп); 0 зарезервирован под "никогда" */
+    int frame = 0;
+    private int background;
+    private boolean backgroundValid = false;
+
+    private FrameHistory history;
+    private LayerCache layerCache;
+
+    /**
+     * Глубина линий по сэмплам (только у служебного target, в котором строится LayerCache, иначе null).
+     * В обычный z-buffer линии не пишут, а для совмещения слоя их глубина нужна.
+     */
+    double[] lineDepth;
+    int[] lineStamp;
+
+    void enableLineDepth() {
+        if (lineDepth != null) return;
+        lineDepth = new double[depth.length];
+        lineStamp = new int[depth.length];
+    }
+
+    public RenderTarget(int width, int height) {
+        this(width, height, 1);
+    }
+
+    /** samples: 1 (без сглаживания), 4 или 8. */
+    public RenderTarget(int width, int height, int samples) {
+        if (width <= 1 || height <= 1) throw new IllegalArgumentException("bad size");
+        if (samples != 1 && samples != 4 && samples != 8) {
+            throw new IllegalArgumentException("samples must be 1, 4 or 8");
+        }
+        this.width = width;
+        this.height = height;
+        this.samples = samples;
+
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.depth = new double[width * height * samples];
+        this.depthStamp = new int[width * height * samples];
+        this.sampleColor = (samples > 1) ? new int[width * height * samples] : null;
+
+        this.sampleOffsets = new double[samples * 2];
+        int[] pattern = (samples == 4) ? PATTERN_4 : (samples == 8) ? PATTERN_8 : new int[] { 0, 0 };
+        for (int i = 0; i < pattern.length; i++) sampleOffsets[i] = pattern[i] / 16.0;
+
+        this.tilesX = (width + TILE - 1) >> TILE_SHIFT;
+        int tilesY = (height + TILE - 1) >> TILE_SHIFT;
+        this.tileStamp = new int[tilesX * tilesY];
+        this.tileDirty = new boolean[tilesX * tilesY];
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getSamples() { return samples; }
+
+    /** Итоговая картинка (после рендера кадра). */
+    public BufferedImage getImage() { return image; }
+
+    /**
+     * История кадров для temporal reprojection (используется, если включен RenderSettings.temporalReuse).
+     * Один FrameHistory можно отдать нескольким target, которые рисуются по очереди.
+     */
+    public void setHistory(FrameHistory history) { this.history = history; }
+    public FrameHistory getHistory() { return history; }
+
+    /** Кэш статического слоя (используется, если включен RenderSettings.layerCaching). */
+    public void setLayerCache(LayerCache layerCache) { this.layerCache = layerCache; }
+    public LayerCache getLayerCache() { return layerCache; }
+
+    /** Подходит ли target под заданный размер/количество сэмплов (иначе его пора пересоздать). */
+    public boolean matches(int width, int height, int samples) {
+        return this.width == width && this.height == height && this.samples == samples;
+    }
+
+    /**
+     * Скопировать картинку src в этот target в точку (x, y) — например, собрать кадр из нескольких вьюпортов.
+     * Задетые тайлы помечаются "грязными", так что следующий обычный кадр их корректно очистит.
+     */
+    public void blit(RenderTarget src, int x, int y) {
+        if (src == null) throw new NullPointerException("src must not be null");
+        int x0 = Math.max(0, x), y0 = Math.max(0, y);
+        int x1 = Math.min(width, x + src.width), y1 = Math.min(height, y + src.height);
+        if (x0 >= x1 || y0 >= y1) return;
+
+        for (int row = y0; row < y1; row++) {
+            System.arraycopy(src.pixels, (row - y) * src.width + (x0 - x), pixels, row * width + x0, x1 - x0);
+        }
+        for (int ty = y0 >> TILE_SHIFT; ty <= (y1 - 1) >> TILE_SHIFT; ty++) {
+            for (int tx = x0 >> TILE_SHIFT; tx <= (x1 - 1) >> TILE_SHIFT; tx++) {
+                tileDirty[ty * tilesX + tx] = true;
+            }
+        }
+        // под-сэмплы MSAA теперь не совпадают с картинкой — при следующем кадре всё перечистим
+        if (sampleColor != null) backgroundValid = false;
+    }
+
+    /**
+     * Начало кадра: новый штамп глубины. Полная очистка только при переполнении штампа
+     * или смене цвета фона.
+     */
+    void beginFrame(int background) {
+        frame++;
+        if (frame == Integer.MAX_VALUE || !backgroundValid || background != this.background) {
+            Arrays.fill(depthStamp, 0);
+            if (lineStamp != null) Arrays.fill(lineStamp, 0);
+            Arrays.fill(tileStamp, 0);
+            Arrays.fill(tileDirty, false);
+            if (sampleColor != null) Arrays.fill(sampleColor, background);
+            Arrays.fill(pixels, background);
+            this.background = background;
+            this.backgroundValid = true;
+            frame = 1;
+        }
+    }
+
+    /** Пометить пиксели прямоугольника [x0..x1]x[y0..y1] как "сюда рисуют" (координаты уже в пределах экрана). */
+    void touch(int x0, int y0, int x1, int y1) {
+        for (int ty = y0 >> TILE_SHIFT, ty1 = y1 >> TILE_SHIFT; ty <= ty1; ty++) {
+            for (int tx = x0 >> TILE_SHIFT, tx1 = x1 >> TILE_SHIFT; tx <= tx1; tx++) {
+                int t = ty * tilesX + tx;
+                if (tileStamp[t] != frame) openTile(t);
+            }
+        }
+    }
+
+    /** То же для одного пикселя (линии). */
+    void touch(int x, int y) {
+        int t = (y >> TILE_SHIFT) * tilesX + (x >> TILE_SHIFT);
+        if (tileStamp[t] != frame) openTile(t);
+    }
+
+    private void openTile(int t) {
+        if (tileDirty[t]) fillTile(t, background);
+        tileStamp[t] = frame;
+        tileDirty[t] = true;
+    }
+
+    /**
+     * Конец кадра: дочищаем тайлы, где рисовали раньше, но не в этом кадре,
+     * и (для MSAA) усредняем под-сэмплы только в тех тайлах, куда рисовали.
+     */
+    void endFrame() {
+        for (int t = 0; t < tileStamp.length; t++) {
+            if (tileStamp[t] == frame) {
+                if (sampleColor != null) resolveTile(t);
+            } else if (tileDirty[t]) {
+                fillTile(t, background);
+                tileDirty[t] = false;
+            }
+        }
+    }
+
+    private void fillTile(int t, int color) {
+        int x0 = (t % tilesX) << TILE_SHIFT;
+        int y0 = (t / tilesX) << TILE_SHIFT;
+        int x1 = Math.min(width, x0 + TILE);
+        int y1 = Math.min(height, y0 + TILE);
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            Arrays.fill(pixels, row + x0, row + x1, color);
+            if (sampleColor != null) Arrays.fill(sampleColor, (row + x0) * samples, (row + x1) * samples, color);
+        }
+    }
+
+    /** MSAA: усреднить под-сэмплы тайла в итоговые пиксели. */
+    private void resolveTile(int t) {
+        int s = samples;
+        int x0 = (t % tilesX) << TILE_SHIFT;
+        int y0 = (t / tilesX) << TILE_SHIFT;
+        int x1 = Math.min(width, x0 + TILE);
+        int y1 = Math.min(height, y0 + TILE);
+        for (int y = y0; y < y1; y++) {
+            for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                int base = i * s;
+                int a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0; k < s; k++) {
+                    int c = sampleColor[base + k];
+                    a += (c >>> 24) & 255;
+                    r += (c >>> 16) & 255;
+                    g += (c >>> 8) & 255;
+                    b += c & 255;
+                }
+                pixels[i] = ((a / s) << 24) | ((r / s) << 16) | ((g / s) << 8) | (b / s);
+            }
+        }
+    }
+}
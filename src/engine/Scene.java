@@ -4,11 +4,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-/** Сцена с несколькими камерами. */
+/** Сцена с несколькими камерами, источниками света и графом объектов (getRoot). */
 public final class Scene {
     private final List<Camera> cameras = new ArrayList<>();
+    private final List<Light> lights = new ArrayList<>();
+    private final SceneNode root = new SceneNode("root");
     private int activeIndex = 0;
 
+    // растёт при изменении состава сцены (камеры/свет/активная камера)
+    private int version = 0;
+
     public Scene() {
         // по умолчанию одна камера
         cameras.add(new Camera());
@@ -29,23 +34,68 @@ public final class Scene {
 
     public void setActiveIndex(int idx) {
         if (cameras.isEmpty()) { activeIndex = 0; return; }
-        activeIndex = Math.max(0, Math.min(idx, cameras.size() - 1));
+        int i = Math.max(0, Math.min(idx, cameras.size() - 1));
+        if (i != activeIndex) version++;
+        activeIndex = i;
+    }
+
+    /** Корень графа сцены: сюда добавляются объекты (SceneNode) с мешами. */
+    public SceneNode getRoot() {
+        return root;
+    }
+
+    /**
+     * "Версия" всего, что влияет на картинку со стороны сцены: состав + версии камер, света и графа.
+     * Меняется при любом изменении, так что UI может перерисовывать кадр только когда она другая.
+     */
+    public long getStateVersion() {
+        long v = (long) version << 32;
+        for (Camera c : cameras) v += c.getVersion();
+        for (Light l : lights) v += l.getVersion();
+        v += root.getVersion();
+        return v;
     }
 
     public void addCamera(Camera c) {
         if (c == null) throw new NullPointerException("camera must not be null");
         cameras.add(c);
         if (cameras.size() == 1) activeIndex = 0;
+        version++;
     }
 
     public void removeCamera(int idx) {
         if (cameras.isEmpty()) return;
         if (idx < 0 || idx >= cameras.size()) return;
         cameras.remove(idx);
+        version++;
         if (cameras.isEmpty()) {
             activeIndex = 0;
             return;
         }
         if (activeIndex >= cameras.size()) activeIndex = cameras.size() - 1;
     }
+
+    /**
+     * Источники света. Если список пуст, рендерер светит "фонариком" из позиции камеры
+     * (как было раньше).
+     */
+    public List<Light> getLights() {
+        return Collections.unmodifiableList(lights);
+    }
+
+    public void addLight(Light l) {
+        if (l == null) throw new NullPointerException("light must not be null");
+        lights.add(l);
+        version++;
+    }
+
+    public void removeLight(Light l) {
+        if (lights.remove(l)) version++;
+    }
+
+    public void clearLights() {
+        if (lights.isEmpty()) return;
+        lights.clear();
+        version++;
+    }
 }
@@ -0,0 +1,240 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Узел графа сцены: локальный Transform (относительно родителя), дети и, если есть, меш.
+ *
+ * Мировая матрица = world(родителя) * local. Она кэшируется и считается лениво (getWorldMatrix);
+ * изменение узла помечает "грязным" только его поддерево, а пометка останавливается на узлах,
+ * которые уже грязные. Поэтому сдвиг корня сборки из 10K деталей — это 10K пометок и пересчёт
+ * только тех матриц, которые реально спросили, а сдвиг одной детали — одна матрица.
+ *
+ * Для рендера граф записывается в CommandList (record) и дальше синхронизируется (sync):
+ * sync заходит только в ветки, где что-то менялось, и патчит матрицы их команд.
+ *
+ * Transform наружу отдаётся копией: менять узел можно только через его методы,
+ * иначе кэш не узнает об изменении. Не потокобезопасный — меняется из одного потока (EDT).
+ */
+public final class SceneNode {
+
+    private final String name;
+    private Mesh mesh; // null — просто группа
+    private final Transform local = new Transform();
+
+    private SceneNode parent;
+    private final List<SceneNode> children = new ArrayList<>();
+
+    // кэш мировой матрицы; dirty => и у всех потомков dirty
+    private Mat4 world;
+    private boolean dirty = true;
+
+    // для sync: матрица команды устарела / где-то ниже есть устаревшие
+    private boolean commandStale = true;
+    private boolean staleBelow = false;
+    private int commandIndex = -1;
+
+    // ведутся только у корня: любое изменение графа / изменение состава (узлы, меши)
+    private int version = 0;
+    private int structureVersion = 0;
+
+    public SceneNode(String name) {
+        this(name, null);
+    }
+
+    public SceneNode(String name, Mesh mesh) {
+        if (name == null) throw new NullPointerException("name must not be null");
+        this.name = name;
+        this.mesh = mesh;
+    }
+
+    public String getName() { return name; }
+    public Mesh getMesh() { return mesh; }
+    public SceneNode getParent() { return parent; }
+
+    public List<SceneNode> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public void setMesh(Mesh mesh) {
+        if (this.mesh == mesh) return;
+        this.mesh = mesh;
+        structureChanged();
+    }
+
+    // ---------- иерархия ----------
+
+    /** Добавить ребёнка (если он был в другом месте графа — переносится сюда). */
+    public void addChild(SceneNode child) {
+        if (child == null) throw new NullPointerException("child must not be null");
+        for (SceneNode p = this; p != null; p = p.parent) {
+            if (p == child) throw new IllegalArgumentException("cycle: " + child.name + " is an ancestor of " + name);
+        }
+        if (child.parent != null) child.parent.removeChild(child);
+
+        child.parent = this;
+        children.add(child);
+        child.markDirty();
+        structureChanged();
+    }
+
+    public boolean removeChild(SceneNode child) {
+        if (child == null || child.parent != this) return false;
+        structureChanged();
+        children.remove(child);
+        child.parent = null;
+        child.markDirty();
+        return true;
+    }
+
+    /** Корень графа, в котором сейчас узел. */
+    public SceneNode getRoot() {
+        SceneNode n = this;
+        while (n.parent != null) n = n.parent;
+        return n;
+    }
+
+    // ---------- локальный Transform ----------
+
+    /** Копия локального Transform (менять узел — через setPosition/rotate/...). */
+    public Transform getTransform() { return local.copy(); }
+
+    public Vec3 getPosition() { return local.getPosition(); }
+    public Vec3 getRotation() { return local.getRotation(); }
+    public Vec3 getScale() { return local.getScale(); }
+
+    public void setPosition(Vec3 p) {
+        if (p == null) throw new NullPointerException("position must not be null");
+        local.setPosition(p);
+        changed();
+    }
+
+    public void setRotation(Vec3 r) {
+        if (r == null) throw new NullPointerException("rotation must not be null");
+        local.setRotation(r);
+        changed();
+    }
+
+    public void setScale(Vec3 s) {
+        if (s == null) throw new NullPointerException("scale must not be null");
+        local.setScale(s);
+        changed();
+    }
+
+    public void translate(Vec3 delta) {
+        local.translate(delta);
+        changed();
+    }
+
+    public void rotate(Vec3 deltaRadians) {
+        local.rotate(deltaRadians);
+        changed();
+    }
+
+    public void scaleBy(Vec3 factor) {
+        local.scaleBy(factor);
+        changed();
+    }
+
+    /** Скопировать в узел значения из t. */
+    public void setTransform(Transform t) {
+        if (t == null) throw new NullPointerException("transform must not be null");
+        local.setPosition(t.getPosition());
+        local.setRotation(t.getRotation());
+        local.setScale(t.getScale());
+        changed();
+    }
+
+    public Mat4 getLocalMatrix() {
+        return local.toMatrix();
+    }
+
+    /** world = world(родителя) * local. Пересчитывается, только если узел (или кто-то выше) менялся. */
+    public Mat4 getWorldMatrix() {
+        if (dirty) {
+            Mat4 l = local.toMatrix();
+            world = (parent == null) ? l : parent.getWorldMatrix().multiply(l);
+            dirty = false;
+        }
+        return world;
+    }
+
+    // ---------- версии (для UI: "перерисовать ли кадр") ----------
+
+    /** Растёт при любом изменении графа под корнем (имеет смысл у корня). */
+    public int getVersion() { return getRoot().version; }
+
+    /** Растёт, когда добавили/убрали узлы или сменили меш: записанные команды пора перезаписать. */
+    public int getStructureVersion() { return getRoot().structureVersion; }
+
+    // ---------- команды рендера ----------
+
+    /**
+     * Записать в list команды всех узлов поддерева с мешем (addModel с мировой матрицей).
+     * Номера команд запоминаются в узлах — дальше их патчит sync(list).
+     */
+    public void record(CommandList list) {
+        if (list == null) throw new NullPointerException("list must not be null");
+        commandIndex = (mesh == null) ? -1 : list.addModel(mesh, getWorldMatrix());
+        commandStale = false;
+        staleBelow = false;
+        for (SceneNode c : children) c.record(list);
+    }
+
+    /**
+     * Обновить матрицы команд, записанных record(list), — заходит только в изменённые ветки.
+     * Если менялась структура (getStructureVersion), нужно не sync, а заново record.
+     */
+    public void sync(CommandList list) {
+        if (list == null) throw new NullPointerException("list must not be null");
+        if (!commandStale && !staleBelow) return;
+        if (commandStale) {
+            if (commandIndex >= 0) list.setMatrix(commandIndex, getWorldMatrix());
+            commandStale = false;
+        }
+        staleBelow = false;
+        for (SceneNode c : children) c.sync(list);
+    }
+
+    /** Обойти все узлы поддерева с мешем (например, чтобы собрать ModelInstance). */
+    public void forEachMesh(BiConsumer<Mesh, Mat4> action) {
+        if (mesh != null) action.accept(mesh, getWorldMatrix());
+        for (SceneNode c : children) c.forEachMesh(action);
+    }
+
+    // ---------- внутреннее ----------
+
+    private void changed() {
+        markDirty();
+        touchAncestors();
+    }
+
+    private void structureChanged() {
+        getRoot().structureVersion++;
+        touchAncestors();
+    }
+
+    // вниз — пометить поддерево; на уже помеченных останавливаемся (их потомки помечены и так)
+    private void markDirty() {
+        if (dirty && commandStale) return;
+        dirty = true;
+        commandStale = true;
+        for (SceneNode c : children) c.markDirty();
+    }
+
+    // вверх — чтобы sync знал, в какие ветки заходить, и у корня сменилась версия
+    private void touchAncestors() {
+        SceneNode n = this;
+        while (n.parent != null) {
+            n = n.parent;
+            n.staleBelow = true;
+        }
+        n.version++;
+    }
+}
@@ -0,0 +1,180 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+import math.Vec4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Карта теней одного источника света.
+ *
+ * DIRECTIONAL — одна ортографическая "грань", натянутая на bounding sphere всех отбрасывающих тень объектов.
+ * POINT — 6 перспективных граней по 90° (cube map), far = радиус света.
+ *
+ * Глубина рисуется depth-only путём SoftwareRenderer (без цвета и шейдинга).
+ * Карта кэшируется в самом Light и перестраивается только когда поменялся свет
+ * или команды-кастеры (их матрицы / состав).
+ */
+final class ShadowMap {
+
+    private static final double POINT_NEAR = 0.05;
+
+    final int size;
+    final boolean perspective;
+    final double[][] viewProj; // по граням, row-major 4x4
+    final float[][] depth;     // по граням, size*size, [0..1], меньше => ближе к свету
+
+    private final double near, far;
+    private final double normalOffset; // directional: в world units; point: на единицу расстояния
+
+    // ключ кэша
+    private final int lightVersion;
+    private final DrawCommand[] casters;
+
+    private ShadowMap(Light light, List<DrawCommand> casters, int faces,
+                      double near, double far, double normalOffset) {
+        this.size = light.getShadowMapSize();
+        this.perspective = light.getType() == Light.Type.POINT;
+        this.viewProj = new double[faces][];
+        this.depth = new float[faces][];
+        this.near = near;
+        this.far = far;
+        this.normalOffset = normalOffset;
+
+        this.lightVersion = light.getVersion();
+        this.casters = casters.toArray(new DrawCommand[0]);
+    }
+
+    /** true, если карта всё ещё соответствует свету и кастерам (ничего не двигалось). */
+    boolean isUpToDate(Light light, List<DrawCommand> casters) {
+        if (light.getVersion() != lightVersion || light.getShadowMapSize() != size) return false;
+        if (casters.size() != this.casters.length) return false;
+        // DrawCommand.sameAs: обычно просто та же ссылка (команда не менялась)
+        for (int i = 0; i < this.casters.length; i++) {
+            if (!casters.get(i).sameAs(this.casters[i])) return false;
+        }
+        return true;
+    }
+
+    /** cancel может быть null; при отмене бросает RenderCancelledException (старая карта в Light остаётся). */
+    static ShadowMap build(Light light, List<DrawCommand> casters, RenderCancel cancel) {
+        ShadowMap sm;
+        Mat4[] vps;
+        if (light.getType() == Light.Type.POINT) {
+            double far = light.getRadius();
+            // texel в world units на расстоянии d: 2*d*tan(45°)/size
+            sm = new ShadowMap(light, casters, 6, POINT_NEAR, far, 1.5 * 2.0 / light.getShadowMapSize());
+            Mat4 proj = Mat4.perspective(Math.PI / 2.0, 1.0, POINT_NEAR, far);
+            Vec3 eye = light.getPosition();
+            vps = new Mat4[6];
+            for (int f = 0; f < 6; f++) {
+                vps[f] = proj.multiply(Camera.lookAt(eye, eye.add(FACE_DIRS[f]), FACE_UPS[f]));
+            }
+        } else {
+            // сфера вокруг всех кастеров
+            Vec3 min = new Vec3(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+            Vec3 max = new Vec3(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+            for (DrawCommand m : casters) {
+                Mat4 model = m.getModelMatrix();
+                Vec3 bmin = m.getMesh().getBoundsMin();
+                Vec3 bmax = m.getMesh().getBoundsMax();
+                for (int k = 0; k < 8; k++) {
+                    Vec3 c = new Vec3((k & 1) == 0 ? bmin.x : bmax.x, (k & 2) == 0 ? bmin.y : bmax.y, (k & 4) == 0 ? bmin.z : bmax.z);
+                    Vec4 w = model.multiply(Vec4.point(c));
+                    min = new Vec3(Math.min(min.x, w.x), Math.min(min.y, w.y), Math.min(min.z, w.z));
+                    max = new Vec3(Math.max(max.x, w.x), Math.max(max.y, w.y), Math.max(max.z, w.z));
+                }
+            }
+            Vec3 center = casters.isEmpty() ? Vec3.ZERO : min.add(max).scale(0.5);
+            double r = casters.isEmpty() ? 1.0 : Math.max(1e-3, max.sub(min).length() * 0.5);
+
+            sm = new ShadowMap(light, casters, 1, 0.0, 2.0 * r, 1.5 * 2.0 * r / light.getShadowMapSize());
+            Vec3 dir = light.getDirection();
+            Vec3 up = Math.abs(dir.y) > 0.99 ? new Vec3(0, 0, 1) : new Vec3(0, 1, 0);
+            Vec3 eye = center.sub(dir.scale(r));
+            Mat4 view = Camera.lookAt(eye, center, up);
+            Mat4 proj = Mat4.orthographic(-r, r, -r, r, 0.0, 2.0 * r);
+            vps = new Mat4[] { proj.multiply(view) };
+        }
+
+        for (int f = 0; f < sm.depth.length; f++) {
+            float[] d = new float[sm.size * sm.size];
+            Arrays.fill(d, Float.POSITIVE_INFINITY);
+            Mat4 vp = vps[f];
+            sm.viewProj[f] = vp.toRowMajorArray();
+            for (DrawCommand m : casters) {
+                Mat4 mvp = vp.multiply(m.getModelMatrix());
+                SoftwareRenderer.renderDepth(m.getMesh(), mvp, d, sm.size, cancel);
+            }
+            sm.depth[f] = d;
+        }
+        return sm;
+    }
+
+    /**
+     * Видимость точки p (с нормалью n) для света: 1 — освещена, 0 — в тени.
+     * lx, ly, lz — позиция света (для POINT, чтобы выбрать грань куба).
+     */
+    double visibility(double x, double y, double z, double nx, double ny, double nz,
+                      double lx, double ly, double lz) {
+        int face = 0;
+        double offset = normalOffset;
+        if (perspective) {
+            double vx = x - lx, vy = y - ly, vz = z - lz;
+            double ax = Math.abs(vx), ay = Math.abs(vy), az = Math.abs(vz);
+            if (ax >= ay && ax >= az) face = vx > 0 ? 0 : 1;
+            else if (ay >= az) face = vy > 0 ? 2 : 3;
+            else face = vz > 0 ? 4 : 5;
+            offset *= Math.sqrt(vx * vx + vy * vy + vz * vz);
+        }
+
+        // normal offset против "shadow acne"
+        double qx = x + nx * offset, qy = y + ny * offset, qz = z + nz * offset;
+
+        double[] m = viewProj[face];
+        double cx = m[0] * qx + m[1] * qy + m[2] * qz + m[3];
+        double cy = m[4] * qx + m[5] * qy + m[6] * qz + m[7];
+        double cz = m[8] * qx + m[9] * qy + m[10] * qz + m[11];
+        double cw = m[12] * qx + m[13] * qy + m[14] * qz + m[15];
+        if (cw <= 1e-12) return 1.0;
+
+        double ndcX = cx / cw, ndcY = cy / cw, ndcZ = cz / cw;
+        if (ndcZ > 1.0) return 1.0; // за дальней плоскостью — тени нет (свет туда и так не достаёт)
+
+        int ix = (int) ((ndcX + 1.0) * 0.5 * size);
+        int iy = (int) ((1.0 - (ndcY + 1.0) * 0.5) * size);
+        if (ix < 0 || iy < 0 || ix >= size || iy >= size) return 1.0;
+
+        float stored = depth[face][iy * size + ix];
+        if (stored == Float.POSITIVE_INFINITY) return 1.0;
+
+        double receiver = (ndcZ + 1.0) * 0.5;
+        if (perspective) {
+            // сравниваем в линейной глубине, с небольшим относительным bias
+            double dr = linearDepth(receiver);
+            double ds = linearDepth(stored);
+            return dr > ds * 1.01 ? 0.0 : 1.0;
+        }
+        return receiver - 1e-3 > stored ? 0.0 : 1.0;
+    }
+
+    /** depth [0..1] перспективной грани -> расстояние вдоль оси грани. */
+    private double linearDepth(double d) {
+        double ndc = d * 2.0 - 1.0;
+        return 2.0 * near * far / ((far + near) - ndc * (far - near));
+    }
+
+    private static final Vec3[] FACE_DIRS = {
+            new Vec3(1, 0, 0), new Vec3(-1, 0, 0),
+            new Vec3(0, 1, 0), new Vec3(0, -1, 0),
+            new Vec3(0, 0, 1), new Vec3(0, 0, -1)
+    };
+
+    private static final Vec3[] FACE_UPS = {
+            new Vec3(0, 1, 0), new Vec3(0, 1, 0),
+            new Vec3(0, 0, 1), new Vec3(0, 0, 1),
+            new Vec3(0, 1, 0), new Vec3(0, 1, 0)
+    };
+}
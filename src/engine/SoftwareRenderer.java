@@ -7,20 +7,57 @@ import math.Vec4;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * Простой софтверный рендерер:
  * - треугольники
  * - z-buffer
  * - режимы: базовый цвет / текстура / освещение / wireframe поверх
+ * - много источников света (Light) с тайловой раскладкой по экрану (LightTiles)
+ * - тени: кэшируемые карты теней (ShadowMap), которые рисуются depth-only путём
+ * - MSAA: покрытие по 4/8 под-сэмплам, шейдинг один раз на пиксель (RenderTarget)
+ * - без полных очисток кадра: z-buffer со штампами кадра, ленивая очистка цвета по тайлам
+ * - temporal reprojection: цвет пикселя можно взять из прошлого кадра (FrameHistory), если там та же поверхность
+ * - кэш статического слоя (LayerCache): если двигается только модель, остальное не перерисовывается
+ * - отмена долгого рендера (RenderCancel), проверяется пачками по CANCEL_BATCH треугольников
+ * - retained-mode: рисуем список команд (DrawCommand / CommandList), ближние объекты первыми
+ * - отсечение объектов по BVH (InstanceBvh): пирамида видимости + грубый буфер перекрытия (OcclusionBuffer)
+ * - инстансинг: много команд с одним мешем (CommandList.addInstances) делят подготовку меша,
+ *   вершинный этап пачек видимых команд идёт параллельно
  *
- * Без отсечения/клиппинга и без супер-оптимизаций (уровень "2 курс").
+ * Без клиппинга треугольников и без супер-оптимизаций (уровень "2 курс").
  */
 public final class SoftwareRenderer {
 
+    static final double FOV_Y = Math.toRadians(60);
+    static final double Z_NEAR = 0.1;
+    static final double Z_FAR = 200.0;
+
+    private static final int BACKGROUND = new Color(40, 40, 40).getRGB();
+
+    // как часто проверяем отмену: раз в столько треугольников / рёбер / вершин
+    private static final int CANCEL_BATCH = 64;
+
+    // сжатый меш (Mesh.compact()) распаковываем в toWorld кусками по столько вершин
+    private static final int DECODE_BLOCK = 1024;
+
+    // вершинный этап пачки команд параллелим, только если ядер больше одного и вершин в пачке хватает,
+    // чтобы окупить раздачу по потокам
+    private static final int PARALLELISM = ForkJoinPool.getCommonPoolParallelism();
+    private static final int PARALLEL_MIN_VERTICES = 16_384;
+
+    // иконки камер в старом API (extraInstances): только сетка поверх заливки
+    private static final RenderSettings ICON_MATERIAL = RenderSettings.wireframe(new Color(255, 230, 120));
+
     private SoftwareRenderer() {}
 
+    /** Рендер без источников света сцены: освещение "фонариком" из камеры. */
     public static BufferedImage render(
             ModelInstance model,
             List<ModelInstance> extraInstances,
@@ -28,92 +65,608 @@ public final class SoftwareRenderer {
             RenderSettings settings,
             int width,
             int height
+    ) {
+        return render(model, extraInstances, camera, null, settings, width, height);
+    }
+
+    /**
+     * lights — источники света сцены (может быть null/пусто => свет из позиции камеры).
+     */
+    public static BufferedImage render(
+            ModelInstance model,
+            List<ModelInstance> extraInstances,
+            Camera camera,
+            List<Light> lights,
+            RenderSettings settings,
+            int width,
+            int height
     ) {
         if (width <= 1 || height <= 1) throw new IllegalArgumentException("bad size");
-        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        RenderTarget target = new RenderTarget(width, height, settings.msaaSamples);
+        render(target, model, extraInstances, camera, lights, settings);
+        return target.getImage();
+    }
 
-        // zBuffer: меньше => ближе. Начинаем с +inf
-        double[] z = new double[width * height];
-        for (int i = 0; i < z.length; i++) z[i] = Double.POSITIVE_INFINITY;
+    /**
+     * Рендер в готовый RenderTarget (его можно переиспользовать между кадрами).
+     * Количество MSAA-сэмплов берётся из самого target.
+     */
+    public static void render(
+            RenderTarget target,
+            ModelInstance model,
+            List<ModelInstance> extraInstances,
+            Camera camera,
+            List<Light> lights,
+            RenderSettings settings
+    ) {
+        render(target, model, extraInstances, camera, lights, settings, null);
+    }
+
+    /**
+     * То же, но с возможностью прервать рендер (cancel может быть null).
+     * При отмене/дедлайне бросает RenderCancelledException; картинка в target тогда недорисована.
+     */
+    public static void render(
+            RenderTarget target,
+            ModelInstance model,
+            List<ModelInstance> extraInstances,
+            Camera camera,
+            List<Light> lights,
+            RenderSettings settings,
+            RenderCancel cancel
+    ) {
+        render(target, commandsOf(model, extraInstances), camera, lights, settings, cancel);
+    }
 
-        // background
-        int bg = new Color(40, 40, 40).getRGB();
-        int[] pixels = img.getRGB(0, 0, width, height, null, 0, width);
-        for (int i = 0; i < pixels.length; i++) pixels[i] = bg;
+    /**
+     * Рендер списка команд (снимок CommandList). Команды без своего материала рисуются с settings.
+     * cancel может быть null.
+     */
+    public static void render(
+            RenderTarget target,
+            List<DrawCommand> commands,
+            Camera camera,
+            List<Light> lights,
+            RenderSettings settings,
+            RenderCancel cancel
+    ) {
+        if (target == null) throw new NullPointerException("target must not be null");
+        WorldStage stage = prepare(commands, lights, settings, cancel);
+        render(target, stage, commands, camera, cancel);
+    }
+
+    /**
+     * Подготовить общую для всех камер часть кадра: мировые вершины/нормали команд и карты теней.
+     * Дальше render(target, stage, ...) можно звать для нескольких камер,
+     * в том числе из разных потоков (каждый со своим target).
+     */
+    public static WorldStage prepare(
+            List<DrawCommand> commands,
+            List<Light> lights,
+            RenderSettings settings,
+            RenderCancel cancel
+    ) {
+        if (settings == null) throw new NullPointerException("settings must not be null");
+        if (commands == null) commands = List.of();
+        if (lights != null && !lights.isEmpty() && settings.useLighting && settings.useShadows) {
+            updateShadowMaps(lights, commands, cancel);
+        }
+        // у команд, которые не менялись с прошлого кадра, вершины уже посчитаны;
+        // инстансы своих не хранят — им их посчитает проекция
+        for (DrawCommand c : commands) if (c.keepsWorld()) c.world(cancel);
+        return new WorldStage(commands, null, lights, settings);
+    }
+
+    /**
+     * То же для команд с BVH (CommandList.bvh()). Мировые вершины здесь не считаются:
+     * project() посчитает их только для того, что реально видно, — невидимым объектам этот этап не нужен.
+     */
+    public static WorldStage prepare(
+            InstanceBvh scene,
+            List<Light> lights,
+            RenderSettings settings,
+            RenderCancel cancel
+    ) {
+        if (scene == null) throw new NullPointerException("scene must not be null");
+        if (settings == null) throw new NullPointerException("settings must not be null");
+        List<DrawCommand> commands = scene.getCommands();
+        if (lights != null && !lights.isEmpty() && settings.useLighting && settings.useShadows) {
+            updateShadowMaps(lights, commands, cancel);
+        }
+        return new WorldStage(commands, scene, lights, settings);
+    }
+
+    /**
+     * Рендер одной камеры по готовому WorldStage. commands — что видно этой камерой
+     * (подмножество команд из prepare; null — все).
+     */
+    public static void render(
+            RenderTarget target,
+            WorldStage stage,
+            List<DrawCommand> commands,
+            Camera camera,
+            RenderCancel cancel
+    ) {
+        if (target == null) throw new NullPointerException("target must not be null");
+        ViewGeometry geometry = project(stage, commands, camera, target.getWidth(), target.getHeight(), cancel);
+        raster(target, geometry, cancel);
+    }
+
+    /** Рендер одной камеры по WorldStage: все команды, кроме hidden (например, иконки самой камеры). */
+    public static void renderExcept(
+            RenderTarget target,
+            WorldStage stage,
+            List<DrawCommand> hidden,
+            Camera camera,
+            RenderCancel cancel
+    ) {
+        if (target == null) throw new NullPointerException("target must not be null");
+        ViewGeometry geometry = projectExcept(stage, hidden, camera, target.getWidth(), target.getHeight(), cancel);
+        raster(target, geometry, cancel);
+    }
+
+    /**
+     * Вершинный этап одной камеры: экранные координаты вершин, backface culling, свет по тайлам.
+     * Target не нужен (только его размер), так что этот этап можно делать в другом потоке,
+     * пока предыдущий кадр ещё растеризуется.
+     */
+    public static ViewGeometry project(
+            WorldStage stage,
+            List<DrawCommand> commands,
+            Camera camera,
+            int width,
+            int height,
+            RenderCancel cancel
+    ) {
+        if (stage == null) throw new NullPointerException("stage must not be null");
+        if (commands == null) commands = stage.commands;
+        // весь список сцены с BVH — обходим дерево, а не перебираем команды
+        boolean useBvh = stage.bvh != null && commands == stage.commands;
+        return projectView(stage, useBvh ? null : commands, List.of(), camera, width, height, cancel);
+    }
+
+    /** project() для всех команд WorldStage, кроме hidden. */
+    public static ViewGeometry projectExcept(
+            WorldStage stage,
+            List<DrawCommand> hidden,
+            Camera camera,
+            int width,
+            int height,
+            RenderCancel cancel
+    ) {
+        if (stage == null) throw new NullPointerException("stage must not be null");
+        if (hidden == null) hidden = List.of();
+        if (stage.bvh != null) return projectView(stage, null, hidden, camera, width, height, cancel);
+        return projectView(stage, without(stage.commands, hidden), List.of(), camera, width, height, cancel);
+    }
+
+    /** commands == null — видимое выбирается обходом stage.bvh (и без hidden), иначе рисуются ровно commands. */
+    private static ViewGeometry projectView(
+            WorldStage stage,
+            List<DrawCommand> commands,
+            List<DrawCommand> hidden,
+            Camera camera,
+            int width,
+            int height,
+            RenderCancel cancel
+    ) {
+        if (width <= 1 || height <= 1) throw new IllegalArgumentException("bad size");
+        List<DrawCommand> all = (commands != null) ? commands : stage.commands;
+        List<Light> lights = stage.lights;
+        RenderSettings settings = stage.settings;
 
         if (camera == null) {
-            img.setRGB(0, 0, width, height, pixels, 0, width);
-            return img;
+            return new ViewGeometry(stage, all, hidden, null, width, height, null, null, null,
+                    new ViewGeometry.Projected[0], new ViewGeometry.Projected[0]);
         }
 
         // матрицы
         Mat4 view = camera.getViewMatrix();
-        Mat4 proj = Mat4.perspective(Math.toRadians(60), (double) width / (double) height, 0.1, 200.0);
+        Mat4 proj = Mat4.perspective(FOV_Y, (double) width / (double) height, Z_NEAR, Z_FAR);
+        Mat4 viewProj = proj.multiply(view);
 
-        if (model != null) {
-            drawInstance(model, camera, view, proj, settings, width, height, pixels, z);
+        // раскладываем свет по тайлам один раз на кадр
+        LightTiles tiles = null;
+        if (lights != null && !lights.isEmpty() && settings.useLighting) {
+            // карты теней уже обновлены в prepare()
+            tiles = new LightTiles(lights, settings.useShadows, view, proj, Z_NEAR, width, height);
         }
 
-        if (extraInstances != null) {
-            for (ModelInstance inst : extraInstances) {
-                if (inst == null) continue;
-                // для камер-иконок всегда wireframe
-                RenderSettings s = new RenderSettings();
-                s.drawWireframe = true;
-                s.useLighting = false;
-                s.useTexture = false;
-                s.baseColor = new Color(255, 230, 120);
-                drawInstance(inst, camera, view, proj, s, width, height, pixels, z);
-            }
+        if (commands == null) {
+            return projectVisible(stage, hidden, camera, width, height, view, proj, viewProj, tiles, cancel);
         }
 
-        img.setRGB(0, 0, width, height, pixels, 0, width);
-        return img;
+        // статические объекты (иконки камер) не меняются, когда двигают модель — их можно брать из LayerCache
+        List<DrawCommand> dynamic = new ArrayList<>();
+        List<DrawCommand> statics = new ArrayList<>();
+        for (DrawCommand c : commands) (c.isStatic() ? statics : dynamic).add(c);
+        sortFrontToBack(dynamic, view);
+        sortFrontToBack(statics, view);
+
+        return new ViewGeometry(stage, commands, hidden, camera, width, height, view, proj, tiles,
+                projectAll(dynamic, viewProj, camera.getPosition(), width, height, settings, cancel),
+                projectAll(statics, viewProj, camera.getPosition(), width, height, settings, cancel));
     }
 
-    private static void drawInstance(
-            ModelInstance instance,
+    /** Видимая команда при обходе BVH: порядок в кадре — по глубине, при равной — как в списке команд. */
+    private static final class Visible {
+        final ViewGeometry.Projected projected;
+        final int index;
+        final double depth;
+
+        Visible(ViewGeometry.Projected projected, int index, double depth) {
+            this.projected = projected;
+            this.index = index;
+            this.depth = depth;
+        }
+    }
+
+    private static final Comparator<Visible> FRONT_TO_BACK =
+            Comparator.<Visible>comparingDouble(v -> v.depth).thenComparingInt(v -> v.index);
+
+    /**
+     * Вершинный этап через BVH: проецируются только команды, чьи AABB в пирамиде видимости и не закрыты
+     * уже спроецированными ближними объектами (OcclusionBuffer). Остальные даже мировые вершины не считают.
+     * Порядок кадра тот же, что у sortFrontToBack по всему списку, так что картинка та же.
+     */
+    private static ViewGeometry projectVisible(
+            WorldStage stage,
+            List<DrawCommand> hidden,
             Camera camera,
+            int width,
+            int height,
             Mat4 view,
             Mat4 proj,
+            Mat4 viewProj,
+            LightTiles tiles,
+            RenderCancel cancel
+    ) {
+        List<DrawCommand> all = stage.commands;
+        RenderSettings settings = stage.settings;
+        Vec3 eye = camera.getPosition();
+        OcclusionBuffer occlusion = settings.occlusionCulling ? new OcclusionBuffer(viewProj, width, height) : null;
+        List<Visible> dynamic = new ArrayList<>();
+        List<Visible> statics = new ArrayList<>();
+
+        // видимые команды проецируются пачками (на нескольких ядрах — параллельно, см. projectBatch);
+        // перекрытие копится после каждой пачки, так что внутри пачки оно просто слабее, но не неверное
+        int wave = (PARALLELISM > 1) ? PARALLELISM * 4 : 1;
+        List<DrawCommand> batch = new ArrayList<>(wave);
+        int[] batchIndex = new int[wave];
+
+        Runnable flush = () -> {
+            ViewGeometry.Projected[] projected = projectBatch(batch, viewProj, eye, width, height, settings, cancel);
+            for (int i = 0; i < projected.length; i++) {
+                DrawCommand c = batch.get(i);
+                ViewGeometry.Projected p = projected[i];
+                (c.isStatic() ? statics : dynamic).add(new Visible(p, batchIndex[i], viewDepth(c, view)));
+
+                // перекрывать другие может только то, что заливается (сетка без заливки — нет)
+                RenderSettings s = (c.getMaterial() != null) ? c.getMaterial() : settings;
+                if (occlusion != null && fills(s)) occlusion.add(p, p.mesh.indices());
+            }
+            batch.clear();
+        };
+
+        stage.bvh.traverse(InstanceBvh.frustumPlanes(viewProj), eye, new InstanceBvh.Visitor() {
+            @Override
+            public boolean occluded(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+                return occlusion != null && occlusion.occluded(minX, minY, minZ, maxX, maxY, maxZ);
+            }
+
+            @Override
+            public void visit(int index) {
+                DrawCommand c = all.get(index);
+                if (hidden.contains(c)) return;
+                if (cancel != null) cancel.check();
+                batchIndex[batch.size()] = index;
+                batch.add(c);
+                if (batch.size() == wave) flush.run();
+            }
+        });
+        if (!batch.isEmpty()) flush.run();
+
+        return new ViewGeometry(stage, all, hidden, camera, width, height, view, proj, tiles,
+                frontToBack(dynamic), frontToBack(statics));
+    }
+
+    private static ViewGeometry.Projected[] frontToBack(List<Visible> visible) {
+        visible.sort(FRONT_TO_BACK);
+        ViewGeometry.Projected[] r = new ViewGeometry.Projected[visible.size()];
+        for (int i = 0; i < r.length; i++) r[i] = visible.get(i).projected;
+        return r;
+    }
+
+    private static List<DrawCommand> without(List<DrawCommand> commands, List<DrawCommand> hidden) {
+        if (hidden.isEmpty()) return commands;
+        List<DrawCommand> r = new ArrayList<>(commands.size());
+        for (DrawCommand c : commands) if (!hidden.contains(c)) r.add(c);
+        return r;
+    }
+
+    /** Растеризация готовой геометрии в target (размер — как у geometry). */
+    public static void raster(RenderTarget target, ViewGeometry geometry, RenderCancel cancel) {
+        if (target == null) throw new NullPointerException("target must not be null");
+        if (geometry == null) throw new NullPointerException("geometry must not be null");
+        if (!geometry.matches(target)) throw new IllegalArgumentException("geometry size does not match target");
+        List<Light> lights = geometry.stage.lights;
+        RenderSettings settings = geometry.stage.settings;
+        Camera camera = geometry.camera;
+        LightTiles tiles = geometry.tiles;
+
+        int width = target.getWidth();
+        int height = target.getHeight();
+
+        // zBuffer: меньше => ближе. Пустые значения (+inf) — это просто чужой штамп кадра
+        target.beginFrame(BACKGROUND);
+
+        if (camera == null) {
+            target.endFrame();
+            return;
+        }
+
+        FrameHistory history = null;
+        if (settings.temporalReuse && target.getHistory() != null) {
+            if (settings.useLighting && tiles == null) {
+                // "фонарик" из камеры: шейдинг зависит от позиции камеры, переиспользовать нельзя
+                target.getHistory().invalidate();
+            } else {
+                history = target.getHistory();
+                history.begin(width, height, geometry.proj.multiply(geometry.view),
+                        without(geometry.commands, geometry.hidden),
+                        (lights != null) ? lights : List.of(), settings);
+            }
+        }
+
+        LayerCache layer = settings.layerCaching ? target.getLayerCache() : null;
+        boolean useLayer = layer != null
+                && layer.prepare(width, height, target.getSamples(), geometry.view, commandsOf(geometry.statics));
+        if (useLayer && !layer.isBuilt()) {
+            RenderTarget scratch = layer.scratch();
+            scratch.beginFrame(BACKGROUND);
+            drawAll(geometry.statics, settings, camera, tiles, scratch, null, cancel);
+            layer.capture(scratch);
+        }
+
+        drawAll(geometry.dynamic, settings, camera, tiles, target, history, cancel);
+
+        if (useLayer) {
+            layer.composite(target);
+        } else {
+            drawAll(geometry.statics, settings, camera, tiles, target, history, cancel);
+        }
+
+        if (history != null) history.end();
+        target.endFrame();
+    }
+
+    private static List<DrawCommand> commandsOf(ViewGeometry.Projected[] projected) {
+        List<DrawCommand> r = new ArrayList<>(projected.length);
+        for (ViewGeometry.Projected p : projected) r.add(p.command);
+        return r;
+    }
+
+    private static ViewGeometry.Projected[] projectAll(
+            List<DrawCommand> commands, Mat4 viewProj, Vec3 eye, int width, int height,
+            RenderSettings settings, RenderCancel cancel) {
+        return projectBatch(commands, viewProj, eye, width, height, settings, cancel);
+    }
+
+    /**
+     * Вершинный этап пачки команд. Если вершин в пачке много, команды раскидываются по ядрам
+     * (ForkJoinPool.commonPool): каждая проецируется независимо, так что результат тот же, что и по очереди.
+     * Так десятки тысяч инстансов одного меша (CommandList.addInstances) считаются параллельно.
+     */
+    private static ViewGeometry.Projected[] projectBatch(
+            List<DrawCommand> commands, Mat4 viewProj, Vec3 eye, int width, int height,
+            RenderSettings settings, RenderCancel cancel) {
+        int n = commands.size();
+        ViewGeometry.Projected[] r = new ViewGeometry.Projected[n];
+        long vertices = 0;
+        for (DrawCommand c : commands) vertices += c.getMesh().vertexCount();
+
+        if (n > 1 && PARALLELISM > 1 && vertices >= PARALLEL_MIN_VERTICES) {
+            IntStream.range(0, n).parallel()
+                    .forEach(i -> r[i] = projectCommand(commands.get(i), viewProj, eye, width, height, settings, cancel));
+        } else {
+            for (int i = 0; i < n; i++) r[i] = projectCommand(commands.get(i), viewProj, eye, width, height, settings, cancel);
+        }
+        return r;
+    }
+
+    /** Проиграть команды: у кого есть свой материал — с ним, остальные с настройками кадра. */
+    private static void drawAll(
+            ViewGeometry.Projected[] commands,
             RenderSettings settings,
+            Camera camera,
+            LightTiles tiles,
+            RenderTarget target,
+            FrameHistory history,
+            RenderCancel cancel
+    ) {
+        for (ViewGeometry.Projected p : commands) {
+            RenderSettings s = (p.command.getMaterial() != null) ? p.command.getMaterial() : settings;
+            drawProjected(p, camera, s, tiles, target, history, cancel);
+        }
+    }
+
+    /**
+     * Ближние объекты первыми (по центру bounding box): дальние тогда чаще отбрасываются
+     * z-тестом ещё до шейдинга. Глубина считается один раз на команду, сортировка — O(n log n)
+     * и устойчивая (при равной глубине порядок как в списке), так что и с тысячами инстансов она дешёвая.
+     */
+    private static void sortFrontToBack(List<DrawCommand> list, Mat4 view) {
+        int n = list.size();
+        if (n < 2) return;
+        DepthKey[] keys = new DepthKey[n];
+        for (int i = 0; i < n; i++) keys[i] = new DepthKey(list.get(i), viewDepth(list.get(i), view));
+        Arrays.sort(keys, BY_DEPTH);
+        for (int i = 0; i < n; i++) list.set(i, keys[i].command);
+    }
+
+    /** Команда с посчитанной глубиной для sortFrontToBack. */
+    private static final class DepthKey {
+        final DrawCommand command;
+        final double depth;
+
+        DepthKey(DrawCommand command, double depth) {
+            this.command = command;
+            this.depth = depth;
+        }
+    }
+
+    private static final Comparator<DepthKey> BY_DEPTH = Comparator.comparingDouble(k -> k.depth);
+
+    private static double viewDepth(DrawCommand c, Mat4 view) {
+        Mesh mesh = c.getMesh();
+        Vec3 center = mesh.getBoundsMin().add(mesh.getBoundsMax()).scale(0.5);
+        Vec4 p = view.multiply(c.getModelMatrix().multiply(Vec4.point(center)));
+        return -p.z; // камера смотрит в -z
+    }
+
+    /** Команды для старого API: model — основная модель, extraInstances — иконки камер. */
+    static List<DrawCommand> commandsOf(ModelInstance model, List<ModelInstance> extraInstances) {
+        List<DrawCommand> r = new ArrayList<>();
+        // команду держит сам инстанс (та же, пока Transform не менялся)
+        if (model != null) r.add(model.drawCommand(false, null));
+        if (extraInstances != null) {
+            for (ModelInstance inst : extraInstances) if (inst != null) r.add(inst.drawCommand(true, ICON_MATERIAL));
+        }
+        return r;
+    }
+
+    /**
+     * Карты теней лежат в самих Light (у живого света, origin(), если пришли снимки) и перестраиваются,
+     * только если свет или команды-кастеры поменялись. Камера в ключ кэша не входит.
+     * Карта, проверенная по данным света этого кадра, кладётся и в сам l: другой кадр может тем
+     * временем заменить кэш у живого света.
+     */
+    private static void updateShadowMaps(List<Light> lights, List<DrawCommand> commands, RenderCancel cancel) {
+        List<DrawCommand> casters = new ArrayList<>();
+        for (DrawCommand c : commands) if (c.isCastsShadow()) casters.add(c);
+        for (Light l : lights) {
+            Light live = l.origin();
+            if (!l.isCastsShadows()) {
+                l.shadowMap = null;
+                live.shadowMap = null;
+                continue;
+            }
+            ShadowMap sm = live.shadowMap;
+            if (sm == null || !sm.isUpToDate(l, casters)) {
+                sm = ShadowMap.build(l, casters, cancel);
+                live.shadowMap = sm;
+            }
+            l.shadowMap = sm;
+        }
+    }
+
+    /** Мировой этап вершин: позиции и нормали через model-матрицу (от камеры не зависит). */
+    static WorldStage.Vertices toWorld(Mesh mesh, Mat4 model, RenderCancel cancel) {
+        // рёбра, bounds и плоские массивы вершин меша — общие для всех его инстансов, считаются один раз
+        mesh.prepareForRender();
+        // у сжатого меша плоских массивов нет: распаковываем кусками в маленький буфер прямо тут
+        QuantizedVertices q = mesh.quantized();
+        double[] pos = (q == null) ? mesh.flatPositions() : new double[DECODE_BLOCK * 3];
+        double[] nrm = (q == null) ? mesh.flatNormals() : new double[DECODE_BLOCK * 3];
+        int n = mesh.vertexCount();
+        int block = (q == null) ? n : DECODE_BLOCK;
+        Vec3[] worldPos = new Vec3[n];
+        Vec3[] worldNrm = new Vec3[n];
+
+        // то же, что model.multiply(Vec4.point / Vec4.direction), но без Vec4 на каждую вершину
+        // (порядок операций тот же, так что результат бит в бит тот же)
+        double m00 = model.get(0, 0), m01 = model.get(0, 1), m02 = model.get(0, 2), m03 = model.get(0, 3);
+        double m10 = model.get(1, 0), m11 = model.get(1, 1), m12 = model.get(1, 2), m13 = model.get(1, 3);
+        double m20 = model.get(2, 0), m21 = model.get(2, 1), m22 = model.get(2, 2), m23 = model.get(2, 3);
+
+        // нормали: на нашем уровне просто умножаем как direction (w = 0)
+        for (int base = 0; base < n; base += block) {
+            int end = Math.min(n, base + block);
+            if (q != null) q.decode(base, end, pos, nrm);
+            int off = (q == null) ? 0 : base; // вершина i лежит в буфере под номером i - off
+            for (int i = base; i < end; i++) {
+                if (cancel != null && i % (CANCEL_BATCH * 16) == 0) cancel.check();
+                int o = (i - off) * 3;
+                double x = pos[o], y = pos[o + 1], z = pos[o + 2];
+                worldPos[i] = new Vec3(
+                        m00 * x + m01 * y + m02 * z + m03 * 1.0,
+                        m10 * x + m11 * y + m12 * z + m13 * 1.0,
+                        m20 * x + m21 * y + m22 * z + m23 * 1.0);
+                x = nrm[o];
+                y = nrm[o + 1];
+                z = nrm[o + 2];
+                worldNrm[i] = new Vec3(
+                        m00 * x + m01 * y + m02 * z + m03 * 0.0,
+                        m10 * x + m11 * y + m12 * z + m13 * 0.0,
+                        m20 * x + m21 * y + m22 * z + m23 * 0.0).normalized();
+            }
+        }
+        return new WorldStage.Vertices(worldPos, worldNrm);
+    }
+
+    /**
+     * Вершинный этап одной команды: screen coords, depth, 1/w и список треугольников после backface culling.
+     * С settings.levelOfDetail берётся уровень LOD меша (самый грубый, который на экране не отличить),
+     * с settings.clusterCulling кластеры (Meshlets) вне пирамиды или задом к камере (eye) отбрасываются
+     * до проекции вершин.
+     */
+    private static ViewGeometry.Projected projectCommand(
+            DrawCommand command,
+            Mat4 viewProj,
+            Vec3 eye,
             int width,
             int height,
-            int[] pixels,
-            double[] zBuf
+            RenderSettings settings,
+            RenderCancel cancel
     ) {
-        Mesh mesh = instance.getMesh();
-        if (mesh == null) return;
+        Mesh mesh = command.getMesh();
+        int level = settings.levelOfDetail ? lodLevel(command, viewProj, height) : 0;
+        if (level > 0) mesh = mesh.getLod().level(level).mesh;
+        int[] idx = mesh.indices();
 
-        Mat4 model = instance.getTransform().toMatrix();
-        Mat4 mvp = proj.multiply(view).multiply(model);
+        Meshlets clusters = settings.clusterCulling ? mesh.meshlets() : null;
+        byte[] cls = (clusters != null) ? clusters.classify(command.getModelMatrix(), viewProj, eye) : null;
+        // какие вершины проецировать (null — все); рёбра сетки рисуются и у задних кластеров
+        boolean[] need = null;
+        if (cls != null) {
+            RenderSettings material = (command.getMaterial() != null) ? command.getMaterial() : settings;
+            byte min = material.drawWireframe ? Meshlets.BACKFACE : Meshlets.VISIBLE;
+            need = new boolean[mesh.vertexCount()];
+            for (int c = 0; c < clusters.count; c++) {
+                if (cls[c] < min) continue;
+                for (int k = clusters.vertexStart[c]; k < clusters.vertexStart[c + 1]; k++) need[clusters.vertices[k]] = true;
+            }
+        }
 
-        List<Vec3> pos = mesh.getPositions();
-        List<Vec2> uv = mesh.getTexCoords();
-        List<Vec3> nrm = mesh.getNormals();
-        int[] idx = mesh.getIndices();
+        // мировые позиции/нормали уже посчитаны (в prepare или раньше), здесь только то, что зависит от камеры
+        WorldStage.Vertices world = command.world(level, mesh, cancel);
+        Vec3[] worldPos = world.pos;
+        int n = worldPos.length;
 
-        // предвычислим screen coords, depth (NDC z), world positions, world normals
-        double[] sx = new double[pos.size()];
-        double[] sy = new double[pos.size()];
-        double[] sz = new double[pos.size()];
-        Vec3[] worldPos = new Vec3[pos.size()];
-        Vec3[] worldNrm = new Vec3[pos.size()];
-        boolean[] ok = new boolean[pos.size()];
+        // viewProj.multiply(Vec4.point(p)) без Vec4 на вершину (тот же порядок операций)
+        double m00 = viewProj.get(0, 0), m01 = viewProj.get(0, 1), m02 = viewProj.get(0, 2), m03 = viewProj.get(0, 3);
+        double m10 = viewProj.get(1, 0), m11 = viewProj.get(1, 1), m12 = viewProj.get(1, 2), m13 = viewProj.get(1, 3);
+        double m20 = viewProj.get(2, 0), m21 = viewProj.get(2, 1), m22 = viewProj.get(2, 2), m23 = viewProj.get(2, 3);
+        double m30 = viewProj.get(3, 0), m31 = viewProj.get(3, 1), m32 = viewProj.get(3, 2), m33 = viewProj.get(3, 3);
 
-        Mat4 modelNoTrans = model; // нормали: на нашем уровне просто умножаем как direction
-        for (int i = 0; i < pos.size(); i++) {
-            Vec3 pLocal = pos.get(i);
+        // предвычислим screen coords, depth (NDC z)
+        double[] sx = new double[n];
+        double[] sy = new double[n];
+        double[] sz = new double[n];
+        double[] sw = new double[n]; // 1/w для перспективно-корректной интерполяции
+        boolean[] ok = new boolean[n];
 
-            Vec4 pw = model.multiply(Vec4.point(pLocal));
-            worldPos[i] = new Vec3(pw.x, pw.y, pw.z);
+        for (int i = 0; i < n; i++) {
+            if (cancel != null && i % (CANCEL_BATCH * 16) == 0) cancel.check();
+            if (need != null && !need[i]) { ok[i] = false; continue; }
 
-            Vec4 clip = mvp.multiply(Vec4.point(pLocal));
-            if (Math.abs(clip.w) < 1e-12) { ok[i] = false; continue; }
+            Vec3 p = worldPos[i];
+            double cw = m30 * p.x + m31 * p.y + m32 * p.z + m33 * 1.0;
+            if (Math.abs(cw) < 1e-12) { ok[i] = false; continue; }
 
-            double ndcX = clip.x / clip.w;
-            double ndcY = clip.y / clip.w;
-            double ndcZ = clip.z / clip.w;
+            double ndcX = (m00 * p.x + m01 * p.y + m02 * p.z + m03 * 1.0) / cw;
+            double ndcY = (m10 * p.x + m11 * p.y + m12 * p.z + m13 * 1.0) / cw;
+            double ndcZ = (m20 * p.x + m21 * p.y + m22 * p.z + m23 * 1.0) / cw;
 
             // простой near/far check, без клиппинга
             if (ndcZ < -1.0 || ndcZ > 1.0) { ok[i] = false; continue; }
@@ -123,71 +676,135 @@ public final class SoftwareRenderer {
 
             // depth: [0..1] (меньше ближе)
             sz[i] = (ndcZ + 1.0) * 0.5;
-
-            // нормаль
-            Vec3 nLocal = nrm.get(i);
-            Vec4 nw = modelNoTrans.multiply(Vec4.direction(nLocal));
-            Vec3 nWorld = new Vec3(nw.x, nw.y, nw.z).normalized();
-            worldNrm[i] = nWorld;
+            sw[i] = 1.0 / cw;
 
             ok[i] = true;
         }
 
-        // РИСУЕМ ТРЕУГОЛЬНИКИ
-        for (int t = 0; t < idx.length; t += 3) {
+        // какие треугольники вообще растеризовать (у отброшенных кластеров — пропускаем отрезками)
+        int[] tris = new int[idx.length / 3];
+        int count = 0;
+        if (cls == null) {
+            count = frontFacing(idx, 0, idx.length, ok, sx, sy, tris, count, cancel);
+        } else {
+            for (int r = 0; r < clusters.runCount; r++) {
+                if (cls[clusters.runCluster[r]] != Meshlets.VISIBLE) continue;
+                count = frontFacing(idx, clusters.runStart[r] * 3, clusters.runStart[r + 1] * 3, ok, sx, sy, tris, count, cancel);
+            }
+        }
+
+        return new ViewGeometry.Projected(command, mesh, world, sx, sy, sz, sw, ok, tris, count);
+    }
+
+    /** Дописать в tris смещения треугольников из idx[from..to), у которых все вершины ok и которые лицом к камере. */
+    private static int frontFacing(int[] idx, int from, int to, boolean[] ok, double[] sx, double[] sy,
+                                   int[] tris, int count, RenderCancel cancel) {
+        for (int t = from; t < to; t += 3) {
+            if (cancel != null && t % (CANCEL_BATCH * 3) == 0) cancel.check();
             int ia = idx[t], ib = idx[t + 1], ic = idx[t + 2];
             if (!(ok[ia] && ok[ib] && ok[ic])) continue;
 
-            Vertex2D a = new Vertex2D(sx[ia], sy[ia], sz[ia], uv.get(ia), worldPos[ia], worldNrm[ia]);
-            Vertex2D b = new Vertex2D(sx[ib], sy[ib], sz[ib], uv.get(ib), worldPos[ib], worldNrm[ib]);
-            Vertex2D c = new Vertex2D(sx[ic], sy[ic], sz[ic], uv.get(ic), worldPos[ic], worldNrm[ic]);
-
             // backface culling в screen-space (очень грубо, но быстро)
-            double area2 = (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x);
+            double area2 = (sx[ib] - sx[ia]) * (sy[ic] - sy[ia]) - (sy[ib] - sy[ia]) * (sx[ic] - sx[ia]);
             if (area2 >= 0) continue;
+            tris[count++] = t;
+        }
+        return count;
+    }
 
-            if (!settings.drawWireframe) {
-                rasterTriangle(a, b, c, camera, settings, width, height, pixels, zBuf);
-            } else {
-                // если wireframe включен, мы всё равно должны заливать (если другие флаги не только wireframe).
-                // Если нужно только wireframe — можно не заливать.
-                boolean fill = settings.useLighting || settings.useTexture || settings.baseColor != null;
-                if (!fill) {
-                    drawLineZ(a, b, width, height, pixels, zBuf, settings.baseColor.getRGB());
-                    drawLineZ(b, c, width, height, pixels, zBuf, settings.baseColor.getRGB());
-                    drawLineZ(c, a, width, height, pixels, zBuf, settings.baseColor.getRGB());
-                } else {
-                    rasterTriangle(a, b, c, camera, settings, width, height, pixels, zBuf);
-                }
-            }
+    /**
+     * Уровень LOD для команды: сколько пикселей занимает единица модели в ближайшей к камере точке
+     * её bounding sphere, и по этому MeshLod.select. Без цепочки LOD (или вплотную к камере) — 0.
+     */
+    private static int lodLevel(DrawCommand command, Mat4 viewProj, int height) {
+        Mesh mesh = command.getMesh();
+        MeshLod lod = mesh.getLod();
+        if (lod == null || lod.levelCount() < 2) return 0;
+
+        Mat4 m = command.getModelMatrix();
+        Vec3 bmin = mesh.getBoundsMin(), bmax = mesh.getBoundsMax();
+        Vec4 center = m.multiply(Vec4.point(bmin.add(bmax).scale(0.5)));
+        // максимальный масштаб по осям: ошибка уровня в единицах модели -> в мировых
+        double scale = 0.0;
+        for (int col = 0; col < 3; col++) {
+            double x = m.get(0, col), y = m.get(1, col), z = m.get(2, col);
+            scale = Math.max(scale, Math.sqrt(x * x + y * y + z * z));
         }
+        double radius = bmax.sub(bmin).length() * 0.5 * scale;
 
-        // wireframe поверх (с z-test)
-        if (settings.drawWireframe) {
-            int wire = Color.WHITE.getRGB();
-            for (int t = 0; t < idx.length; t += 3) {
+        // w в clip-пространстве — расстояние до камеры вдоль взгляда
+        double depth = viewProj.get(3, 0) * center.x + viewProj.get(3, 1) * center.y
+                + viewProj.get(3, 2) * center.z + viewProj.get(3, 3);
+        double dist = Math.max(Z_NEAR, depth - radius);
+        double pixelsPerWorldUnit = height / (2.0 * Math.tan(FOV_Y * 0.5) * dist);
+        return lod.select(pixelsPerWorldUnit * scale);
+    }
+
+    private static void drawProjected(
+            ViewGeometry.Projected p,
+            Camera camera,
+            RenderSettings settings,
+            LightTiles lights,
+            RenderTarget target,
+            FrameHistory history,
+            RenderCancel cancel
+    ) {
+        Mesh mesh = p.mesh;
+        List<Vec2> uv = mesh.getTexCoords();
+        int[] idx = mesh.indices();
+        Vec3[] worldPos = p.world.pos;
+        Vec3[] worldNrm = p.world.nrm;
+        double[] sx = p.sx, sy = p.sy, sz = p.sz, sw = p.sw;
+        boolean[] ok = p.ok;
+
+        // если wireframe включен, мы всё равно должны заливать (если другие флаги не только wireframe).
+        // (baseColor == null и без света/текстуры — только сетка: рёбра нарисует проход ниже)
+        boolean fill = fills(settings);
+
+        // РИСУЕМ ТРЕУГОЛЬНИКИ (уже после culling, см. projectCommand)
+        if (fill) {
+            for (int k = 0; k < p.triangleCount; k++) {
+                if (cancel != null && k % CANCEL_BATCH == 0) cancel.check();
+                int t = p.triangles[k];
                 int ia = idx[t], ib = idx[t + 1], ic = idx[t + 2];
-                if (!(ok[ia] && ok[ib] && ok[ic])) continue;
 
-                Vertex2D a = new Vertex2D(sx[ia], sy[ia], sz[ia], uv.get(ia), worldPos[ia], worldNrm[ia]);
-                Vertex2D b = new Vertex2D(sx[ib], sy[ib], sz[ib], uv.get(ib), worldPos[ib], worldNrm[ib]);
-                Vertex2D c = new Vertex2D(sx[ic], sy[ic], sz[ic], uv.get(ic), worldPos[ic], worldNrm[ic]);
+                Vertex2D a = new Vertex2D(sx[ia], sy[ia], sz[ia], sw[ia], uv.get(ia), worldPos[ia], worldNrm[ia]);
+                Vertex2D b = new Vertex2D(sx[ib], sy[ib], sz[ib], sw[ib], uv.get(ib), worldPos[ib], worldNrm[ib]);
+                Vertex2D c = new Vertex2D(sx[ic], sy[ic], sz[ic], sw[ic], uv.get(ic), worldPos[ic], worldNrm[ic]);
+                rasterTriangle(a, b, c, camera, settings, lights, target, history);
+            }
+        }
 
-                drawLineZ(a, b, width, height, pixels, zBuf, wire);
-                drawLineZ(b, c, width, height, pixels, zBuf, wire);
-                drawLineZ(c, a, width, height, pixels, zBuf, wire);
+        // wireframe поверх (с z-test): по уникальным рёбрам меша, каждое ребро один раз
+        if (settings.drawWireframe) {
+            int wire = Color.WHITE.getRGB();
+            int[] edges = mesh.getEdges();
+            for (int e = 0; e < edges.length; e += 2) {
+                if (cancel != null && e % (CANCEL_BATCH * 2) == 0) cancel.check();
+                int i0 = edges[e], i1 = edges[e + 1];
+                if (!(ok[i0] && ok[i1])) continue;
+                drawLine(sx[i0], sy[i0], sz[i0], sx[i1], sy[i1], sz[i1], target, wire);
             }
         }
     }
 
+    /** Заливаются ли треугольники (или рисуется только сетка). */
+    private static boolean fills(RenderSettings settings) {
+        return !settings.drawWireframe
+                || settings.useLighting || settings.useTexture || settings.baseColor != null;
+    }
+
     private static void rasterTriangle(
             Vertex2D v0, Vertex2D v1, Vertex2D v2,
             Camera camera,
             RenderSettings settings,
-            int w, int h,
-            int[] pixels,
-            double[] zBuf
+            LightTiles lights,
+            RenderTarget target,
+            FrameHistory history
     ) {
+        int w = target.getWidth();
+        int h = target.getHeight();
+
         // bounding box
         int minX = (int) Math.floor(Math.min(v0.x, Math.min(v1.x, v2.x)));
         int maxX = (int) Math.ceil(Math.max(v0.x, Math.max(v1.x, v2.x)));
@@ -201,8 +818,25 @@ public final class SoftwareRenderer {
 
         double area = edge(v0.x, v0.y, v1.x, v1.y, v2.x, v2.y);
         if (Math.abs(area) < 1e-12) return;
+        double invArea = 1.0 / area;
 
-        int baseRGB = settings.baseColor.getRGB();
+        if (minX > maxX || minY > maxY) return;
+        target.touch(minX, minY, maxX, maxY);
+
+        int[] pixels = target.pixels;
+        double[] zBuf = target.depth;
+        int[] stamp = target.depthStamp;
+        int frame = target.frame;
+        int[] sampleColor = target.sampleColor;
+        double[] offs = target.sampleOffsets;
+        int samples = target.getSamples();
+
+        // производные edge-функций по x и y: значение в сэмпле = значение в центре + ox*dx + oy*dy
+        double e0dx = v2.y - v1.y, e0dy = v1.x - v2.x;
+        double e1dx = v0.y - v2.y, e1dy = v2.x - v0.x;
+        double e2dx = v1.y - v0.y, e2dy = v0.x - v1.x;
+
+        double[] lit = new double[3];
 
         for (int y = minY; y <= maxY; y++) {
             for (int x = minX; x <= maxX; x++) {
@@ -213,54 +847,222 @@ public final class SoftwareRenderer {
                 double w0 = edge(v1.x, v1.y, v2.x, v2.y, px, py);
                 double w1 = edge(v2.x, v2.y, v0.x, v0.y, px, py);
                 double w2 = edge(v0.x, v0.y, v1.x, v1.y, px, py);
+                int id = y * w + x;
 
-                // inside (ориентированный треугольник)
-                if (w0 < 0 || w1 < 0 || w2 < 0) continue;
+                if (samples == 1) {
+                    // inside (ориентированный треугольник)
+                    if (w0 < 0 || w1 < 0 || w2 < 0) continue;
 
-                w0 /= area;
-                w1 /= area;
-                w2 /= area;
+                    w0 *= invArea;
+                    w1 *= invArea;
+                    w2 *= invArea;
 
-                // depth
-                double z = v0.z * w0 + v1.z * w1 + v2.z * w2;
-                int id = y * w + x;
-                if (z >= zBuf[id]) continue;
-                zBuf[id] = z;
+                    // depth
+                    double z = v0.z * w0 + v1.z * w1 + v2.z * w2;
+                    if (stamp[id] == frame && z >= zBuf[id]) continue;
+                    zBuf[id] = z;
+                    stamp[id] = frame;
 
-                // color
-                int rgb = baseRGB;
+                    pixels[id] = (history == null)
+                            ? shade(v0, v1, v2, w0, w1, w2, x, y, camera, settings, lights, lit)
+                            : shadeOrReuse(v0, v1, v2, w0, w1, w2, x, y, id, camera, settings, lights, lit, history);
+                    continue;
+                }
 
-                Vec3 n = v0.nWorld.scale(w0).add(v1.nWorld.scale(w1)).add(v2.nWorld.scale(w2)).normalized();
+                // MSAA: маска покрытия + depth-тест по каждому под-сэмплу
+                int mask = 0;
+                int first = -1;
+                int base = id * samples;
+                for (int k = 0; k < samples; k++) {
+                    double ox = offs[k * 2], oy = offs[k * 2 + 1];
+                    double s0 = w0 + ox * e0dx + oy * e0dy;
+                    double s1 = w1 + ox * e1dx + oy * e1dy;
+                    double s2 = w2 + ox * e2dx + oy * e2dy;
+                    if (s0 < 0 || s1 < 0 || s2 < 0) continue;
 
-                double intensity = 1.0;
-                if (settings.useLighting) {
-                    Vec3 p = v0.worldPos.scale(w0).add(v1.worldPos.scale(w1)).add(v2.worldPos.scale(w2));
-                    Vec3 L = camera.getPosition().sub(p).normalized(); // свет в позиции камеры
-                    double diff = Math.max(0.0, n.dot(L));
-                    double ambient = 0.22;
-                    intensity = ambient + (1.0 - ambient) * diff;
+                    double z = (v0.z * s0 + v1.z * s1 + v2.z * s2) * invArea;
+                    if (stamp[base + k] == frame && z >= zBuf[base + k]) continue;
+                    zBuf[base + k] = z;
+                    stamp[base + k] = frame;
+                    mask |= 1 << k;
+                    if (first < 0) first = k;
                 }
+                if (mask == 0) continue;
 
-                if (settings.useTexture && settings.texture != null) {
-                    double u = v0.uv.x * w0 + v1.uv.x * w1 + v2.uv.x * w2;
-                    double v = v0.uv.y * w0 + v1.uv.y * w1 + v2.uv.y * w2;
-                    rgb = settings.texture.sample(u, v);
+                // шейдим один раз: в центре, если он внутри, иначе в первом покрытом сэмпле
+                if (w0 < 0 || w1 < 0 || w2 < 0) {
+                    double ox = offs[first * 2], oy = offs[first * 2 + 1];
+                    w0 += ox * e0dx + oy * e0dy;
+                    w1 += ox * e1dx + oy * e1dy;
+                    w2 += ox * e2dx + oy * e2dy;
                 }
+                w0 *= invArea;
+                w1 *= invArea;
+                w2 *= invArea;
+                int rgb = (history == null)
+                        ? shade(v0, v1, v2, w0, w1, w2, x, y, camera, settings, lights, lit)
+                        : shadeOrReuse(v0, v1, v2, w0, w1, w2, x, y, id, camera, settings, lights, lit, history);
 
-                // modulate light (ARGB)
-                if (settings.useLighting) {
-                    int a = (rgb >>> 24) & 255;
-                    int r = (rgb >>> 16) & 255;
-                    int g = (rgb >>> 8) & 255;
-                    int b = (rgb) & 255;
-                    r = (int) Math.round(r * intensity);
-                    g = (int) Math.round(g * intensity);
-                    b = (int) Math.round(b * intensity);
-                    r = clamp255(r); g = clamp255(g); b = clamp255(b);
-                    rgb = (a << 24) | (r << 16) | (g << 8) | b;
+                for (int k = 0; k < samples; k++) {
+                    if ((mask & (1 << k)) != 0) sampleColor[base + k] = rgb;
                 }
+            }
+        }
+    }
+
+    /**
+     * shade() с temporal reprojection: если мировая точка пикселя была видна в прошлом кадре
+     * (та же глубина), берём цвет оттуда, иначе шейдим. Результат пишется в историю текущего кадра.
+     */
+    private static int shadeOrReuse(
+            Vertex2D v0, Vertex2D v1, Vertex2D v2,
+            double w0, double w1, double w2,
+            int x, int y, int id,
+            Camera camera,
+            RenderSettings settings,
+            LightTiles lights,
+            double[] lit,
+            FrameHistory history
+    ) {
+        double q0 = w0 * v0.invW, q1 = w1 * v1.invW, q2 = w2 * v2.invW;
+        double viewDepth = 1.0 / (q0 + q1 + q2); // clip w пикселя
+        q0 *= viewDepth; q1 *= viewDepth; q2 *= viewDepth;
+        double px = v0.worldPos.x * q0 + v1.worldPos.x * q1 + v2.worldPos.x * q2;
+        double py = v0.worldPos.y * q0 + v1.worldPos.y * q1 + v2.worldPos.y * q2;
+        double pz = v0.worldPos.z * q0 + v1.worldPos.z * q1 + v2.worldPos.z * q2;
+
+        int prev = history.reproject(px, py, pz);
+        int rgb = (prev >= 0)
+                ? history.prevColor[prev]
+                : shade(v0, v1, v2, w0, w1, w2, x, y, camera, settings, lights, lit);
+        history.write(id, rgb, viewDepth, prev);
+        return rgb;
+    }
+
+    /** Цвет поверхности в точке с барицентрическими (screen-space) координатами w0..w2. */
+    private static int shade(
+            Vertex2D v0, Vertex2D v1, Vertex2D v2,
+            double w0, double w1, double w2,
+            int x, int y,
+            Camera camera,
+            RenderSettings settings,
+            LightTiles lights,
+            double[] lit
+    ) {
+        // атрибуты интерполируем перспективно-корректно (через 1/w),
+        // иначе world-позиция пикселя "уезжает" и свет из соседнего тайла не совпадает
+        double q0 = w0 * v0.invW, q1 = w1 * v1.invW, q2 = w2 * v2.invW;
+        double qs = 1.0 / (q0 + q1 + q2);
+        q0 *= qs; q1 *= qs; q2 *= qs;
+
+        // color
+        int rgb = settings.baseColor.getRGB();
+
+        double litR = 1.0, litG = 1.0, litB = 1.0;
+        if (settings.useLighting) {
+            double ambient = settings.ambient;
+            Vec3 n = v0.nWorld.scale(q0).add(v1.nWorld.scale(q1)).add(v2.nWorld.scale(q2)).normalized();
+            Vec3 p = v0.worldPos.scale(q0).add(v1.worldPos.scale(q1)).add(v2.worldPos.scale(q2));
+            if (lights == null) {
+                Vec3 L = camera.getPosition().sub(p).normalized(); // свет в позиции камеры
+                double diff = Math.max(0.0, n.dot(L));
+                litR = litG = litB = ambient + (1.0 - ambient) * diff;
+            } else {
+                // только свет, который достаёт до тайла этого пикселя
+                lights.shade(lights.tileOf(x, y), p.x, p.y, p.z, n.x, n.y, n.z, lit);
+                litR = ambient + lit[0];
+                litG = ambient + lit[1];
+                litB = ambient + lit[2];
+            }
+        }
+
+        if (settings.useTexture && settings.texture != null) {
+            double u = v0.uv.x * q0 + v1.uv.x * q1 + v2.uv.x * q2;
+            double v = v0.uv.y * q0 + v1.uv.y * q1 + v2.uv.y * q2;
+            rgb = settings.texture.sample(u, v);
+        }
+
+        // modulate light (ARGB)
+        if (settings.useLighting) {
+            int a = (rgb >>> 24) & 255;
+            int r = (rgb >>> 16) & 255;
+            int g = (rgb >>> 8) & 255;
+            int b = (rgb) & 255;
+            r = (int) Math.round(r * litR);
+            g = (int) Math.round(g * litG);
+            b = (int) Math.round(b * litB);
+            r = clamp255(r); g = clamp255(g); b = clamp255(b);
+            rgb = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        return rgb;
+    }
+
+    /**
+     * Depth-only путь растеризации (для карт теней): вершины проецируются как в projectCommand,
+     * пиксели обходятся как в rasterTriangle (edge-функции в центрах пикселей, глубина по барицентрикам),
+     * но без цвета, текстур, шейдинга, LOD и кластеров, и без backface culling (тень отбрасывают обе стороны).
+     * depth — квадратный буфер size*size, меньше => ближе.
+     */
+    static void renderDepth(Mesh mesh, Mat4 mvp, float[] depth, int size, RenderCancel cancel) {
+        List<Vec3> pos = mesh.getPositions();
+        int[] idx = mesh.indices();
+
+        double[] sx = new double[pos.size()];
+        double[] sy = new double[pos.size()];
+        double[] sz = new double[pos.size()];
+        boolean[] ok = new boolean[pos.size()];
+
+        for (int i = 0; i < pos.size(); i++) {
+            if (cancel != null && i % (CANCEL_BATCH * 16) == 0) cancel.check();
+            Vec4 clip = mvp.multiply(Vec4.point(pos.get(i)));
+            if (Math.abs(clip.w) < 1e-12) continue;
+            double ndcZ = clip.z / clip.w;
+            if (ndcZ < -1.0 || ndcZ > 1.0) continue;
+            sx[i] = (clip.x / clip.w + 1.0) * 0.5 * size;
+            sy[i] = (1.0 - (clip.y / clip.w + 1.0) * 0.5) * size;
+            sz[i] = (ndcZ + 1.0) * 0.5;
+            ok[i] = true;
+        }
+
+        for (int t = 0; t < idx.length; t += 3) {
+            if (cancel != null && t % (CANCEL_BATCH * 3) == 0) cancel.check();
+            int ia = idx[t], ib = idx[t + 1], ic = idx[t + 2];
+            if (!(ok[ia] && ok[ib] && ok[ic])) continue;
+
+            double area = edge(sx[ia], sy[ia], sx[ib], sy[ib], sx[ic], sy[ic]);
+            if (Math.abs(area) < 1e-12) continue;
+            if (area < 0) { int tmp = ib; ib = ic; ic = tmp; area = -area; }
+
+            rasterDepthTriangle(sx[ia], sy[ia], sz[ia], sx[ib], sy[ib], sz[ib], sx[ic], sy[ic], sz[ic],
+                    area, depth, size);
+        }
+    }
+
+    private static void rasterDepthTriangle(
+            double x0, double y0, double z0,
+            double x1, double y1, double z1,
+            double x2, double y2, double z2,
+            double area,
+            float[] depth, int size
+    ) {
+        int minX = Math.max(0, (int) Math.floor(Math.min(x0, Math.min(x1, x2))));
+        int maxX = Math.min(size - 1, (int) Math.ceil(Math.max(x0, Math.max(x1, x2))));
+        int minY = Math.max(0, (int) Math.floor(Math.min(y0, Math.min(y1, y2))));
+        int maxY = Math.min(size - 1, (int) Math.ceil(Math.max(y0, Math.max(y1, y2))));
+
+        double inv = 1.0 / area;
+        for (int y = minY; y <= maxY; y++) {
+            double py = y + 0.5;
+            for (int x = minX; x <= maxX; x++) {
+                double px = x + 0.5;
+                double w0 = edge(x1, y1, x2, y2, px, py);
+                double w1 = edge(x2, y2, x0, y0, px, py);
+                double w2 = edge(x0, y0, x1, y1, px, py);
+                if (w0 < 0 || w1 < 0 || w2 < 0) continue;
 
-                pixels[id] = rgb;
+                float z = (float) ((z0 * w0 + z1 * w1 + z2 * w2) * inv);
+                int id = y * size + x;
+                if (z < depth[id]) depth[id] = z;
             }
         }
     }
@@ -269,33 +1071,90 @@ public final class SoftwareRenderer {
         return (px - ax) * (by - ay) - (py - ay) * (bx - ax);
     }
 
-    /** Простая растеризация линии с Z-тестом (DDA). */
-    private static void drawLineZ(Vertex2D a, Vertex2D b, int w, int h, int[] pixels, double[] zBuf, int rgb) {
-        double dx = b.x - a.x;
-        double dy = b.y - a.y;
-        double dz = b.z - a.z;
-        int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)));
-        if (steps <= 0) return;
+    /**
+     * Линия с Z-тестом: целочисленный Брезенхэм, глубина прибавляется инкрементально.
+     * Отрезок сперва обрезается по экрану (Liang–Barsky), поэтому в цикле нет проверок границ и
+     * длинные рёбра за краем экрана не шагаются впустую. Во внутреннем цикле нет аллокаций и округлений.
+     * Отрезок в один пиксель тоже рисуется. При MSAA красит все под-сэмплы, прошедшие тест.
+     */
+    private static void drawLine(double ax, double ay, double az, double bx, double by, double bz,
+                                 RenderTarget target, int rgb) {
+        int w = target.getWidth();
+        int h = target.getHeight();
+
+        // Liang–Barsky по центрам пикселей [0, w-1] x [0, h-1]: для каждой границы p*t <= q
+        double ddx = bx - ax;
+        double ddy = by - ay;
+        double t0 = 0.0, t1 = 1.0;
+        for (int side = 0; side < 4; side++) {
+            double p, q;
+            switch (side) {
+                case 0:  p = -ddx; q = ax;           break;
+                case 1:  p = ddx;  q = (w - 1) - ax; break;
+                case 2:  p = -ddy; q = ay;           break;
+                default: p = ddy;  q = (h - 1) - ay; break;
+            }
+            if (p == 0.0) {
+                if (q < 0.0) return; // параллельна границе и снаружи
+                continue;
+            }
+            double t = q / p;
+            if (p < 0.0) {
+                if (t > t1) return;
+                if (t > t0) t0 = t;
+            } else {
+                if (t < t0) return;
+                if (t < t1) t1 = t;
+            }
+        }
+
+        // концы обрезанного отрезка уже на экране, и весь путь Брезенхэма между ними — тоже
+        int x = (int) Math.floor(ax + t0 * ddx + 0.5);
+        int y = (int) Math.floor(ay + t0 * ddy + 0.5);
+        int x1 = (int) Math.floor(ax + t1 * ddx + 0.5);
+        int y1 = (int) Math.floor(ay + t1 * ddy + 0.5);
+        double z0 = az + t0 * (bz - az);
+        double z1 = az + t1 * (bz - az);
+
+        int dx = Math.abs(x1 - x);
+        int dy = -Math.abs(y1 - y);
+        int stepX = x < x1 ? 1 : -1;
+        int stepY = y < y1 ? 1 : -1;
+        int steps = Math.max(dx, -dy);
 
-        double x = a.x;
-        double y = a.y;
-        double z = a.z;
+        int samples = target.getSamples();
+        int[] pixels = target.pixels;
+        int[] sampleColor = target.sampleColor;
+        double[] zBuf = target.depth;
+        int[] stamp = target.depthStamp;
+        int frame = target.frame;
+        double[] lineDepth = target.lineDepth;
+        int[] lineStamp = target.lineStamp;
 
-        double sx = dx / steps;
-        double sy = dy / steps;
-        double sz = dz / steps;
+        double z = z0;
+        double sz = (steps > 0) ? (z1 - z0) / steps : 0.0;
+        int err = dx + dy;
 
         for (int i = 0; i <= steps; i++) {
-            int ix = (int) Math.round(x);
-            int iy = (int) Math.round(y);
-            if (ix >= 0 && ix < w && iy >= 0 && iy < h) {
-                int id = iy * w + ix;
-                if (z < zBuf[id]) {
-                    // не обновляем z, иначе линии могут "протыкать" заливку
-                    pixels[id] = rgb;
+            int id = y * w + x;
+            target.touch(x, y);
+            // не обновляем z, иначе линии могут "протыкать" заливку
+            // (глубину линии запоминаем отдельно, только если target строит LayerCache)
+            int base = id * samples;
+            for (int k = 0; k < samples; k++) {
+                int j = base + k;
+                if (stamp[j] == frame && z >= zBuf[j]) continue;
+                if (samples == 1) pixels[id] = rgb;
+                else sampleColor[j] = rgb;
+                if (lineDepth != null && (lineStamp[j] != frame || z < lineDepth[j])) {
+                    lineDepth[j] = z;
+                    lineStamp[j] = frame;
                 }
             }
-            x += sx; y += sy; z += sz;
+            int e2 = err << 1;
+            if (e2 >= dy) { err += dy; x += stepX; }
+            if (e2 <= dx) { err += dx; y += stepY; }
+            z += sz;
         }
     }
 
@@ -305,12 +1164,14 @@ public final class SoftwareRenderer {
 
     private static final class Vertex2D {
         final double x, y, z;
+        final double invW;
         final Vec2 uv;
         final Vec3 worldPos;
         final Vec3 nWorld;
 
-        Vertex2D(double x, double y, double z, Vec2 uv, Vec3 worldPos, Vec3 nWorld) {
+        Vertex2D(double x, double y, double z, double invW, Vec2 uv, Vec3 worldPos, Vec3 nWorld) {
             this.x = x; this.y = y; this.z = z;
+            this.invW = invW;
             this.uv = uv;
             this.worldPos = worldPos;
             this.nWorld = nWorld;
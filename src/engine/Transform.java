@@ -8,40 +8,85 @@ public final class Transform {
     private Vec3 rotation = new Vec3(0, 0, 0); // radians
     private Vec3 scale = new Vec3(1, 1, 1);
 
+    // растёт при каждом изменении: по нему кэши (тени и т.п.) понимают, что пора пересчитать
+    private int version = 0;
+
+    // toMatrix() для какого-то version: пока Transform не трогают (статичные объекты), матрица не пересчитывается.
+    // Версия и матрица лежат в одном неизменяемом объекте, чтобы их нельзя было прочитать вразнобой из другого потока.
+    private static final class CachedMatrix {
+        final int version;
+        final Mat4 matrix;
+
+        CachedMatrix(int version, Mat4 matrix) {
+            this.version = version;
+            this.matrix = matrix;
+        }
+    }
+    private CachedMatrix cached;
+
     public Vec3 getPosition() { return position; }
     public Vec3 getRotation() { return rotation; }
     public Vec3 getScale() { return scale; }
 
-    public void setPosition(Vec3 p) { position = p; }
-    public void setRotation(Vec3 r) { rotation = r; }
-    public void setScale(Vec3 s) { scale = s; }
+    public int getVersion() { return version; }
+
+    public void setPosition(Vec3 p) { position = p; version++; }
+    public void setRotation(Vec3 r) { rotation = r; version++; }
+    public void setScale(Vec3 s) { scale = s; version++; }
+
+    /** Независимая копия (например, чтобы отдать состояние в поток рендера). */
+    public Transform copy() {
+        Transform t = new Transform();
+        t.position = position;
+        t.rotation = rotation;
+        t.scale = scale;
+        // матрица та же самая — незачем копии считать её заново
+        CachedMatrix c = cached;
+        if (c != null && c.version == version) t.cached = new CachedMatrix(t.version, c.matrix);
+        return t;
+    }
 
     /** Сброс Transform в identity. */
     public void reset() {
         position = new Vec3(0, 0, 0);
         rotation = new Vec3(0, 0, 0);
         scale = new Vec3(1, 1, 1);
+        version++;
     }
 
     /** Удобный инкремент позиции. */
     public void translate(Vec3 delta) {
         if (delta == null) throw new NullPointerException("delta must not be null");
         position = position.add(delta);
+        version++;
     }
 
     /** Удобный инкремент вращения (в радианах). */
     public void rotate(Vec3 deltaRadians) {
         if (deltaRadians == null) throw new NullPointerException("deltaRadians must not be null");
         rotation = rotation.add(deltaRadians);
+        version++;
     }
 
     /** Удобный инкремент масштаба (покомпонентно). */
     public void scaleBy(Vec3 factor) {
         if (factor == null) throw new NullPointerException("factor must not be null");
         scale = new Vec3(scale.x * factor.x, scale.y * factor.y, scale.z * factor.z);
+        version++;
     }
 
+    /** Model-матрица T * Rz * Ry * Rx * S. Кэшируется до следующего изменения (setter'ы двигают version). */
     public Mat4 toMatrix() {
+        CachedMatrix c = cached;
+        if (c != null && c.version == version) return c.matrix;
+
+        int v = version;
+        Mat4 m = buildMatrix();
+        cached = new CachedMatrix(v, m);
+        return m;
+    }
+
+    private Mat4 buildMatrix() {
         Mat4 t  = Mat4.translate(position.x, position.y, position.z);
         Mat4 ry = Mat4.rotateY(rotation.y);
         Mat4 rx = Mat4.rotateX(rotation.x);
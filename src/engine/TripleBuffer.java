@@ -0,0 +1,50 @@
+package engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free тройной буфер для передачи готовых кадров между двумя потоками:
+ * один пишет (рендер), другой читает (отрисовка на экран).
+ *
+ * Слоты: back — принадлежит писателю, front — читателю, middle — последний опубликованный кадр.
+ * Писатель после кадра делает publish() (меняет back и middle местами),
+ * читатель в acquire() забирает middle, если там свежий кадр. Никто никого не ждёт.
+ */
+public final class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final Object[] slots = new Object[3];
+
+    // индекс middle-слота + флаг FRESH ("там новый кадр, который читатель ещё не забрал")
+    private final AtomicInteger middle = new AtomicInteger(1);
+
+    private int back = 0;  // трогает только писатель
+    private int front = 2; // трогает только читатель
+
+    /** Писатель: текущий слот для рисования (может быть null, пока не задан). */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) slots[back];
+    }
+
+    /** Писатель: заменить объект в своём слоте (например, при смене размера кадра). */
+    public void setBack(T value) {
+        slots[back] = value;
+    }
+
+    /** Писатель: кадр в back готов — отдаём его читателю, себе берём старый middle. */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /** Читатель: последний готовый кадр (null, если ещё ни одного не было). */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return (T) slots[front];
+    }
+}
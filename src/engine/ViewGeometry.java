@@ -0,0 +1,78 @@
+package engine;
+
+import math.Mat4;
+
+import java.util.List;
+
+/**
+ * Результат вершинного этапа для одной камеры (SoftwareRenderer.project): экранные координаты вершин
+ * всех команд, список видимых (не отброшенных backface culling) треугольников и свет по тайлам.
+ * Дальше остаётся только растеризация (SoftwareRenderer.raster) в target того же размера.
+ *
+ * Нужен, чтобы этапы можно было разнести по потокам: пока один поток растеризует кадр N,
+ * другой уже готовит геометрию кадра N+1 (см. RenderLoop). После создания только читается.
+ */
+public final class ViewGeometry {
+
+    /** Одна команда в экранных координатах. */
+    static final class Projected {
+        final DrawCommand command;
+        final Mesh mesh;        // что рисуется: меш команды или его уровень LOD
+        final WorldStage.Vertices world;
+        final double[] sx, sy, sz;
+        final double[] sw;      // 1/w для перспективно-корректной интерполяции
+        final boolean[] ok;     // вершина попала в [near..far]
+        final int[] triangles;  // смещения в mesh.indices() видимых треугольников
+        final int triangleCount;
+
+        Projected(DrawCommand command, Mesh mesh, WorldStage.Vertices world,
+                  double[] sx, double[] sy, double[] sz, double[] sw, boolean[] ok,
+                  int[] triangles, int triangleCount) {
+            this.command = command;
+            this.mesh = mesh;
+            this.world = world;
+            this.sx = sx;
+            this.sy = sy;
+            this.sz = sz;
+            this.sw = sw;
+            this.ok = ok;
+            this.triangles = triangles;
+            this.triangleCount = triangleCount;
+        }
+    }
+
+    final WorldStage stage;
+    final List<DrawCommand> commands;
+    final List<DrawCommand> hidden; // из commands не рисуются (иконка своей камеры); обычно пусто
+    final Camera camera;
+    final int width, height;
+    final Mat4 view, proj;
+    final LightTiles tiles;
+    // только видимые (после отсечения по BVH, если оно было), ближние первыми (см. SoftwareRenderer.sortFrontToBack)
+    final Projected[] dynamic;
+    final Projected[] statics;
+
+    ViewGeometry(WorldStage stage, List<DrawCommand> commands, List<DrawCommand> hidden, Camera camera,
+                 int width, int height, Mat4 view, Mat4 proj, LightTiles tiles,
+                 Projected[] dynamic, Projected[] statics) {
+        this.stage = stage;
+        this.commands = commands;
+        this.hidden = hidden;
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        this.view = view;
+        this.proj = proj;
+        this.tiles = tiles;
+        this.dynamic = dynamic;
+        this.statics = statics;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /** Для какого target годится: растеризовать можно только в target этого размера. */
+    public boolean matches(RenderTarget target) {
+        return target.getWidth() == width && target.getHeight() == height;
+    }
+}
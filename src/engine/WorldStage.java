@@ -0,0 +1,41 @@
+package engine;
+
+import math.Vec3;
+
+import java.util.List;
+
+/**
+ * Часть кадра, которая не зависит от камеры: вершины и нормали объектов в мировых координатах
+ * и карты теней. Готовится один раз (SoftwareRenderer.prepare), а потом по ней можно
+ * рендерить сколько угодно камер, в том числе параллельно из разных потоков:
+ * после создания WorldStage только читается.
+ *
+ * Мировые вершины хранятся в самих DrawCommand, так что команды, которые не менялись
+ * с прошлого кадра, здесь ничего не стоят (инстансы их не хранят и считают при проекции).
+ * Если есть bvh, вершины считаются позже и только для видимых команд (см. SoftwareRenderer.project).
+ */
+public final class WorldStage {
+
+    /** Мировые позиции и нормали вершин одной команды. */
+    static final class Vertices {
+        final Vec3[] pos;
+        final Vec3[] nrm;
+
+        Vertices(Vec3[] pos, Vec3[] nrm) {
+            this.pos = pos;
+            this.nrm = nrm;
+        }
+    }
+
+    final List<DrawCommand> commands;
+    final InstanceBvh bvh; // null — отсечения по BVH нет, рисуются все команды
+    final List<Light> lights;
+    final RenderSettings settings;
+
+    WorldStage(List<DrawCommand> commands, InstanceBvh bvh, List<Light> lights, RenderSettings settings) {
+        this.commands = commands;
+        this.bvh = bvh;
+        this.lights = lights;
+        this.settings = settings;
+    }
+}
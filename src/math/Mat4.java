@@ -31,6 +31,21 @@ public final class Mat4 {
         return new Mat4(r);
     }
 
+    /** Ортографическая проекция (column-vector), как glOrtho: объём [l..r]x[b..t]x[-n..-f] -> NDC куб. */
+    public static Mat4 orthographic(double left, double right, double bottom, double top, double zNear, double zFar) {
+        double[][] r = new double[4][4];
+
+        r[0][0] = 2.0 / (right - left);
+        r[1][1] = 2.0 / (top - bottom);
+        r[2][2] = -2.0 / (zFar - zNear);
+        r[0][3] = -(right + left) / (right - left);
+        r[1][3] = -(top + bottom) / (top - bottom);
+        r[2][3] = -(zFar + zNear) / (zFar - zNear);
+        r[3][3] = 1.0;
+
+        return new Mat4(r);
+    }
+
     public Vec4 multiply(Vec4 v){
         if (v == null) throw new NullPointerException("v must not be null");
 
@@ -126,6 +141,13 @@ public final class Mat4 {
 
     public double get(int row, int col) { return m[row][col]; }
 
+    /** Матрица в плоском массиве по строкам (row-major): a[row * 4 + col]. Удобно для горячих циклов. */
+    public double[] toRowMajorArray() {
+        double[] a = new double[16];
+        for (int i = 0; i < 4; i++) System.arraycopy(m[i], 0, a, i * 4, 4);
+        return a;
+    }
+
     @Override public String toString() { return Arrays.deepToString(m); }
 
     public static Mat4 fromArray(double[][] a) {
@@ -0,0 +1,111 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InstanceBvhTest {
+
+    // камера в начале координат смотрит в -z, угол 60°, near/far = 0.1 / 100
+    private static final Vec3 EYE = new Vec3(0.0, 0.0, 0.0);
+    private static final Mat4 VIEW_PROJ = Mat4.perspective(Math.toRadians(60.0), 1.0, 0.1, 100.0)
+            .multiply(Camera.lookAt(EYE, new Vec3(0.0, 0.0, -1.0), new Vec3(0.0, 1.0, 0.0)));
+
+    private static final Mesh BOX = TestMeshes.box(0.5);
+
+    /** Обход без перекрытия: номера всех команд, которые BVH счёл видимыми. */
+    private static Set<Integer> visible(InstanceBvh bvh) {
+        Set<Integer> r = new TreeSet<>();
+        bvh.traverse(InstanceBvh.frustumPlanes(VIEW_PROJ), EYE, new InstanceBvh.Visitor() {
+            @Override
+            public boolean occluded(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+                return false;
+            }
+
+            @Override
+            public void visit(int commandIndex) {
+                r.add(commandIndex);
+            }
+        });
+        return r;
+    }
+
+    private static DrawCommand boxAt(double x, double y, double z) {
+        return new DrawCommand(BOX, Mat4.translate(x, y, z), null, true, false);
+    }
+
+    /**
+     * BVH отсекает целыми листами (до LEAF_SIZE команд), поэтому сцена собирается из "кучек" по LEAF_SIZE
+     * кубов почти в одной точке: разбиение по медиане кладёт каждую кучку в свой лист, и видимость листа
+     * совпадает с видимостью его кубов. Кучки сдвинуты на index * 0.05 по всем осям, чтобы ни на одной
+     * оси не перемешивались при разбиении.
+     */
+    private static void addCluster(List<DrawCommand> commands, double x, double y, double z) {
+        double jitter = (commands.size() / InstanceBvh.LEAF_SIZE) * 0.05;
+        for (int i = 0; i < InstanceBvh.LEAF_SIZE; i++) {
+            double d = jitter + i * 0.01;
+            commands.add(boxAt(x + d, y + d, z + d));
+        }
+    }
+
+    private static Set<Integer> range(int from, int to) {
+        Set<Integer> r = new TreeSet<>();
+        for (int i = from; i < to; i++) r.add(i);
+        return r;
+    }
+
+    @Test
+    void visitsExactlyTheBoxesInsideTheFrustum() {
+        List<DrawCommand> commands = new ArrayList<>();
+        // по 4 кучки: перед камерой, за ней, далеко слева, дальше far — чтобы дерево было в несколько уровней
+        double[] zs = {-10.0, 10.0, -10.0, -200.0};
+        double[] xs = {0.0, 0.0, -100.0, 0.0};
+        for (int g = 0; g < 4; g++) {
+            for (int k = 0; k < 4; k++) addCluster(commands, xs[g] + (k % 2) * 3.0 - 1.5, (k / 2) * 3.0 - 1.5, zs[g]);
+        }
+
+        assertEquals(range(0, 4 * InstanceBvh.LEAF_SIZE), visible(InstanceBvh.build(commands)));
+    }
+
+    @Test
+    void boxStraddlingThePlaneIsVisible() {
+        // левая грань пирамиды на z = -10; у первой кучки центр левее неё, но край заходит внутрь,
+        // вторая целиком снаружи (и на дальней грани куба, где пирамида шире, тоже)
+        double edgeX = -10.0 * Math.tan(Math.toRadians(30.0));
+        List<DrawCommand> commands = new ArrayList<>();
+        addCluster(commands, edgeX - 0.45, 0.0, -10.0);
+        addCluster(commands, edgeX - 1.2, 0.0, -10.0);
+
+        assertEquals(range(0, InstanceBvh.LEAF_SIZE), visible(InstanceBvh.build(commands)));
+    }
+
+    @Test
+    void refitFollowsMovedCommands() {
+        List<DrawCommand> commands = new ArrayList<>();
+        for (int k = 0; k < 8; k++) addCluster(commands, (k % 4) * 3.0 - 4.5, (k / 4) * 3.0 - 1.5, -10.0);
+        InstanceBvh bvh = InstanceBvh.build(commands);
+
+        // вторую кучку уводим за камеру
+        int from = InstanceBvh.LEAF_SIZE, to = 2 * InstanceBvh.LEAF_SIZE;
+        List<DrawCommand> moved = new ArrayList<>(commands);
+        int[] changed = new int[to - from];
+        for (int i = from; i < to; i++) {
+            moved.set(i, commands.get(i).withMatrix(Mat4.translate(0.0, 0.0, 10.0)));
+            changed[i - from] = i;
+        }
+        InstanceBvh refitted = bvh.refit(moved, changed, changed.length);
+
+        Set<Integer> expected = range(0, commands.size());
+        expected.removeAll(range(from, to));
+        assertEquals(expected, visible(refitted));
+        // прежний снимок не тронут
+        assertEquals(range(0, commands.size()), visible(bvh));
+    }
+}
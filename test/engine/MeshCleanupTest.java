@@ -0,0 +1,133 @@
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class MeshCleanupTest {
+
+    private static final double TOLERANCE = 1e-6;
+
+    private static Vec3 p(double x, double y, double z) {
+        return new Vec3(x, y, z);
+    }
+
+    /** Каждый треугольник со своими тремя вершинами, как в "супе" из сканера. */
+    private static Mesh soup(Mesh mesh) {
+        int[] idx = mesh.indices();
+        List<Vec3> pos = new ArrayList<>();
+        List<Vec2> uv = new ArrayList<>();
+        List<Vec3> nrm = new ArrayList<>();
+        int[] out = new int[idx.length];
+        for (int k = 0; k < idx.length; k++) {
+            pos.add(mesh.getPositions().get(idx[k]));
+            uv.add(mesh.getTexCoords().get(idx[k]));
+            nrm.add(mesh.getNormals().get(idx[k]));
+            out[k] = k;
+        }
+        return new Mesh(pos, uv, nrm, out);
+    }
+
+    @Test
+    void weldsTriangleSoupBackIntoAGrid() {
+        Mesh grid = TestMeshes.grid(4);
+        Mesh mesh = soup(grid);
+        assertEquals(32 * 3, mesh.vertexCount());
+
+        MeshCleanup.Result r = MeshCleanup.clean(mesh, TOLERANCE);
+
+        assertEquals(grid.vertexCount(), r.mesh.vertexCount());
+        assertEquals(grid.triangleCount(), r.mesh.triangleCount());
+        assertEquals(32 * 3 - 25, r.report.weldedVertices);
+        assertEquals(0, r.report.degenerateTriangles);
+        assertEquals(0, r.report.duplicateTriangles);
+        assertEquals(0, r.report.unusedVertices);
+    }
+
+    @Test
+    void weldsWithinToleranceButKeepsUvSeams() {
+        // квадрат из двух треугольников, у второго свои копии вершин диагонали 1-2: копия 1 сдвинута
+        // меньше допуска, у копии 2 та же позиция, но другая uv (шов) — её склеивать нельзя
+        List<Vec3> pos = List.of(p(0, 0, 0), p(1, 0, 0), p(0, 1, 0),
+                p(1 + TOLERANCE / 10, 0, 0), p(1, 1, 0), p(0, 1, 0));
+        List<Vec2> uv = List.of(new Vec2(0, 0), new Vec2(1, 0), new Vec2(0, 1),
+                new Vec2(1, 0), new Vec2(1, 1), new Vec2(0.5, 1));
+        List<Vec3> nrm = new ArrayList<>();
+        for (int i = 0; i < 6; i++) nrm.add(p(0, 0, 1));
+        Mesh mesh = new Mesh(pos, uv, nrm, new int[]{0, 1, 2, 3, 4, 5});
+
+        MeshCleanup.Result r = MeshCleanup.clean(mesh, TOLERANCE);
+
+        assertEquals(1, r.report.weldedVertices);
+        assertEquals(5, r.mesh.vertexCount());
+        assertEquals(2, r.mesh.triangleCount());
+        assertEquals(1, r.mesh.indices()[3]); // вершина 3 склеена в 1
+    }
+
+    @Test
+    void dropsDegenerateTriangles() {
+        List<Vec3> pos = List.of(p(0, 0, 0), p(1, 0, 0), p(0, 1, 0), p(2, 0, 0), p(5, 5, 5));
+        int[] idx = {
+                0, 1, 2, // нормальный
+                0, 1, 1, // повторённая вершина
+                0, 1, 3  // три точки на одной прямой
+        };
+        MeshCleanup.Result r = MeshCleanup.clean(new Mesh(pos, idx), TOLERANCE);
+
+        assertEquals(2, r.report.degenerateTriangles);
+        assertEquals(1, r.mesh.triangleCount());
+        // вершина 3 была только у вырожденного, 4 — ни у кого
+        assertEquals(2, r.report.unusedVertices);
+        assertEquals(3, r.mesh.vertexCount());
+    }
+
+    @Test
+    void dropsDuplicatesButKeepsTheOtherSide() {
+        List<Vec3> pos = List.of(p(0, 0, 0), p(1, 0, 0), p(0, 1, 0));
+        int[] idx = {
+                0, 1, 2,
+                1, 2, 0, // тот же треугольник, сдвиг по кругу
+                0, 1, 2, // точный дубль
+                0, 2, 1  // обратный обход — другая сторона, остаётся
+        };
+        MeshCleanup.Result r = MeshCleanup.clean(new Mesh(pos, idx), TOLERANCE);
+
+        assertEquals(2, r.report.duplicateTriangles);
+        assertEquals(2, r.mesh.triangleCount());
+        assertEquals(3, r.mesh.vertexCount());
+    }
+
+    @Test
+    void compactsVerticesInOrderAndRemapsIndices() {
+        // 0 и 2 никем не используются; остальные сохраняют порядок, индексы переписаны
+        List<Vec3> pos = List.of(p(9, 9, 9), p(0, 0, 0), p(8, 8, 8), p(1, 0, 0), p(0, 1, 0), p(1, 1, 0));
+        Mesh mesh = new Mesh(pos, new int[]{1, 3, 4, 3, 5, 4});
+
+        MeshCleanup.Result r = MeshCleanup.clean(mesh, TOLERANCE);
+
+        assertEquals(2, r.report.unusedVertices);
+        List<Vec3> expectedPos = List.of(p(0, 0, 0), p(1, 0, 0), p(0, 1, 0), p(1, 1, 0));
+        assertEquals(expectedPos.size(), r.mesh.vertexCount());
+        for (int v = 0; v < expectedPos.size(); v++) {
+            assertEquals(0.0, r.mesh.getPositions().get(v).sub(expectedPos.get(v)).length(), 0.0);
+        }
+        assertArrayEquals(new int[]{0, 1, 2, 1, 3, 2}, r.mesh.indices());
+    }
+
+    @Test
+    void cleanMeshIsReturnedAsIs() {
+        Mesh grid = TestMeshes.grid(3);
+        MeshCleanup.Result r = MeshCleanup.clean(grid);
+
+        assertSame(grid, r.mesh);
+        assertEquals(grid.vertexCount(), r.report.verticesAfter);
+        assertEquals(grid.triangleCount(), r.report.trianglesAfter);
+    }
+}
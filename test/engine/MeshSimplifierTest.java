@@ -0,0 +1,77 @@
+package engine;
+
+import math.Vec3;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MeshSimplifierTest {
+
+    private static final double EPS = 1e-9;
+
+    /** Рёбра, которые есть только у одного треугольника (ключ — пара индексов a < b). */
+    private static Map<Long, int[]> borderEdges(Mesh mesh) {
+        int[] idx = mesh.indices();
+        Map<Long, Integer> uses = new HashMap<>();
+        Map<Long, int[]> ends = new HashMap<>();
+        for (int t = 0; t < idx.length; t += 3) {
+            for (int k = 0; k < 3; k++) {
+                int a = idx[t + k], b = idx[t + (k + 1) % 3];
+                long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+                uses.merge(key, 1, Integer::sum);
+                ends.put(key, new int[]{a, b});
+            }
+        }
+        ends.keySet().removeIf(key -> uses.get(key) != 1);
+        return ends;
+    }
+
+    private static boolean onSquareBorder(Vec3 p) {
+        return Math.abs(p.x) < EPS || Math.abs(p.x - 1.0) < EPS || Math.abs(p.y) < EPS || Math.abs(p.y - 1.0) < EPS;
+    }
+
+    @Test
+    void planeReachesTargetAndKeepsItsBorder() {
+        Mesh plane = TestMeshes.grid(32);
+        assertEquals(2 * 32 * 32, plane.triangleCount());
+
+        MeshSimplifier.Result r = MeshSimplifier.simplify(plane, 200);
+        Mesh out = r.mesh;
+        assertTrue(out.triangleCount() <= 200, "triangles: " + out.triangleCount());
+        assertTrue(out.triangleCount() > 0);
+
+        // плоскость остаётся плоскостью
+        List<Vec3> pos = out.getPositions();
+        for (Vec3 p : pos) assertEquals(0.0, p.z, EPS);
+        assertEquals(0.0, r.error, 1e-9);
+
+        // граница та же: все граничные рёбра лежат на сторонах квадрата, периметр 4, углы на месте
+        double perimeter = 0.0;
+        for (int[] e : borderEdges(out).values()) {
+            Vec3 a = pos.get(e[0]), b = pos.get(e[1]);
+            assertTrue(onSquareBorder(a) && onSquareBorder(b), "border edge moved inside: " + a + " " + b);
+            perimeter += b.sub(a).length();
+        }
+        assertEquals(4.0, perimeter, 1e-9);
+        assertEquals(0.0, out.getBoundsMin().x, EPS);
+        assertEquals(0.0, out.getBoundsMin().y, EPS);
+        assertEquals(1.0, out.getBoundsMax().x, EPS);
+        assertEquals(1.0, out.getBoundsMax().y, EPS);
+    }
+
+    @Test
+    void sphereReachesTargetAndStaysClosed() {
+        Mesh sphere = TestMeshes.sphere(1.0, 24, 48);
+        MeshSimplifier.Result r = MeshSimplifier.simplify(sphere, 300);
+        Mesh out = r.mesh;
+        assertTrue(out.triangleCount() <= 300, "triangles: " + out.triangleCount());
+        assertTrue(borderEdges(out).isEmpty(), "closed mesh got holes");
+        // вершины остаются у поверхности сферы не дальше заявленной ошибки
+        for (Vec3 p : out.getPositions()) assertEquals(1.0, p.length(), r.error);
+    }
+}
@@ -0,0 +1,85 @@
+package engine;
+
+import math.Mat4;
+import math.Vec3;
+import math.Vec4;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcclusionBufferTest {
+
+    private static final int SIZE = 128;
+
+    // камера в начале координат смотрит в -z, угол 60°, near/far = 0.1 / 100
+    private static final Mat4 VIEW_PROJ = Mat4.perspective(Math.toRadians(60.0), 1.0, 0.1, 100.0)
+            .multiply(Camera.lookAt(new Vec3(0.0, 0.0, 0.0), new Vec3(0.0, 0.0, -1.0), new Vec3(0.0, 1.0, 0.0)));
+
+    /** Экранная проекция меша со всеми треугольниками — как её отдаёт вершинный этап рендера. */
+    private static ViewGeometry.Projected project(Mesh mesh, Mat4 model) {
+        List<Vec3> pos = mesh.getPositions();
+        int n = pos.size();
+        double[] sx = new double[n], sy = new double[n], sz = new double[n], sw = new double[n];
+        boolean[] ok = new boolean[n];
+        Mat4 mvp = VIEW_PROJ.multiply(model);
+        for (int i = 0; i < n; i++) {
+            Vec4 clip = mvp.multiply(Vec4.point(pos.get(i)));
+            sx[i] = (clip.x / clip.w + 1.0) * 0.5 * SIZE;
+            sy[i] = (1.0 - (clip.y / clip.w + 1.0) * 0.5) * SIZE;
+            sz[i] = (clip.z / clip.w + 1.0) * 0.5;
+            sw[i] = 1.0 / clip.w;
+            ok[i] = true;
+        }
+        int[] triangles = new int[mesh.triangleCount()];
+        for (int t = 0; t < triangles.length; t++) triangles[t] = t * 3;
+        DrawCommand command = new DrawCommand(mesh, model, null, true, false);
+        return new ViewGeometry.Projected(command, mesh, null, sx, sy, sz, sw, ok, triangles, triangles.length);
+    }
+
+    /** Буфер, в который записан куб 2x2x2 с центром в (0, 0, -5). */
+    private static OcclusionBuffer withWall() {
+        OcclusionBuffer buffer = new OcclusionBuffer(VIEW_PROJ, SIZE, SIZE);
+        Mesh wall = TestMeshes.box(1.0);
+        buffer.add(project(wall, Mat4.translate(0.0, 0.0, -5.0)), wall.indices());
+        return buffer;
+    }
+
+    @Test
+    void emptyBufferOccludesNothing() {
+        OcclusionBuffer buffer = new OcclusionBuffer(VIEW_PROJ, SIZE, SIZE);
+        assertFalse(buffer.occluded(-0.5, -0.5, -20.5, 0.5, 0.5, -19.5));
+    }
+
+    @Test
+    void boxBehindTheWallIsOccluded() {
+        // буфер верит только клеткам, которые один треугольник накрывает целиком, а диагональ грани
+        // (x = y) режет клетки пополам — поэтому куб в стороне от неё
+        assertTrue(withWall().occluded(1.5, -2.5, -20.5, 2.5, -1.5, -19.5));
+    }
+
+    @Test
+    void boxInFrontOfTheWallIsVisible() {
+        assertFalse(withWall().occluded(-0.2, -0.2, -2.2, 0.2, 0.2, -1.8));
+    }
+
+    @Test
+    void boxBehindButBesideTheWallIsVisible() {
+        // на z = -20 стена (ближняя грань) закрывает только |x| < 5; куб правее выглядывает из-за неё
+        assertFalse(withWall().occluded(7.5, -0.5, -20.5, 8.5, 0.5, -19.5));
+    }
+
+    @Test
+    void boxPartlyBehindTheWallIsVisible() {
+        // одна половина за стеной, другая сбоку от неё
+        assertFalse(withWall().occluded(0.0, -0.5, -20.5, 6.0, 0.5, -19.5));
+    }
+
+    @Test
+    void boxIntersectingTheWallIsVisible() {
+        // ближняя грань куба перед стеной — отсекать нельзя
+        assertFalse(withWall().occluded(-0.5, -0.5, -6.5, 0.5, 0.5, -3.5));
+    }
+}
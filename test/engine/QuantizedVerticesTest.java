@@ -0,0 +1,177 @@
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantizedVerticesTest {
+
+    private static final int COUNT = 2000;
+
+    // octahedral 2 x 16 бит: шаг 1/32767 по квадрату, на сфере это меньше 1e-4 радиана
+    private static final double NORMAL_ANGLE_BOUND = 1e-4;
+
+    private static List<Vec3> randomPositions(Random rnd) {
+        // оси разного размера и сдвига: шаг у каждой свой
+        List<Vec3> r = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) {
+            r.add(new Vec3(-3.0 + 8.0 * rnd.nextDouble(), 1e-3 * rnd.nextDouble(), 100.0 + 100.0 * rnd.nextDouble()));
+        }
+        return r;
+    }
+
+    private static List<Vec2> randomUvs(Random rnd) {
+        // тайлинг за пределами 0..1
+        List<Vec2> r = new ArrayList<>();
+        for (int i = 0; i < COUNT; i++) r.add(new Vec2(-2.0 + 5.0 * rnd.nextDouble(), rnd.nextDouble()));
+        return r;
+    }
+
+    private static List<Vec3> randomNormals(Random rnd) {
+        List<Vec3> r = new ArrayList<>();
+        // оси и диагонали отдельно — это края и углы октаэдра
+        for (int s = 0; s < 8; s++) {
+            r.add(new Vec3((s & 1) == 0 ? 1 : -1, (s & 2) == 0 ? 1 : -1, (s & 4) == 0 ? 1 : -1).normalized());
+        }
+        r.add(new Vec3(0, 0, 1));
+        r.add(new Vec3(0, 0, -1));
+        r.add(new Vec3(1, 0, 0));
+        r.add(new Vec3(0, -1, 0));
+        while (r.size() < COUNT) r.add(new Vec3(rnd.nextGaussian(), rnd.nextGaussian(), rnd.nextGaussian()).normalized());
+        return r;
+    }
+
+    /** Шаг квантования по оси: размер / 65535; ошибка округления — не больше половины шага. */
+    private static double halfStep(double min, double max) {
+        return 0.5 * (max - min) / 65535.0 + 1e-12;
+    }
+
+    @Test
+    void positionsRestoreWithinHalfAStep() {
+        Random rnd = new Random(1);
+        List<Vec3> pos = randomPositions(rnd);
+        QuantizedVertices q = QuantizedVertices.encode(pos, randomUvs(rnd), randomNormals(rnd));
+
+        Mesh bounds = new Mesh(pos, new int[]{0, 1, 2});
+        Vec3 min = bounds.getBoundsMin(), max = bounds.getBoundsMax();
+        double ex = halfStep(min.x, max.x), ey = halfStep(min.y, max.y), ez = halfStep(min.z, max.z);
+
+        double[] flat = q.flatPositions();
+        for (int i = 0; i < COUNT; i++) {
+            Vec3 p = pos.get(i), d = q.position(i);
+            assertEquals(p.x, d.x, ex);
+            assertEquals(p.y, d.y, ey);
+            assertEquals(p.z, d.z, ez);
+            assertEquals(d.x, flat[i * 3], 0.0);
+            assertEquals(d.y, flat[i * 3 + 1], 0.0);
+            assertEquals(d.z, flat[i * 3 + 2], 0.0);
+        }
+    }
+
+    @Test
+    void flatAxisRestoresExactly() {
+        // все z одинаковые: шаг по оси 0, значение — ровно origin
+        List<Vec3> pos = List.of(new Vec3(0, 0, 7.25), new Vec3(1, 0, 7.25), new Vec3(0, 1, 7.25));
+        List<Vec2> uv = List.of(new Vec2(0.5, 0.5), new Vec2(0.5, 0.5), new Vec2(0.5, 0.5));
+        List<Vec3> nrm = List.of(new Vec3(0, 0, 1), new Vec3(0, 0, 1), new Vec3(0, 0, 1));
+        QuantizedVertices q = QuantizedVertices.encode(pos, uv, nrm);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(7.25, q.position(i).z, 0.0);
+            assertEquals(0.5, q.texCoord(i).x, 0.0);
+            assertEquals(0.5, q.texCoord(i).y, 0.0);
+        }
+    }
+
+    @Test
+    void texCoordsRestoreWithinHalfAStep() {
+        Random rnd = new Random(2);
+        List<Vec2> uv = randomUvs(rnd);
+        QuantizedVertices q = QuantizedVertices.encode(randomPositions(rnd), uv, randomNormals(rnd));
+
+        double minU = Double.POSITIVE_INFINITY, maxU = Double.NEGATIVE_INFINITY;
+        double minV = Double.POSITIVE_INFINITY, maxV = Double.NEGATIVE_INFINITY;
+        for (Vec2 t : uv) {
+            minU = Math.min(minU, t.x);
+            maxU = Math.max(maxU, t.x);
+            minV = Math.min(minV, t.y);
+            maxV = Math.max(maxV, t.y);
+        }
+        double eu = halfStep(minU, maxU), ev = halfStep(minV, maxV);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(uv.get(i).x, q.texCoord(i).x, eu);
+            assertEquals(uv.get(i).y, q.texCoord(i).y, ev);
+        }
+    }
+
+    @Test
+    void normalsRestoreAsUnitVectorsWithinAngleBound() {
+        Random rnd = new Random(3);
+        List<Vec3> nrm = randomNormals(rnd);
+        QuantizedVertices q = QuantizedVertices.encode(randomPositions(rnd), randomUvs(rnd), nrm);
+
+        double[] flat = q.flatNormals();
+        for (int i = 0; i < COUNT; i++) {
+            Vec3 n = nrm.get(i), d = q.normal(i);
+            assertEquals(1.0, d.length(), 1e-12);
+            double angle = Math.acos(Math.max(-1.0, Math.min(1.0, n.dot(d))));
+            assertTrue(angle < NORMAL_ANGLE_BOUND, "normal " + i + " off by " + angle + " rad");
+            assertEquals(d.x, flat[i * 3], 0.0);
+            assertEquals(d.y, flat[i * 3 + 1], 0.0);
+            assertEquals(d.z, flat[i * 3 + 2], 0.0);
+        }
+    }
+
+    @Test
+    void compactMeshDecodesThroughItsLists() {
+        Mesh mesh = TestMeshes.sphere(2.0, 12, 24);
+        Mesh compact = mesh.compact();
+
+        assertTrue(compact.isCompact());
+        assertEquals(mesh.vertexCount(), compact.vertexCount());
+        assertArrayEquals(mesh.indices(), compact.indices());
+        double e = halfStep(-2.0, 2.0);
+        for (int i = 0; i < mesh.vertexCount(); i++) {
+            Vec3 p = mesh.getPositions().get(i), d = compact.getPositions().get(i);
+            assertEquals(p.x, d.x, e);
+            assertEquals(p.y, d.y, e);
+            assertEquals(p.z, d.z, e);
+            assertTrue(mesh.getNormals().get(i).dot(compact.getNormals().get(i)) > Math.cos(NORMAL_ANGLE_BOUND));
+        }
+    }
+
+    /** Меш из n вершин, в треугольниках которого есть и первая, и последняя вершина. */
+    private static Mesh withVertices(int n) {
+        List<Vec3> pos = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) pos.add(new Vec3(i % 256, i / 256, (i * 7) % 13));
+        return new Mesh(pos, new int[]{0, 1, 2, n - 3, n - 2, n - 1});
+    }
+
+    @Test
+    void shortIndicesOnlyBelowTheLimit() {
+        Mesh below = withVertices(Mesh.SHORT_INDEX_LIMIT - 1).compact();
+        assertTrue(below.hasShortIndices());
+        assertArrayEquals(new int[]{0, 1, 2, 65532, 65533, 65534}, below.indices());
+
+        Mesh atLimit = withVertices(Mesh.SHORT_INDEX_LIMIT).compact();
+        assertFalse(atLimit.hasShortIndices());
+        assertArrayEquals(new int[]{0, 1, 2, 65533, 65534, 65535}, atLimit.indices());
+
+        Mesh above = withVertices(Mesh.SHORT_INDEX_LIMIT + 1000).compact();
+        assertFalse(above.hasShortIndices());
+        assertEquals(Mesh.SHORT_INDEX_LIMIT + 999, above.indices()[5]);
+
+        // обычный меш всегда с int-индексами
+        assertFalse(withVertices(100).hasShortIndices());
+        assertTrue(withVertices(100).compact().hasShortIndices());
+    }
+}
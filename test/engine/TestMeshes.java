@@ -0,0 +1,103 @@
+package engine;
+
+import math.Vec2;
+import math.Vec3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Маленькие меши, собранные руками, для тестов. */
+final class TestMeshes {
+
+    private TestMeshes() {
+    }
+
+    /** Куб [-h, h]^3: 8 вершин, 12 треугольников (наружу против часовой). */
+    static Mesh box(double h) {
+        List<Vec3> p = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            p.add(new Vec3((i & 1) == 0 ? -h : h, (i & 2) == 0 ? -h : h, (i & 4) == 0 ? -h : h));
+        }
+        int[] idx = {
+                0, 2, 3, 0, 3, 1, // -z
+                4, 5, 7, 4, 7, 6, // +z
+                0, 4, 6, 0, 6, 2, // -x
+                1, 3, 7, 1, 7, 5, // +x
+                0, 1, 5, 0, 5, 4, // -y
+                2, 6, 7, 2, 7, 3  // +y
+        };
+        return new Mesh(p, idx);
+    }
+
+    /**
+     * Плоскость [0, 1]^2 в XY (z = 0), разбитая на n x n квадратов по два треугольника:
+     * (n + 1)^2 вершин, 2 * n^2 треугольников, uv = (x, y), нормали +z.
+     */
+    static Mesh grid(int n) {
+        List<Vec3> p = new ArrayList<>();
+        List<Vec2> uv = new ArrayList<>();
+        List<Vec3> nrm = new ArrayList<>();
+        for (int y = 0; y <= n; y++) {
+            for (int x = 0; x <= n; x++) {
+                p.add(new Vec3((double) x / n, (double) y / n, 0.0));
+                uv.add(new Vec2((double) x / n, (double) y / n));
+                nrm.add(new Vec3(0.0, 0.0, 1.0));
+            }
+        }
+        int[] idx = new int[n * n * 6];
+        int k = 0;
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                int a = y * (n + 1) + x, b = a + 1, c = a + n + 1, d = c + 1;
+                idx[k++] = a; idx[k++] = b; idx[k++] = d;
+                idx[k++] = a; idx[k++] = d; idx[k++] = c;
+            }
+        }
+        return new Mesh(p, uv, nrm, idx);
+    }
+
+    /** UV-сфера радиуса r: stacks колец по slices вершин плюс полюса, нормали = направление из центра. */
+    static Mesh sphere(double r, int stacks, int slices) {
+        List<Vec3> p = new ArrayList<>();
+        List<Vec2> uv = new ArrayList<>();
+        List<Vec3> nrm = new ArrayList<>();
+        p.add(new Vec3(0.0, r, 0.0));
+        uv.add(new Vec2(0.5, 0.0));
+        nrm.add(new Vec3(0.0, 1.0, 0.0));
+        for (int i = 1; i <= stacks; i++) {
+            double phi = Math.PI * i / (stacks + 1);
+            for (int j = 0; j < slices; j++) {
+                double theta = 2.0 * Math.PI * j / slices;
+                Vec3 n = new Vec3(Math.sin(phi) * Math.cos(theta), Math.cos(phi), Math.sin(phi) * Math.sin(theta));
+                p.add(n.scale(r));
+                uv.add(new Vec2((double) j / slices, (double) i / (stacks + 1)));
+                nrm.add(n);
+            }
+        }
+        int south = p.size();
+        p.add(new Vec3(0.0, -r, 0.0));
+        uv.add(new Vec2(0.5, 1.0));
+        nrm.add(new Vec3(0.0, -1.0, 0.0));
+
+        List<Integer> idx = new ArrayList<>();
+        for (int j = 0; j < slices; j++) {
+            int a = 1 + j, b = 1 + (j + 1) % slices;
+            idx.add(0); idx.add(b); idx.add(a);
+        }
+        for (int i = 0; i < stacks - 1; i++) {
+            for (int j = 0; j < slices; j++) {
+                int a = 1 + i * slices + j, b = 1 + i * slices + (j + 1) % slices;
+                int c = a + slices, d = b + slices;
+                idx.add(a); idx.add(b); idx.add(d);
+                idx.add(a); idx.add(d); idx.add(c);
+            }
+        }
+        for (int j = 0; j < slices; j++) {
+            int a = 1 + (stacks - 1) * slices + j, b = 1 + (stacks - 1) * slices + (j + 1) % slices;
+            idx.add(a); idx.add(b); idx.add(south);
+        }
+        int[] r2 = new int[idx.size()];
+        for (int i = 0; i < r2.length; i++) r2[i] = idx.get(i);
+        return new Mesh(p, uv, nrm, r2);
+    }
+}